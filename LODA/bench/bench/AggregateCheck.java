@@ -0,0 +1,174 @@
+package bench;
+
+import model.Expense;
+import model.User;
+import service.ColumnarExpenseStore;
+import service.ExpenseManager;
+import service.ExpenseStore;
+import service.IndexedExpenseStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Checks the incrementally maintained expense aggregates against recounts.
+ * <p>
+ * Usage: {@code java -cp bin bench.AggregateCheck [--seeds 20] [--ops 5000] [--every 250]}
+ * <p>
+ * For each seed and store, applies a random sequence of adds, edits (which may move
+ * an expense to another category or month) and deletes to a few users. Every
+ * {@code --every} operations, and again after reopening the manager,
+ * {@link ExpenseManager#verifyAggregates()} must hold and every user's category
+ * totals, overall and per month, must equal a sum over their expenses. Exits with
+ * status 1 on the first mismatch, printing the seed that produced it.
+ */
+public class AggregateCheck {
+    private static final String[] CATEGORIES = {"Food", "Travel", "Rent", "Health", "Other"};
+    private static final LocalDate START = LocalDate.of(2023, 1, 1);
+
+    public static void main(String[] args) throws Exception {
+        int seeds = 20;
+        int ops = 5000;
+        int every = 250;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--seeds":
+                    seeds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--ops":
+                    ops = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--every":
+                    every = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        Map<String, Supplier<ExpenseStore>> stores = new LinkedHashMap<>();
+        stores.put("indexed", IndexedExpenseStore::new);
+        stores.put("columnar", ColumnarExpenseStore::new);
+        for (int seed = 0; seed < seeds; seed++) {
+            for (Map.Entry<String, Supplier<ExpenseStore>> store : stores.entrySet()) {
+                String failure = run(seed, store.getValue(), ops, every);
+                if (failure != null) {
+                    System.out.println("FAILED seed=" + seed + " store=" + store.getKey() + ": " + failure);
+                    System.exit(1);
+                }
+            }
+        }
+        System.out.println("Aggregates matched recounts for " + seeds + " seeds x " + ops + " operations");
+    }
+
+    /**
+     * @return A description of the first mismatch, or null.
+     */
+    private static String run(long seed, Supplier<ExpenseStore> store, int ops, int every) throws IOException {
+        File dir = Files.createTempDirectory("smartspend-aggregates").toFile();
+        Random random = new Random(seed);
+        User[] users = new User[4];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User(new UUID(seed, i).toString(), "user" + i, null);
+        }
+        String failure = null;
+        ExpenseManager manager = new ExpenseManager(dir.getPath(), true, store);
+        try {
+            for (int op = 1; op <= ops && failure == null; op++) {
+                User user = users[random.nextInt(users.length)];
+                List<Expense> owned = manager.getExpensesByUser(user);
+                int action = random.nextInt(10);
+                if (action < 5 || owned.isEmpty()) {
+                    manager.addExpense(user, nextDate(random), nextCategory(random), nextAmount(random), "op" + op);
+                } else if (action < 8) {
+                    Expense e = owned.get(random.nextInt(owned.size()));
+                    LocalDate date = random.nextBoolean() ? e.getDate() : nextDate(random);
+                    String category = random.nextBoolean() ? e.getCategory() : nextCategory(random);
+                    long amount = random.nextBoolean() ? e.getAmountCents() : nextAmount(random);
+                    if (!manager.editExpense(e.getId(), user, date, category, amount, "op" + op)) {
+                        failure = "op " + op + ": edit of " + e.getId() + " was rejected";
+                    }
+                } else {
+                    Expense e = owned.get(random.nextInt(owned.size()));
+                    if (!manager.deleteExpense(e.getId(), user)) {
+                        failure = "op " + op + ": delete of " + e.getId() + " was rejected";
+                    }
+                }
+                if (failure == null && op % every == 0) {
+                    failure = verify(manager, users, "op " + op);
+                }
+            }
+        } finally {
+            manager.close();
+        }
+        if (failure == null) {
+            ExpenseManager reopened = new ExpenseManager(dir.getPath(), true, store);
+            failure = verify(reopened, users, "reopened");
+            reopened.close();
+        }
+        deleteRecursively(dir);
+        return failure;
+    }
+
+    private static String verify(ExpenseManager manager, User[] users, String when) {
+        if (!manager.verifyAggregates()) {
+            return when + ": verifyAggregates() failed";
+        }
+        for (User user : users) {
+            Map<String, Long> totals = new HashMap<>();
+            Map<YearMonth, Map<String, Long>> monthly = new HashMap<>();
+            for (Expense e : manager.getExpensesByUser(user)) {
+                totals.merge(e.getCategory(), e.getAmountCents(), Long::sum);
+                monthly.computeIfAbsent(YearMonth.from(e.getDate()), k -> new HashMap<>())
+                        .merge(e.getCategory(), e.getAmountCents(), Long::sum);
+            }
+            if (!totals.equals(manager.getCategoryTotals(user))) {
+                return when + ": category totals of " + user.getUsername() + " are " + manager.getCategoryTotals(user)
+                        + ", expected " + totals;
+            }
+            for (int m = 0; m < 24; m++) {
+                YearMonth month = YearMonth.from(START).plusMonths(m);
+                Map<String, Long> expected = monthly.getOrDefault(month, new HashMap<>());
+                Map<String, Long> actual = manager.getCategoryTotals(user, month);
+                if (!expected.equals(actual)) {
+                    return when + ": " + month + " totals of " + user.getUsername() + " are " + actual
+                            + ", expected " + expected;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static LocalDate nextDate(Random random) {
+        return START.plusDays(random.nextInt(2 * 365));
+    }
+
+    private static String nextCategory(Random random) {
+        return CATEGORIES[random.nextInt(CATEGORIES.length)];
+    }
+
+    private static long nextAmount(Random random) {
+        return 1 + random.nextInt(50_000);
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
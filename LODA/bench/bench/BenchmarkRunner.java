@@ -0,0 +1,144 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal benchmark harness: timed warmup, then measured iterations of a batch
+ * of operations, reporting mean and percentile latency per operation.
+ * Results can be exported as JSON for trend tracking.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A benchmarked operation. {@code run} performs one invocation.
+     */
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Summary of one benchmark.
+     */
+    public static class Result {
+        final String name;
+        final int rows;
+        final long operations;
+        final double meanNanos;
+        final double p50Nanos;
+        final double p99Nanos;
+        final double opsPerSecond;
+
+        Result(String name, int rows, long operations, double meanNanos, double p50Nanos, double p99Nanos) {
+            this.name = name;
+            this.rows = rows;
+            this.operations = operations;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.opsPerSecond = meanNanos > 0 ? 1e9 / meanNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s rows=%-9d ops=%-8d mean=%12.1f ns  p50=%12.1f ns  p99=%12.1f ns  %12.1f ops/s",
+                    name, rows, operations, meanNanos, p50Nanos, p99Nanos, opsPerSecond);
+        }
+    }
+
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final List<Result> results = new ArrayList<>();
+    private final PrintStream log = System.out; // benchmarks may redirect System.out
+
+    /**
+     * @param warmupMillis  Time spent warming up each benchmark.
+     * @param measureMillis Time spent measuring each benchmark.
+     */
+    public BenchmarkRunner(long warmupMillis, long measureMillis) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    /**
+     * Runs a benchmark and records its result.
+     *
+     * @param name      Benchmark name.
+     * @param rows      Data set size, for reporting.
+     * @param operation The operation to time.
+     * @return The result.
+     * @throws Exception if the operation fails.
+     */
+    public Result run(String name, int rows, Operation operation) throws Exception {
+        return run(name, rows, () -> { }, operation);
+    }
+
+    /**
+     * Runs a benchmark whose invocations each need untimed preparation.
+     *
+     * @param name      Benchmark name.
+     * @param rows      Data set size, for reporting.
+     * @param setup     Runs before every invocation, outside the timed region.
+     * @param operation The operation to time.
+     * @return The result.
+     * @throws Exception if the setup or operation fails.
+     */
+    public Result run(String name, int rows, Operation setup, Operation operation) throws Exception {
+        long warmupEnd = System.nanoTime() + warmupMillis * 1_000_000;
+        do {
+            setup.run();
+            operation.run();
+        } while (System.nanoTime() < warmupEnd);
+
+        long[] samples = new long[1024];
+        int count = 0;
+        long measureEnd = System.nanoTime() + measureMillis * 1_000_000;
+        do {
+            setup.run();
+            long start = System.nanoTime();
+            operation.run();
+            long elapsed = System.nanoTime() - start;
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = elapsed;
+        } while (System.nanoTime() < measureEnd);
+
+        Arrays.sort(samples, 0, count);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += samples[i];
+        }
+        Result result = new Result(name, rows, count, (double) total / count,
+                samples[(int) (count * 0.50)], samples[Math.min(count - 1, (int) (count * 0.99))]);
+        results.add(result);
+        log.println(result);
+        return result;
+    }
+
+    /**
+     * Writes all recorded results as a JSON array.
+     *
+     * @param path Destination path.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeJson(String path) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(path))) {
+            bw.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                bw.write(String.format(java.util.Locale.ROOT,
+                        "  {\"benchmark\": \"%s\", \"rows\": %d, \"operations\": %d, \"meanNanos\": %.1f, "
+                                + "\"p50Nanos\": %.1f, \"p99Nanos\": %.1f, \"opsPerSecond\": %.1f}%s%n",
+                        r.name, r.rows, r.operations, r.meanNanos, r.p50Nanos, r.p99Nanos, r.opsPerSecond,
+                        i + 1 < results.size() ? "," : ""));
+            }
+            bw.write("]\n");
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package bench;
+
+import model.Expense;
+import model.Session;
+import model.User;
+import service.ExpenseManager;
+import service.IndexedExpenseStore;
+import service.UserManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress check for the service layer under many concurrent sessions.
+ * <p>
+ * Usage: {@code java -cp bin bench.ConcurrencyCheck [--threads 1,2,4,8] [--ops 20000]
+ * [--users 64] [--rows 1000000] [--measure ms]}
+ * <p>
+ * For each thread count, writer threads add, edit and delete expenses of a shared
+ * set of users at random. Each thread edits and deletes only rows it added and
+ * keeps the count and total it expects per user. Once they finish, the manager must
+ * hold exactly those counts and totals, its aggregates must match a recount, and
+ * the same must hold after reopening it. Sessions are checked the same way: every
+ * concurrent registration must succeed and every login must get its own session.
+ * <p>
+ * Then reader threads query a generated data set for {@code --measure} ms at each
+ * thread count; the throughput and speedup over one thread are printed. Reads
+ * should scale with the thread count up to the number of processors. Exits with
+ * status 1 if any check fails.
+ */
+public class ConcurrencyCheck {
+    private static final String[] CATEGORIES = {"Food", "Travel", "Rent", "Health", "Other"};
+    private static final LocalDate START = LocalDate.of(2022, 1, 1);
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String threadsArg = "1,2,4,8";
+        int ops = 20_000;
+        int users = 64;
+        int rows = 1_000_000;
+        long measure = 3000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threads":
+                    threadsArg = args[i + 1];
+                    break;
+                case "--ops":
+                    ops = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--users":
+                    users = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rows":
+                    rows = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--measure":
+                    measure = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String count : threadsArg.split(",")) {
+            threadCounts.add(Integer.parseInt(count.trim()));
+        }
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors());
+        for (int threads : threadCounts) {
+            checkWriters(threads, ops, users);
+            checkSessions(threads, Math.max(1, ops / 100));
+        }
+        measureReads(threadCounts, rows, measure);
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * What one writer thread expects of each user's expenses.
+     */
+    private static class Ledger {
+        final long[] counts;
+        final long[] cents;
+
+        Ledger(int users) {
+            counts = new long[users];
+            cents = new long[users];
+        }
+    }
+
+    private static void checkWriters(int threads, int ops, int userCount) throws Exception {
+        File dir = Files.createTempDirectory("smartspend-stress").toFile();
+        User[] users = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = new User(new UUID(7, i).toString(), "user" + i, null);
+        }
+        Ledger[] ledgers = new Ledger[threads];
+        ExpenseManager manager = new ExpenseManager(dir.getPath(), true, IndexedExpenseStore::new);
+        long start = System.nanoTime();
+        runThreads(threads, t -> {
+            Ledger ledger = new Ledger(userCount);
+            ledgers[t] = ledger;
+            Random random = new Random(t);
+            String tag = "w" + t + " ";
+            for (int op = 0; op < ops; op++) {
+                int u = random.nextInt(userCount);
+                User user = users[u];
+                int action = random.nextInt(100);
+                if (action < 60) {
+                    long amount = 1 + random.nextInt(100_000);
+                    manager.addExpense(user, START.plusDays(random.nextInt(3 * 365)),
+                            CATEGORIES[random.nextInt(CATEGORIES.length)], amount, tag + op);
+                    ledger.counts[u]++;
+                    ledger.cents[u] += amount;
+                    continue;
+                }
+                Expense own = pickOwn(manager.getExpensesByUser(user), tag, random);
+                if (own == null) continue;
+                if (action < 85) {
+                    long amount = 1 + random.nextInt(100_000);
+                    if (!manager.editExpense(own.getId(), user, own.getDate(), own.getCategory(), amount, own.getDescription())) {
+                        fail("edit of " + own.getId() + " was rejected");
+                        continue;
+                    }
+                    ledger.cents[u] += amount - own.getAmountCents();
+                } else {
+                    if (!manager.deleteExpense(own.getId(), user)) {
+                        fail("delete of " + own.getId() + " was rejected");
+                        continue;
+                    }
+                    ledger.counts[u]--;
+                    ledger.cents[u] -= own.getAmountCents();
+                }
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("writers=%-3d ops=%-9d %10.0f ops/s%n", threads, (long) threads * ops, threads * ops / seconds);
+
+        long[] counts = new long[userCount];
+        long[] cents = new long[userCount];
+        for (Ledger ledger : ledgers) {
+            for (int u = 0; u < userCount; u++) {
+                counts[u] += ledger.counts[u];
+                cents[u] += ledger.cents[u];
+            }
+        }
+        compare("writers=" + threads, manager, users, counts, cents);
+        manager.close();
+        ExpenseManager reopened = new ExpenseManager(dir.getPath(), true, IndexedExpenseStore::new);
+        compare("writers=" + threads + " reopened", reopened, users, counts, cents);
+        reopened.close();
+        deleteRecursively(dir);
+    }
+
+    private static Expense pickOwn(List<Expense> expenses, String tag, Random random) {
+        List<Expense> own = new ArrayList<>();
+        for (Expense e : expenses) {
+            if (e.getDescription().startsWith(tag)) {
+                own.add(e);
+            }
+        }
+        return own.isEmpty() ? null : own.get(random.nextInt(own.size()));
+    }
+
+    private static void compare(String label, ExpenseManager manager, User[] users, long[] counts, long[] cents) {
+        long lostRows = 0;
+        long lostCents = 0;
+        long reportedCents = 0;
+        for (int u = 0; u < users.length; u++) {
+            List<Expense> held = manager.getExpensesByUser(users[u]);
+            long sum = 0;
+            for (Expense e : held) {
+                sum += e.getAmountCents();
+            }
+            lostRows += Math.abs(counts[u] - held.size());
+            lostCents += Math.abs(cents[u] - sum);
+            for (long total : manager.getCategoryTotals(users[u]).values()) {
+                reportedCents += total;
+            }
+        }
+        long expectedCents = 0;
+        for (long c : cents) {
+            expectedCents += c;
+        }
+        check(lostRows == 0 && lostCents == 0, label + ": rows off by " + lostRows + ", cents off by " + lostCents);
+        check(reportedCents == expectedCents, label + ": category totals " + reportedCents + ", expected " + expectedCents);
+        check(manager.verifyAggregates(), label + ": aggregates differ from a recount");
+    }
+
+    private static void checkSessions(int threads, int perThread) throws Exception {
+        File dir = Files.createTempDirectory("smartspend-sessions").toFile();
+        Set<String> tokens = ConcurrentHashMap.newKeySet();
+        AtomicLong rejected = new AtomicLong();
+        try (UserManager userManager = new UserManager(dir.getPath(), 1)) {
+            runThreads(threads, t -> {
+                for (int i = 0; i < perThread; i++) {
+                    String name = "t" + t + "u" + i;
+                    if (!userManager.register(name, "pw" + i)) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    Session session = userManager.login(name, "pw" + i);
+                    if (session == null || !name.equals(session.getUser().getUsername())
+                            || userManager.getSession(session.getToken()) != session) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    tokens.add(session.getToken());
+                }
+            });
+            int expected = threads * perThread;
+            check(rejected.get() == 0, "sessions=" + threads + ": " + rejected + " registrations or logins failed");
+            check(userManager.getUserCount() == expected,
+                    "sessions=" + threads + ": " + userManager.getUserCount() + " users, expected " + expected);
+            check(tokens.size() == expected, "sessions=" + threads + ": " + tokens.size() + " sessions, expected " + expected);
+        }
+        deleteRecursively(dir);
+    }
+
+    private static void measureReads(List<Integer> threadCounts, int rows, long measureMillis) throws Exception {
+        File dir = Files.createTempDirectory("smartspend-reads").toFile();
+        SyntheticData data = new SyntheticData(Math.max(10, rows / 1000), 42);
+        data.writeExpensesCsv(dir + "/expenses.csv", rows);
+        User[] queried = new User[4096];
+        for (int i = 0; i < queried.length; i++) {
+            queried[i] = data.anyUser();
+        }
+        ExpenseManager manager = new ExpenseManager(dir.getPath(), false, IndexedExpenseStore::new);
+        long sink = 0;
+        double single = 0;
+        for (int threads : threadCounts) {
+            AtomicLong reads = new AtomicLong();
+            AtomicLong rowsRead = new AtomicLong();
+            long end = System.nanoTime() + measureMillis * 1_000_000;
+            runThreads(threads, t -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                long seen = 0;
+                while (System.nanoTime() < end) {
+                    seen += manager.getExpensesByUser(queried[random.nextInt(queried.length)]).size();
+                    count++;
+                }
+                reads.addAndGet(count);
+                rowsRead.addAndGet(seen);
+            });
+            sink += rowsRead.get();
+            double perSecond = reads.get() * 1000.0 / measureMillis;
+            if (single == 0) {
+                single = perSecond / threads;
+            }
+            System.out.printf("readers=%-3d %12.0f reads/s  speedup=%5.2f%n", threads, perSecond, perSecond / single);
+        }
+        System.out.println("Rows read: " + sink);
+        manager.close();
+        deleteRecursively(dir);
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs a worker on each of a number of threads, started together, and waits for
+     * all of them; a failure in any is rethrown.
+     */
+    private static void runThreads(int threads, Worker worker) throws Exception {
+        List<Thread> started = new ArrayList<>();
+        Exception[] failure = new Exception[1];
+        CountDownLatch go = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread th = new Thread(() -> {
+                try {
+                    go.await();
+                    worker.run(thread);
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            th.start();
+            started.add(th);
+        }
+        go.countDown();
+        for (Thread th : started) {
+            th.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) throw failure[0];
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            fail(message);
+        }
+    }
+
+    private static synchronized void fail(String message) {
+        failures++;
+        System.out.println("FAILED: " + message);
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -0,0 +1,197 @@
+package bench;
+
+import model.Expense;
+import model.User;
+import service.ColumnarExpenseStore;
+import service.ExpenseManager;
+import service.IndexedExpenseStore;
+import service.ReportQuery;
+import service.ReportService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks the service-layer hot paths: loading, CRUD, per-user queries and reports.
+ * <p>
+ * Usage: {@code java -cp bin bench.ExpenseBenchmarks [--rows 10000,1000000,10000000]
+ * [--warmup ms] [--measure ms] [--out bench-results.json]}
+ * <p>
+ * Each data set is generated into a temporary directory by {@link SyntheticData}.
+ * Larger sizes need a correspondingly larger heap ({@code -Xmx}). Load timings
+ * include closing the loaded manager. Every result feeds a checksum printed at the
+ * end, so no benchmarked call can be optimized away.
+ */
+public class ExpenseBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        String rowsArg = "10000,1000000";
+        long warmup = 2000;
+        long measure = 5000;
+        String out = "bench-results.json";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rows":
+                    rowsArg = args[i + 1];
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(args[i + 1]);
+                    break;
+                case "--measure":
+                    measure = Long.parseLong(args[i + 1]);
+                    break;
+                case "--out":
+                    out = args[i + 1];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, measure);
+        long[] sink = new long[1];
+        for (String size : rowsArg.split(",")) {
+            benchmarkSize(runner, Integer.parseInt(size.trim()), sink);
+        }
+        runner.writeJson(out);
+        System.out.println("Results written to " + out + " (checksum " + sink[0] + ")");
+    }
+
+    private static void benchmarkSize(BenchmarkRunner runner, int rows, long[] sink) throws Exception {
+        File dir = Files.createTempDirectory("smartspend-bench").toFile();
+        SyntheticData data = new SyntheticData(Math.max(10, rows / 1000), 42);
+        data.writeExpensesCsv(dir + "/expenses.csv", rows);
+        String path = dir.getPath();
+
+        runner.run("loadExpenses.csv.indexed", rows, () -> {
+            ExpenseManager loaded = new ExpenseManager(path, false, IndexedExpenseStore::new);
+            sink[0] += loaded.getCategoryTotals(data.anyUser()).size();
+            loaded.close();
+        });
+        runner.run("loadExpenses.csv.columnar", rows, () -> {
+            ExpenseManager loaded = new ExpenseManager(path, false, ColumnarExpenseStore::new);
+            sink[0] += loaded.getCategoryTotals(data.anyUser()).size();
+            loaded.close();
+        });
+
+        ExpenseManager writer = new ExpenseManager(path, true, IndexedExpenseStore::new);
+        writer.compact();
+        writer.close();
+        runner.run("loadExpenses.bin.indexed", rows, () -> {
+            ExpenseManager loaded = new ExpenseManager(path, false, IndexedExpenseStore::new);
+            sink[0] += loaded.getCategoryTotals(data.anyUser()).size();
+            loaded.close();
+        });
+        runner.run("loadExpenses.bin.columnar", rows, () -> {
+            ExpenseManager loaded = new ExpenseManager(path, false, ColumnarExpenseStore::new);
+            sink[0] += loaded.getCategoryTotals(data.anyUser()).size();
+            loaded.close();
+        });
+
+        ExpenseManager manager = new ExpenseManager(path, true, IndexedExpenseStore::new);
+        Random random = new Random(7);
+        User[] owner = new User[1];     // chosen by each invocation's setup
+        String[] target = new String[1];
+
+        runner.run("addExpense", rows, () -> {
+            User user = data.nextUser();
+            if (manager.addExpense(user, data.nextDate(), data.nextCategory(), data.nextAmount(), data.nextDescription())) {
+                sink[0]++;
+            }
+        });
+
+        runner.run("editExpense", rows, () -> {
+            owner[0] = data.nextUser();
+            List<Expense> owned = manager.getExpensesByUser(owner[0]);
+            target[0] = owned.get(random.nextInt(owned.size())).getId();
+        }, () -> {
+            if (manager.editExpense(target[0], owner[0], data.nextDate(), data.nextCategory(),
+                    data.nextAmount(), data.nextDescription())) {
+                sink[0]++;
+            }
+        });
+
+        runner.run("deleteExpense", rows, () -> {
+            owner[0] = data.nextUser();
+            List<Expense> owned = manager.getExpensesByUser(owner[0]);
+            if (owned.isEmpty()) {
+                manager.addExpense(owner[0], data.nextDate(), data.nextCategory(), data.nextAmount(), data.nextDescription());
+                owned = manager.getExpensesByUser(owner[0]);
+            }
+            target[0] = owned.get(random.nextInt(owned.size())).getId();
+        }, () -> {
+            if (manager.deleteExpense(target[0], owner[0])) {
+                sink[0]++;
+            }
+        });
+
+        runner.run("getExpensesByUser.skewed", rows, () -> sink[0] += manager.getExpensesByUser(data.nextUser()).size());
+        runner.run("getExpensesByUser.uniform", rows, () -> sink[0] += manager.getExpensesByUser(data.anyUser()).size());
+
+        ReportService reports = new ReportService();
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        List<List<Expense>> reportInputs = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            reportInputs.add(manager.getExpensesByUser(data.nextUser()));
+        }
+        System.setOut(discard);
+        try {
+            runner.run("generateCategoryReport.list", rows,
+                    () -> reports.generateCategoryReport(reportInputs.get(random.nextInt(reportInputs.size()))));
+            runner.run("generateCategoryReport.aggregates", rows, () -> {
+                Map<String, Long> totals = manager.getCategoryTotals(data.nextUser());
+                reports.generateCategoryReport(totals);
+                sink[0] += totals.size();
+            });
+        } finally {
+            System.setOut(console);
+        }
+        manager.close();
+
+        ExpenseManager columnar = new ExpenseManager(path, false, ColumnarExpenseStore::new);
+        runner.run("report.category", rows, () -> sink[0] += reports.generateReport(columnar,
+                new ReportQuery().groupBy(ReportQuery.Dimension.CATEGORY)).getRows().size());
+        runner.run("report.month.category", rows, () -> sink[0] += reports.generateReport(columnar,
+                new ReportQuery().groupBy(ReportQuery.Dimension.MONTH, ReportQuery.Dimension.CATEGORY)).getRows().size());
+        runner.run("report.user.week.percentiles", rows, () -> sink[0] += reports.generateReport(columnar,
+                new ReportQuery().groupBy(ReportQuery.Dimension.USER, ReportQuery.Dimension.WEEK).percentiles(50, 90, 99)).getRows().size());
+        runner.run("report.category.singleUser", rows, () -> sink[0] += reports.generateReport(columnar,
+                new ReportQuery().groupBy(ReportQuery.Dimension.CATEGORY).forUsers(data.nextUser().getId())).getRows().size());
+        columnar.close();
+
+        // Segmented layout with half of the data resident; migrates the data set on first open.
+        ExpenseManager lazy = new ExpenseManager(path, true, IndexedExpenseStore::new, Math.max(1, rows / 2));
+        runner.run("getExpensesByUser.lazy.skewed", rows, () -> sink[0] += lazy.getExpensesByUser(data.nextUser()).size());
+        runner.run("getExpensesByUser.lazy.uniform", rows, () -> sink[0] += lazy.getExpensesByUser(data.anyUser()).size());
+        System.out.println(lazy.getPartitionCache());
+        lazy.close();
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
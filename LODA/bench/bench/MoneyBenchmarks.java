@@ -0,0 +1,139 @@
+package bench;
+
+import util.Money;
+
+import java.math.BigDecimal;
+
+/**
+ * Compares the three ways of handling amounts: {@code long} cents via {@link Money},
+ * {@link BigDecimal}, and {@code double} as the application used before. Each
+ * benchmark parses, sums or formats a whole batch of amounts, so the reported
+ * latency is per batch.
+ * <p>
+ * Usage: {@code java -cp bin bench.MoneyBenchmarks [--values 1000000] [--warmup ms]
+ * [--measure ms] [--out money-bench-results.json]}
+ * <p>
+ * Before timing, the generated amounts are round-tripped through {@link Money} and
+ * summed both ways, reporting any text that does not survive the round trip and
+ * how far the {@code double} total has drifted from the exact one.
+ */
+public class MoneyBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        int count = 1_000_000;
+        long warmup = 2000;
+        long measure = 5000;
+        String out = "money-bench-results.json";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--values":
+                    count = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(args[i + 1]);
+                    break;
+                case "--measure":
+                    measure = Long.parseLong(args[i + 1]);
+                    break;
+                case "--out":
+                    out = args[i + 1];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        int n = count;
+        SyntheticData data = new SyntheticData(10, 42);
+        String[] texts = new String[n];
+        long[] cents = new long[n];
+        double[] doubles = new double[n];
+        BigDecimal[] decimals = new BigDecimal[n];
+        for (int i = 0; i < n; i++) {
+            texts[i] = Money.format(data.nextAmount());
+            cents[i] = Money.parse(texts[i]);
+            doubles[i] = Double.parseDouble(texts[i]);
+            decimals[i] = new BigDecimal(texts[i]);
+        }
+        checkRoundTrip(texts, cents, doubles, decimals);
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, measure);
+        long[] sink = new long[1];
+
+        runner.run("parse.money", n, () -> {
+            long total = 0;
+            for (String text : texts) total += Money.parse(text);
+            sink[0] += total;
+        });
+        runner.run("parse.bigDecimal", n, () -> {
+            long total = 0;
+            for (String text : texts) total += new BigDecimal(text).scale();
+            sink[0] += total;
+        });
+        runner.run("parse.double", n, () -> {
+            double total = 0;
+            for (String text : texts) total += Double.parseDouble(text);
+            sink[0] += (long) total;
+        });
+
+        runner.run("sum.money", n, () -> {
+            long total = 0;
+            for (long c : cents) total += c;
+            sink[0] += total;
+        });
+        runner.run("sum.bigDecimal", n, () -> {
+            BigDecimal total = BigDecimal.ZERO;
+            for (BigDecimal d : decimals) total = total.add(d);
+            sink[0] += total.scale();
+        });
+        runner.run("sum.double", n, () -> {
+            double total = 0;
+            for (double d : doubles) total += d;
+            sink[0] += (long) total;
+        });
+
+        StringBuilder sb = new StringBuilder(32);
+        runner.run("format.money", n, () -> {
+            for (long c : cents) {
+                sb.setLength(0);
+                Money.append(sb, c);
+            }
+            sink[0] += sb.length();
+        });
+        runner.run("format.bigDecimal", n, () -> {
+            for (BigDecimal d : decimals) {
+                sb.setLength(0);
+                sb.append(d.toPlainString());
+            }
+            sink[0] += sb.length();
+        });
+        runner.run("format.double", n, () -> {
+            for (double d : doubles) {
+                sb.setLength(0);
+                sb.append(String.format("%.2f", d));
+            }
+            sink[0] += sb.length();
+        });
+
+        runner.writeJson(out);
+        System.out.println("Results written to " + out + " (checksum " + sink[0] + ")");
+    }
+
+    private static void checkRoundTrip(String[] texts, long[] cents, double[] doubles, BigDecimal[] decimals) {
+        int mismatches = 0;
+        long exact = 0;
+        double approximate = 0;
+        BigDecimal reference = BigDecimal.ZERO;
+        for (int i = 0; i < texts.length; i++) {
+            if (!Money.format(cents[i]).equals(texts[i])) mismatches++;
+            exact += cents[i];
+            approximate += doubles[i];
+            reference = reference.add(decimals[i]);
+        }
+        System.out.println("Round-trip mismatches: " + mismatches + " of " + texts.length);
+        System.out.println("Exact total: " + Money.format(exact) + " (BigDecimal: " + reference.toPlainString() + ")");
+        System.out.println("Double total: " + new BigDecimal(approximate).toPlainString()
+                + " (drift " + new BigDecimal(approximate).subtract(reference).toPlainString() + ")");
+    }
+}
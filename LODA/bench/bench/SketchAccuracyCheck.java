@@ -0,0 +1,258 @@
+package bench;
+
+import util.CountMinSketch;
+import util.Hashing;
+import util.HeavyHitters;
+import util.HyperLogLog;
+import util.KllSketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the analytics sketches against exact answers on generated data, with the
+ * error bounds their documentation gives:
+ * <ul>
+ *   <li>{@link HyperLogLog}: relative standard error of about 1.6%, 99% of estimates
+ *       within 5%;</li>
+ *   <li>{@link CountMinSketch}: never below the true total, and over it by at most
+ *       {@code e / width} of the total weight for all but {@code e^-depth} of the
+ *       keys, also after negative weights undo part of the input;</li>
+ *   <li>{@link HeavyHitters}: every key above {@code 1 / capacity} of the weight is
+ *       reported;</li>
+ *   <li>{@link KllSketch}: a quantile's rank within 1.7% of the count for 99% of
+ *       queries, on random, sorted and reverse-sorted input.</li>
+ * </ul>
+ * Each sketch is also checked after merging sketches of disjoint parts of the input.
+ * <p>
+ * Usage: {@code java -cp bin bench.SketchAccuracyCheck [--trials 50] [--values 1000000]}
+ * <p>
+ * Prints the errors observed and exits with status 1 if any bound is exceeded.
+ */
+public class SketchAccuracyCheck {
+    private static final double HLL_STANDARD_ERROR = 1.04 / Math.sqrt(1 << HyperLogLog.DEFAULT_PRECISION);
+    private static final double KLL_RANK_ERROR = 0.017;
+    private static final double[] FRACTIONS = {0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int trials = 50;
+        int values = 1_000_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--trials":
+                    trials = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--values":
+                    values = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        checkHyperLogLog(trials, values);
+        checkCountMin(trials, values);
+        checkHeavyHitters(trials, values);
+        checkKll(trials, values);
+
+        if (failures > 0) {
+            System.out.println(failures + " bound(s) exceeded");
+            System.exit(1);
+        }
+        System.out.println("All sketches within their error bounds");
+    }
+
+    private static void checkHyperLogLog(int trials, int maxCardinality) {
+        for (int cardinality = 10; cardinality <= maxCardinality; cardinality *= 10) {
+            double squares = 0;
+            double worst = 0;
+            int outside = 0;
+            for (int t = 0; t < trials; t++) {
+                HyperLogLog whole = new HyperLogLog();
+                HyperLogLog left = new HyperLogLog();
+                HyperLogLog right = new HyperLogLog();
+                for (int i = 0; i < cardinality; i++) {
+                    String key = "t" + t + "-u" + i;
+                    whole.add(key);
+                    whole.add(key);  // repeats must not count
+                    (i % 2 == 0 ? left : right).add(key);
+                }
+                left.merge(right);
+                check(left.estimate() == whole.estimate(), "HyperLogLog n=" + cardinality
+                        + ": merged estimate " + left.estimate() + " differs from " + whole.estimate());
+                double error = Math.abs(whole.estimate() - cardinality) / (double) cardinality;
+                squares += error * error;
+                worst = Math.max(worst, error);
+                if (error > 0.05) outside++;
+            }
+            double rms = Math.sqrt(squares / trials);
+            System.out.printf("HyperLogLog    n=%-9d rms error=%.2f%%  max=%.2f%%  beyond 5%%: %d of %d%n",
+                    cardinality, rms * 100, worst * 100, outside, trials);
+            // the RMS of T trials has a standard deviation of about 1 / sqrt(2T) of the error; allow three
+            double allowed = HLL_STANDARD_ERROR * (1 + 3 / Math.sqrt(2.0 * trials));
+            check(rms <= allowed, "HyperLogLog n=" + cardinality + ": rms error " + rms + ", allowed " + allowed);
+            check(outside <= Math.max(1, trials / 100), "HyperLogLog n=" + cardinality + ": " + outside + " estimates beyond 5%");
+        }
+    }
+
+    private static void checkCountMin(int trials, int values) {
+        double bound = Math.E / CountMinSketch.DEFAULT_WIDTH;
+        double allowed = Math.exp(-CountMinSketch.DEFAULT_DEPTH);
+        for (int t = 0; t < trials; t++) {
+            Random random = new Random(t);
+            SyntheticData.Zipf keys = new SyntheticData.Zipf(10_000, 1.1);
+            long[] exact = new long[10_000];
+            CountMinSketch whole = new CountMinSketch();
+            CountMinSketch left = new CountMinSketch();
+            CountMinSketch right = new CountMinSketch();
+            long total = 0;
+            for (int i = 0; i < values / 10; i++) {
+                int key = keys.next(random);
+                long weight = 1 + random.nextInt(10_000);
+                if (exact[key] > 0 && random.nextInt(10) == 0) {
+                    weight = -Math.min(exact[key], weight);  // undo part of an earlier add
+                }
+                long hash = Hashing.hash64("k" + key);
+                exact[key] += weight;
+                total += weight;
+                whole.add(hash, weight);
+                (i % 2 == 0 ? left : right).add(hash, weight);
+            }
+            left.merge(right);
+            int under = 0;
+            int over = 0;
+            double worst = 0;
+            for (int key = 0; key < exact.length; key++) {
+                long hash = Hashing.hash64("k" + key);
+                long estimate = whole.estimate(hash);
+                if (estimate < exact[key] || left.estimate(hash) != estimate) under++;
+                double excess = (estimate - exact[key]) / (double) total;
+                worst = Math.max(worst, excess);
+                if (excess > bound) over++;
+            }
+            check(whole.getTotal() == total, "Count-Min trial " + t + ": total " + whole.getTotal() + ", expected " + total);
+            check(under == 0, "Count-Min trial " + t + ": " + under + " keys estimated below their total or unlike the merge");
+            check(over <= Math.ceil(exact.length * allowed * 2), "Count-Min trial " + t + ": " + over
+                    + " keys over e/width of the total weight");
+            if (t == 0) {
+                System.out.printf("Count-Min      keys=%d  max overestimate=%.3f%% of total (bound %.3f%%)  over bound: %d%n",
+                        exact.length, worst * 100, bound * 100, over);
+            }
+        }
+    }
+
+    private static void checkHeavyHitters(int trials, int values) {
+        int keyCount = 100_000;
+        for (int t = 0; t < trials; t++) {
+            Random random = new Random(t);
+            SyntheticData.Zipf keys = new SyntheticData.Zipf(keyCount, 1.2);
+            long[] exact = new long[keyCount];
+            HeavyHitters left = new HeavyHitters();
+            HeavyHitters right = new HeavyHitters();
+            long total = 0;
+            for (int i = 0; i < values / 10; i++) {
+                int key = keys.next(random);
+                long weight = 1 + random.nextInt(1000);
+                exact[key] += weight;
+                total += weight;
+                (i % 2 == 0 ? left : right).add("k" + key, weight);
+            }
+            left.merge(right);
+            Map<String, Long> top = left.top(HeavyHitters.DEFAULT_CAPACITY);
+            int missed = 0;
+            for (int key = 0; key < keyCount; key++) {
+                if (exact[key] * HeavyHitters.DEFAULT_CAPACITY > total && !top.containsKey("k" + key)) missed++;
+            }
+            check(missed == 0, "HeavyHitters trial " + t + ": " + missed + " heavy keys not reported");
+            if (t == 0) {
+                System.out.printf("HeavyHitters   keys=%d  heavy keys missed: %d%n", keyCount, missed);
+            }
+        }
+    }
+
+    private static void checkKll(int trials, int values) {
+        String[] orders = {"random", "sorted", "reversed"};
+        for (String order : orders) {
+            double worst = 0;
+            int outside = 0;
+            int queries = 0;
+            for (int t = 0; t < trials; t++) {
+                Random random = new Random(t);
+                long[] input = new long[values];
+                for (int i = 0; i < values; i++) {
+                    input[i] = Math.round(Math.exp(3 + random.nextGaussian()) * 100);
+                }
+                long[] sorted = input.clone();
+                Arrays.sort(sorted);
+                if (order.equals("sorted")) {
+                    input = sorted.clone();
+                } else if (order.equals("reversed")) {
+                    for (int i = 0; i < values; i++) {
+                        input[i] = sorted[values - 1 - i];
+                    }
+                }
+                List<KllSketch> parts = new ArrayList<>();
+                for (int p = 0; p < 4; p++) {
+                    parts.add(new KllSketch());
+                }
+                for (int i = 0; i < values; i++) {
+                    parts.get(i * 4 / values).add(input[i]);
+                }
+                KllSketch merged = parts.get(0);
+                for (int p = 1; p < parts.size(); p++) {
+                    merged.merge(parts.get(p));
+                }
+                check(merged.getCount() == values, "KLL " + order + ": count " + merged.getCount());
+                for (double fraction : FRACTIONS) {
+                    double error = rankError(sorted, merged.quantile(fraction), fraction);
+                    worst = Math.max(worst, error);
+                    if (error > KLL_RANK_ERROR) outside++;
+                    queries++;
+                }
+            }
+            System.out.printf("KLL %-9s  n=%-9d max rank error=%.2f%%  beyond 1.7%%: %d of %d%n",
+                    order, values, worst * 100, outside, queries);
+            check(outside <= Math.max(1, queries / 100), "KLL " + order + ": " + outside + " of " + queries
+                    + " quantiles beyond 1.7% rank error");
+        }
+    }
+
+    /**
+     * @return Distance, as a fraction of the count, from the requested rank to the
+     *         ranks the value actually holds in the sorted input.
+     */
+    private static double rankError(long[] sorted, long value, double fraction) {
+        int below = lowerBound(sorted, value);
+        int upTo = lowerBound(sorted, value + 1);
+        double target = fraction * sorted.length;
+        double distance = target < below ? below - target : target > upTo ? target - upTo : 0;
+        return distance / sorted.length;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package bench;
+
+import model.User;
+import util.Money;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates realistic synthetic expense data for benchmarks.
+ * <p>
+ * Users and categories follow Zipf distributions, so a few heavy users own most
+ * rows and a few categories (Food, Travel, ...) dominate, as in real data.
+ * Dates span three years and amounts are log-normal.
+ */
+public class SyntheticData {
+    private static final String[] CATEGORIES = {
+            "Food", "Travel", "Utilities", "Entertainment", "Groceries", "Rent",
+            "Health", "Education", "Shopping", "Insurance", "Gifts", "Other"
+    };
+    private static final String[] DESCRIPTIONS = {
+            "lunch", "uber ride", "electricity bill", "movie", "weekly groceries", "monthly rent",
+            "pharmacy", "course fee", "clothes", "premium", "birthday gift", "misc"
+    };
+    private static final LocalDate START = LocalDate.of(2022, 1, 1);
+
+    private final Random random;
+    private final User[] users;
+    private final Zipf userDistribution;
+    private final Zipf categoryDistribution;
+
+    /**
+     * @param userCount Number of distinct users.
+     * @param seed      Random seed, for reproducible data sets.
+     */
+    public SyntheticData(int userCount, long seed) {
+        this.random = new Random(seed);
+        this.users = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = new User(new UUID(seed, i).toString(), "user" + i, "password" + i);
+        }
+        this.userDistribution = new Zipf(userCount, 1.1);
+        this.categoryDistribution = new Zipf(CATEGORIES.length, 1.3);
+    }
+
+    /**
+     * @return A user drawn from the skewed user distribution.
+     */
+    public User nextUser() {
+        return users[userDistribution.next(random)];
+    }
+
+    /**
+     * @return A uniformly chosen user.
+     */
+    public User anyUser() {
+        return users[random.nextInt(users.length)];
+    }
+
+    public String nextCategory() {
+        return CATEGORIES[categoryDistribution.next(random)];
+    }
+
+    public String nextDescription() {
+        return DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+    }
+
+    public LocalDate nextDate() {
+        return START.plusDays(random.nextInt(3 * 365));
+    }
+
+    /**
+     * @return A log-normally distributed amount in cents, at least one cent.
+     */
+    public long nextAmount() {
+        double amount = Math.exp(3 + random.nextGaussian());
+        return Math.max(1, Math.round(amount * 100));
+    }
+
+    /**
+     * Writes an {@code expenses.csv} file in the application's format.
+     *
+     * @param path Destination path.
+     * @param rows Number of rows.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeExpensesCsv(String path, int rows) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(path), 1 << 16)) {
+            for (int i = 0; i < rows; i++) {
+                bw.write(new UUID(random.nextLong(), random.nextLong()).toString());
+                bw.write(',');
+                bw.write(nextUser().getId());
+                bw.write(',');
+                bw.write(nextDate().toString());
+                bw.write(',');
+                bw.write(nextCategory());
+                bw.write(',');
+                bw.write(Money.format(nextAmount()));
+                bw.write(',');
+                bw.write(nextDescription());
+                bw.newLine();
+            }
+        }
+    }
+
+    /**
+     * Zipf sampler over {@code [0, n)} using a precomputed cumulative table.
+     */
+    static class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            double u = random.nextDouble();
+            int lo = 0;
+            int hi = cumulative.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
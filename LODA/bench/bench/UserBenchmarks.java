@@ -0,0 +1,99 @@
+package bench;
+
+import service.CredentialStore;
+import service.UserManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Benchmarks registration and login against the credential store, trading
+ * password-hashing cost against login throughput.
+ * <p>
+ * Usage: {@code java -cp bin bench.UserBenchmarks [--users 1000000]
+ * [--iterations 1000,10000,100000] [--warmup ms] [--measure ms] [--out user-bench-results.json]}
+ * <p>
+ * The store is filled with {@code --users} accounts hashed at minimal cost so that
+ * lookups run against a realistically sized index; logins are then measured for a
+ * small set of accounts hashed at each requested cost.
+ */
+public class UserBenchmarks {
+    private static final int LOGIN_USERS = 64;
+
+    public static void main(String[] args) throws Exception {
+        int userCount = 100_000;
+        String iterationsArg = "1000,10000,100000";
+        long warmup = 2000;
+        long measure = 5000;
+        String out = "user-bench-results.json";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--users":
+                    userCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--iterations":
+                    iterationsArg = args[i + 1];
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(args[i + 1]);
+                    break;
+                case "--measure":
+                    measure = Long.parseLong(args[i + 1]);
+                    break;
+                case "--out":
+                    out = args[i + 1];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        int users = userCount;
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, measure);
+        File dir = Files.createTempDirectory("smartspend-users").toFile();
+        String path = dir.getPath();
+        Random random = new Random(42);
+
+        try (CredentialStore store = new CredentialStore(path, 1)) {
+            for (int i = 0; i < users; i++) {
+                store.add("user" + i, "id-" + i, "pw" + i);
+            }
+            runner.run("credentialStore.find", users, () -> store.find("user" + random.nextInt(users)));
+            runner.run("credentialStore.find.missing", users, () -> store.find("nobody" + random.nextInt(users)));
+        }
+        runner.run("credentialStore.open", users, () -> new CredentialStore(path, 1).close());
+
+        for (String cost : iterationsArg.split(",")) {
+            int iterations = Integer.parseInt(cost.trim());
+            UserManager manager = new UserManager(path, iterations);
+            String prefix = "login" + iterations + "-";
+            for (int i = 0; i < LOGIN_USERS; i++) {
+                manager.register(prefix + i, "secret" + i);
+            }
+            runner.run("login.iterations=" + iterations, users, () -> {
+                int i = random.nextInt(LOGIN_USERS);
+                manager.login(prefix + i, "secret" + i);
+            });
+            runner.run("login.wrongPassword.iterations=" + iterations, users,
+                    () -> manager.login(prefix + random.nextInt(LOGIN_USERS), "wrong"));
+            manager.close();
+        }
+
+        runner.writeJson(out);
+        System.out.println("Results written to " + out);
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -1,12 +1,35 @@
+import model.Budget;
 import model.Expense;
+import model.RecurringRule;
+import model.Session;
 
+import service.BudgetManager;
+import service.CommandProcessor;
+import service.CommandServer;
+import service.ExpenseAnalytics;
 import service.ExpenseManager;
+import service.ExpensePage;
+import service.ImportResult;
+import service.RecurringManager;
 import service.ReportService;
+import service.StatementExporter;
+import service.StatementImporter;
 import service.UserManager;
+import util.ExpenseFormatter;
 import util.InputValidator;
-
+import util.Metrics;
+import util.Money;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -15,16 +38,26 @@ import java.util.Scanner;
  */
 public class Main {
 
+    private static final int PAGE_SIZE = 20;
     private static final Scanner scanner = new Scanner(System.in);
     private static final UserManager userManager = new UserManager();
     private static final ExpenseManager expenseManager = new ExpenseManager();
+    private static final BudgetManager budgetManager = new BudgetManager(expenseManager);
+    private static final RecurringManager recurringManager = new RecurringManager(expenseManager);
+    private static final ExpenseAnalytics analytics = new ExpenseAnalytics(expenseManager);
     private static final ReportService reportService = new ReportService();
+    private static Session session;
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            runHeadless(args);
+            return;
+        }
         System.out.println("Welcome to SmartSpend - Personal Finance Tracker");
+        budgetManager.addListener((status, expense) -> System.out.println("[ALERT] Budget exceeded: " + status));
 
         while (true) {
-            if (userManager.getCurrentUser() == null) {
+            if (session == null) {
                 showAuthMenu();
             } else {
                 showMainMenu();
@@ -32,6 +65,43 @@ public class Main {
         }
     }
 
+    /**
+     * Runs without the menu: {@code --batch [script]} executes a command script
+     * (standard input by default), {@code --serve <port>} accepts connections on a
+     * loopback port and {@code --export <csv|jsonl> <file>} writes every user's
+     * expenses to a file. See {@link CommandProcessor} for the commands.
+     */
+    private static void runHeadless(String[] args) {
+        budgetManager.addListener((status, expense) -> System.err.println("[ALERT] Budget exceeded: " + status));
+        CommandServer server = new CommandServer(new CommandProcessor(userManager, expenseManager));
+        try {
+            if (args[0].equals("--batch")) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                if (args.length > 1) {
+                    try (InputStream in = new FileInputStream(args[1])) {
+                        server.runScript(in, out);
+                    }
+                } else {
+                    server.runScript(System.in, out);
+                }
+            } else if (args[0].equals("--serve") && args.length > 1) {
+                server.serve(Integer.parseInt(args[1]));
+            } else if (args[0].equals("--export") && args.length > 2 && parseExportFormat(args[1]) != null) {
+                long rows = new StatementExporter(expenseManager).exportAll(parseExportFormat(args[1]), args[2]);
+                System.err.println("Exported " + rows + " expenses to " + args[2] + ".");
+            } else {
+                System.err.println("Usage: Main [--batch [script] | --serve <port> | --export <csv|jsonl> <file>]");
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error running headless mode: " + e.getMessage());
+        } finally {
+            server.close();
+            recurringManager.close();
+            expenseManager.close();
+            userManager.close();
+        }
+    }
+
     /**
      * Displays the authentication menu (Login/Register).
      */
@@ -53,6 +123,9 @@ public class Main {
                 break;
             case "3":
                 System.out.println("Goodbye!");
+                recurringManager.close();
+                expenseManager.close();
+                userManager.close();
                 System.exit(0);
             default:
                 System.out.println("Invalid option. Please try again.");
@@ -68,7 +141,8 @@ public class Main {
         System.out.print("Enter password: ");
         String password = scanner.nextLine();
 
-        if (userManager.login(username, password)) {
+        session = userManager.login(username, password);
+        if (session != null) {
             System.out.println("Login successful! Welcome, " + username + ".");
         } else {
             System.out.println("Invalid credentials.");
@@ -96,7 +170,7 @@ public class Main {
         if (userManager.register(username, password)) {
             System.out.println("Registration successful! You can now login.");
         } else {
-            System.out.println("Username already exists.");
+            System.out.println("Username already exists or is too long.");
         }
     }
 
@@ -110,7 +184,14 @@ public class Main {
         System.out.println("3. Edit Expense");
         System.out.println("4. Delete Expense");
         System.out.println("5. View Reports");
-        System.out.println("6. Logout");
+        System.out.println("6. View Report for Date Range");
+        System.out.println("7. Import Expenses from CSV");
+        System.out.println("8. Manage Budgets");
+        System.out.println("9. Search Expenses");
+        System.out.println("10. View Metrics");
+        System.out.println("11. Recurring Expenses");
+        System.out.println("12. Export Statement");
+        System.out.println("13. Logout");
         System.out.print("Choose an option: ");
 
         String choice = scanner.nextLine();
@@ -132,7 +213,29 @@ public class Main {
                 viewReports();
                 break;
             case "6":
-                userManager.logout();
+                viewReportForRange();
+                break;
+            case "7":
+                importExpenses();
+                break;
+            case "8":
+                manageBudgets();
+                break;
+            case "9":
+                searchExpenses();
+                break;
+            case "10":
+                viewMetrics();
+                break;
+            case "11":
+                manageRecurring();
+                break;
+            case "12":
+                exportStatement();
+                break;
+            case "13":
+                userManager.logout(session);
+                session = null;
                 System.out.println("Logged out.");
                 break;
             default:
@@ -156,15 +259,15 @@ public class Main {
 
         System.out.print("Enter Category (Food, Travel, etc.): ");
         String category = scanner.nextLine();
-        if (!InputValidator.isValidString(category)) {
-            System.out.println("Invalid category.");
+        if (!InputValidator.isValidString(category) || !InputValidator.isCsvSafe(category)) {
+            System.out.println("Invalid category (must not be blank or contain commas).");
             return;
         }
 
         System.out.print("Enter Amount: ");
-        double amount;
+        long amount;
         try {
-            amount = Double.parseDouble(scanner.nextLine());
+            amount = Money.parse(scanner.nextLine().trim());
             if (!InputValidator.isPositiveAmount(amount)) {
                 System.out.println("Amount must be positive.");
                 return;
@@ -176,23 +279,104 @@ public class Main {
 
         System.out.print("Enter Description: ");
         String description = scanner.nextLine();
+        if (!InputValidator.isValidString(description) || !InputValidator.isCsvSafe(description)) {
+            System.out.println("Invalid description (must not be blank or contain commas).");
+            return;
+        }
 
-        expenseManager.addExpense(userManager.getCurrentUser(), date, category, amount, description);
-        System.out.println("Expense added successfully.");
+        if (expenseManager.addExpense(session.getUser(), date, category, amount, description)) {
+            System.out.println("Expense added successfully.");
+        } else {
+            System.out.println("Expense could not be added.");
+        }
     }
 
     /**
-     * Displays all expenses for the current user.
+     * Displays the current user's expenses one page at a time.
      */
     private static void viewExpenses() {
         System.out.println("\n--- Your Expenses ---");
-        List<Expense> expenses = expenseManager.getExpensesByUser(userManager.getCurrentUser());
-        if (expenses.isEmpty()) {
+        ExpensePage page = expenseManager.getExpensesAfter(session.getUser(), null, PAGE_SIZE);
+        if (page.getExpenses().isEmpty()) {
             System.out.println("No expenses found.");
-        } else {
-            for (Expense e : expenses) {
-                System.out.println(e);
+            return;
+        }
+        ExpenseFormatter formatter = new ExpenseFormatter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        while (true) {
+            try {
+                for (Expense e : page.getExpenses()) {
+                    formatter.write(e);
+                }
+                formatter.flush();
+            } catch (IOException e) {
+                System.err.println("Error listing expenses: " + e.getMessage());
+                return;
             }
+            if (!page.hasMore()) return;
+
+            System.out.print("Press Enter for more, or q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) return;
+            page = expenseManager.getExpensesAfter(session.getUser(), page.nextCursor(), PAGE_SIZE);
+        }
+    }
+
+    /**
+     * UI flow for searching expenses by description and category, optionally within dates.
+     */
+    private static void searchExpenses() {
+        System.out.print("Enter search words (end a word with * to match a prefix): ");
+        String query = scanner.nextLine();
+        System.out.print("Enter Start Date (yyyy-MM-dd, blank for any): ");
+        String fromStr = scanner.nextLine().trim();
+        System.out.print("Enter End Date (yyyy-MM-dd, blank for any): ");
+        String toStr = scanner.nextLine().trim();
+        LocalDate from = fromStr.isEmpty() ? null : InputValidator.parseDate(fromStr);
+        LocalDate to = toStr.isEmpty() ? null : InputValidator.parseDate(toStr);
+        if ((!fromStr.isEmpty() && from == null) || (!toStr.isEmpty() && to == null)) {
+            System.out.println("Invalid date.");
+            return;
+        }
+
+        List<Expense> results = expenseManager.searchExpenses(session.getUser(), query, from, to);
+        System.out.println("\n--- Search Results (" + results.size() + ") ---");
+        ExpenseFormatter formatter = new ExpenseFormatter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        try {
+            for (Expense e : results) {
+                formatter.write(e);
+            }
+            formatter.flush();
+        } catch (IOException e) {
+            System.err.println("Error listing expenses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * UI flow for showing the service metrics and fleet-wide statistics, and
+     * optionally exporting the metrics.
+     */
+    private static void viewMetrics() {
+        System.out.println("\n--- Metrics ---");
+        System.out.print(Metrics.global().summary());
+        LocalDate today = LocalDate.now();
+        System.out.println("\n--- All Users (approximate) ---");
+        System.out.println("Active users today: " + analytics.countActiveUsers(today, today)
+                + ", last 30 days: " + analytics.countActiveUsers(today.minusDays(29), today));
+        System.out.println("Median expense: " + Money.format(analytics.getAmountQuantile(null, 0.5))
+                + ", 95th percentile: " + Money.format(analytics.getAmountQuantile(null, 0.95)));
+        for (Map.Entry<String, Long> entry : analytics.getTopCategories(5).entrySet()) {
+            System.out.println(entry.getKey() + ": " + Money.format(entry.getValue())
+                    + " total, median " + Money.format(analytics.getAmountQuantile(entry.getKey(), 0.5))
+                    + ", 95th percentile " + Money.format(analytics.getAmountQuantile(entry.getKey(), 0.95)));
+        }
+        System.out.print("Export to file in Prometheus format (blank to skip): ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) {
+            return;
+        }
+        if (Metrics.global().export(path)) {
+            System.out.println("Metrics written to " + path + ".");
+        } else {
+            System.out.println("Could not write metrics.");
         }
     }
 
@@ -214,20 +398,32 @@ public class Main {
 
         System.out.print("Enter New Category: ");
         String category = scanner.nextLine();
+        if (!InputValidator.isValidString(category) || !InputValidator.isCsvSafe(category)) {
+            System.out.println("Invalid category (must not be blank or contain commas).");
+            return;
+        }
 
         System.out.print("Enter New Amount: ");
-        double amount;
+        long amount;
         try {
-            amount = Double.parseDouble(scanner.nextLine());
+            amount = Money.parse(scanner.nextLine().trim());
         } catch (NumberFormatException e) {
             System.out.println("Invalid amount.");
             return;
         }
+        if (!InputValidator.isPositiveAmount(amount)) {
+            System.out.println("Amount must be positive.");
+            return;
+        }
 
         System.out.print("Enter New Description: ");
         String description = scanner.nextLine();
+        if (!InputValidator.isValidString(description) || !InputValidator.isCsvSafe(description)) {
+            System.out.println("Invalid description (must not be blank or contain commas).");
+            return;
+        }
 
-        if (expenseManager.editExpense(id, userManager.getCurrentUser(), date, category, amount, description)) {
+        if (expenseManager.editExpense(id, session.getUser(), date, category, amount, description)) {
             System.out.println("Expense updated.");
         } else {
             System.out.println("Expense not found or update failed.");
@@ -242,7 +438,7 @@ public class Main {
         System.out.print("Enter ID of expense to delete: ");
         String id = scanner.nextLine();
 
-        if (expenseManager.deleteExpense(id, userManager.getCurrentUser())) {
+        if (expenseManager.deleteExpense(id, session.getUser())) {
             System.out.println("Expense deleted.");
         } else {
             System.out.println("Expense not found.");
@@ -253,7 +449,228 @@ public class Main {
      * Displays reports.
      */
     private static void viewReports() {
-        List<Expense> expenses = expenseManager.getExpensesByUser(userManager.getCurrentUser());
-        reportService.generateCategoryReport(expenses);
+        reportService.generateCategoryReport(expenseManager.getCategoryTotals(session.getUser()));
+        reportService.generateBudgetReport(budgetManager.getStatus(session.getUser()));
+    }
+
+    /**
+     * Displays a category report for a date range.
+     */
+    private static void viewReportForRange() {
+        System.out.print("Enter Start Date (yyyy-MM-dd): ");
+        LocalDate from = InputValidator.parseDate(scanner.nextLine());
+        System.out.print("Enter End Date (yyyy-MM-dd): ");
+        LocalDate to = InputValidator.parseDate(scanner.nextLine());
+        if (from == null || to == null) {
+            System.out.println("Invalid date.");
+            return;
+        }
+
+        List<Expense> expenses = expenseManager.getExpensesByUser(session.getUser(), from, to);
+        reportService.generateCategoryReport(expenses, from, to);
+    }
+
+    /**
+     * UI flow for importing a statement CSV (date,category,amount,description per line).
+     */
+    private static void importExpenses() {
+        System.out.print("Enter path of CSV file: ");
+        String path = scanner.nextLine();
+
+        ImportResult result;
+        try {
+            result = new StatementImporter(expenseManager).importCsv(session.getUser(), path);
+        } catch (IOException e) {
+            System.out.println("Could not read file: " + e.getMessage());
+            return;
+        }
+
+        System.out.println("Imported " + result.getAccepted() + " expenses.");
+        for (ImportResult.Rejection rejection : result.getRejections()) {
+            System.out.println("Skipped " + rejection);
+        }
+    }
+
+    /**
+     * UI flow for exporting the user's expenses as CSV or JSON Lines.
+     */
+    private static void exportStatement() {
+        System.out.print("Format (csv/jsonl): ");
+        StatementExporter.Format format = parseExportFormat(scanner.nextLine().trim());
+        if (format == null) {
+            System.out.println("Invalid format.");
+            return;
+        }
+        System.out.print("Enter path of file to write: ");
+        String path = scanner.nextLine().trim();
+
+        try {
+            long rows = new StatementExporter(expenseManager).exportUser(session.getUser(), format, path);
+            System.out.println("Exported " + rows + " expenses to " + path + ".");
+        } catch (IOException e) {
+            System.out.println("Could not write file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The format named, or null if it is not csv or jsonl.
+     */
+    private static StatementExporter.Format parseExportFormat(String name) {
+        if (name.equalsIgnoreCase("csv")) return StatementExporter.Format.CSV;
+        if (name.equalsIgnoreCase("jsonl")) return StatementExporter.Format.JSONL;
+        return null;
+    }
+
+    /**
+     * UI flow for setting and removing budgets.
+     */
+    private static void manageBudgets() {
+        reportService.generateBudgetReport(budgetManager.getStatus(session.getUser()));
+        System.out.println("1. Set Budget");
+        System.out.println("2. Remove Budget");
+        System.out.println("3. Back");
+        System.out.print("Choose an option: ");
+        String choice = scanner.nextLine();
+        if (!choice.equals("1") && !choice.equals("2")) {
+            return;
+        }
+
+        System.out.print("Enter Category (or * for all categories): ");
+        String category = scanner.nextLine().trim();
+        if (!InputValidator.isValidString(category) || !InputValidator.isCsvSafe(category)) {
+            System.out.println("Invalid category.");
+            return;
+        }
+
+        System.out.print("Enter Period (weekly, monthly, yearly): ");
+        Budget.Period period;
+        try {
+            period = Budget.Period.valueOf(scanner.nextLine().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid period.");
+            return;
+        }
+
+        if (choice.equals("2")) {
+            if (budgetManager.removeBudget(session.getUser(), category, period)) {
+                System.out.println("Budget removed.");
+            } else {
+                System.out.println("Budget not found.");
+            }
+            return;
+        }
+
+        System.out.print("Enter Limit: ");
+        long limit;
+        try {
+            limit = Money.parse(scanner.nextLine().trim());
+            if (!InputValidator.isPositiveAmount(limit)) {
+                System.out.println("Limit must be positive.");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number format.");
+            return;
+        }
+
+        if (budgetManager.setBudget(session.getUser(), category, period, limit)) {
+            System.out.println("Budget saved.");
+        } else {
+            System.out.println("Failed to save budget.");
+        }
+    }
+
+    /**
+     * UI flow for listing, adding and removing recurring expenses.
+     */
+    private static void manageRecurring() {
+        List<RecurringRule> rules = recurringManager.getRules(session.getUser());
+        System.out.println("\n--- Recurring Expenses ---");
+        if (rules.isEmpty()) {
+            System.out.println("No recurring expenses.");
+        }
+        for (RecurringRule rule : rules) {
+            System.out.println("ID: " + rule.getId() + " | " + rule);
+        }
+        System.out.println("1. Add Recurring Expense");
+        System.out.println("2. Remove Recurring Expense");
+        System.out.println("3. Back");
+        System.out.print("Choose an option: ");
+        String choice = scanner.nextLine();
+
+        if (choice.equals("2")) {
+            System.out.print("Enter ID of recurring expense to remove: ");
+            if (recurringManager.removeRule(session.getUser(), scanner.nextLine().trim())) {
+                System.out.println("Recurring expense removed; past occurrences are kept.");
+            } else {
+                System.out.println("Recurring expense not found.");
+            }
+            return;
+        }
+        if (!choice.equals("1")) {
+            return;
+        }
+
+        System.out.print("Enter Category: ");
+        String category = scanner.nextLine().trim();
+        if (!InputValidator.isValidString(category) || !InputValidator.isCsvSafe(category)) {
+            System.out.println("Invalid category.");
+            return;
+        }
+
+        System.out.print("Enter Amount: ");
+        long amount;
+        try {
+            amount = Money.parse(scanner.nextLine().trim());
+            if (!InputValidator.isPositiveAmount(amount)) {
+                System.out.println("Amount must be positive.");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number format.");
+            return;
+        }
+
+        System.out.print("Enter Description: ");
+        String description = scanner.nextLine().trim();
+        if (!InputValidator.isValidString(description) || !InputValidator.isCsvSafe(description)) {
+            System.out.println("Invalid description.");
+            return;
+        }
+
+        System.out.print("Repeat (daily, weekly, monthly, yearly): ");
+        RecurringRule.Frequency frequency;
+        try {
+            frequency = RecurringRule.Frequency.valueOf(scanner.nextLine().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid frequency.");
+            return;
+        }
+
+        System.out.print("Repeat every how many periods (blank for 1): ");
+        String intervalStr = scanner.nextLine().trim();
+        int interval;
+        try {
+            interval = intervalStr.isEmpty() ? 1 : Integer.parseInt(intervalStr);
+        } catch (NumberFormatException e) {
+            interval = 0;
+        }
+        if (interval < 1) {
+            System.out.println("Invalid interval.");
+            return;
+        }
+
+        System.out.print("Enter First Date (yyyy-MM-dd): ");
+        LocalDate start = InputValidator.parseDate(scanner.nextLine());
+        System.out.print("Enter End Date (yyyy-MM-dd, blank for none): ");
+        String endStr = scanner.nextLine().trim();
+        LocalDate end = endStr.isEmpty() ? null : InputValidator.parseDate(endStr);
+        if (start == null || (!endStr.isEmpty() && end == null)) {
+            System.out.println("Invalid date.");
+            return;
+        }
+
+        recurringManager.addRule(session.getUser(), category, amount, description, frequency, interval, start, end);
+        System.out.println("Recurring expense added.");
     }
 }
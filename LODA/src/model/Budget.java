@@ -0,0 +1,99 @@
+package model;
+
+import util.Money;
+
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+/**
+ * A spending limit for one user, category and recurring period.
+ */
+public class Budget implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Category value for a budget covering all of a user's spending.
+     */
+    public static final String ALL_CATEGORIES = "*";
+
+    /**
+     * The period a budget limit applies to. Each period is numbered by a bucket:
+     * the epoch day of the week's Monday, year * 12 + month - 1, or the year.
+     */
+    public enum Period {
+        WEEKLY, MONTHLY, YEARLY;
+
+        /**
+         * @param date A date.
+         * @return The bucket of the period containing that date.
+         */
+        public int bucketOf(LocalDate date) {
+            switch (this) {
+                case WEEKLY:
+                    return (int) date.with(DayOfWeek.MONDAY).toEpochDay();
+                case MONTHLY:
+                    return date.getYear() * 12 + date.getMonthValue() - 1;
+                default:
+                    return date.getYear();
+            }
+        }
+
+        /**
+         * @param bucket A bucket returned by {@link #bucketOf}.
+         * @return The first day of that period.
+         */
+        public LocalDate startOf(int bucket) {
+            switch (this) {
+                case WEEKLY:
+                    return LocalDate.ofEpochDay(bucket);
+                case MONTHLY:
+                    return LocalDate.of(Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1, 1);
+                default:
+                    return LocalDate.of(bucket, 1, 1);
+            }
+        }
+    }
+
+    private final String userId;
+    private final String category;
+    private final Period period;
+    private final long limitCents;
+
+    /**
+     * Constructor for creating a new Budget.
+     *
+     * @param userId     ID of the user the budget belongs to.
+     * @param category   Category the limit applies to, or {@link #ALL_CATEGORIES}.
+     * @param period     Period the limit applies to.
+     * @param limitCents Maximum spending per period, in cents.
+     */
+    public Budget(String userId, String category, Period period, long limitCents) {
+        this.userId = userId;
+        this.category = category;
+        this.period = period;
+        this.limitCents = limitCents;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public Period getPeriod() {
+        return period;
+    }
+
+    public long getLimitCents() {
+        return limitCents;
+    }
+
+    @Override
+    public String toString() {
+        String name = ALL_CATEGORIES.equals(category) ? "All categories" : category;
+        return name + " " + period.name().toLowerCase() + " budget of $" + Money.format(limitCents);
+    }
+}
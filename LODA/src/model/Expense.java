@@ -1,20 +1,23 @@
 package model;
 
+import util.ExpenseFormatter;
+
 import java.io.Serializable;
 import java.time.LocalDate;
 
 /**
- * Represents a single expense record.
+ * Represents a single expense record. Immutable: an edit stores a new expense with
+ * the same ID, so a reader holding an expense never sees it change.
  */
 public class Expense implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private String id;
-    private String userId; // Foreign key linking to User
-    private LocalDate date;
-    private String category;
-    private double amount;
-    private String description;
+    private final String id;
+    private final String userId; // Foreign key linking to User
+    private final LocalDate date;
+    private final String category;
+    private final long amountCents; // exact, see util.Money
+    private final String description;
 
     /**
      * Constructor for creating a new Expense.
@@ -23,19 +26,19 @@ public class Expense implements Serializable {
      * @param userId      ID of the user who owns this expense.
      * @param date        Date of the expense.
      * @param category    Category (e.g., Food, Travel).
-     * @param amount      Cost of the expense.
+     * @param amountCents Cost of the expense in cents.
      * @param description Brief description.
      */
-    public Expense(String id, String userId, LocalDate date, String category, double amount, String description) {
+    public Expense(String id, String userId, LocalDate date, String category, long amountCents, String description) {
         this.id = id;
         this.userId = userId;
         this.date = date;
         this.category = category;
-        this.amount = amount;
+        this.amountCents = amountCents;
         this.description = description;
     }
 
-    // Getters and Setters
+    // Getters
 
     public String getId() {
         return id;
@@ -49,37 +52,20 @@ public class Expense implements Serializable {
         return date;
     }
 
-    public void setDate(LocalDate date) {
-        this.date = date;
-    }
-
     public String getCategory() {
         return category;
     }
 
-    public void setCategory(String category) {
-        this.category = category;
-    }
-
-    public double getAmount() {
-        return amount;
-    }
-
-    public void setAmount(double amount) {
-        this.amount = amount;
+    public long getAmountCents() {
+        return amountCents;
     }
 
     public String getDescription() {
         return description;
     }
 
-    public void setDescription(String description) {
-        this.description = description;
-    }
-
     @Override
     public String toString() {
-        return String.format("ID: %s | Date: %s | Cat: %s | Amt: $%.2f | Desc: %s",
-                id, date, category, amount, description);
+        return ExpenseFormatter.appendTo(new StringBuilder(128), this).toString();
     }
 }
@@ -0,0 +1,144 @@
+package model;
+
+import util.Money;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A repeating expense, such as rent or a subscription: the same category, amount
+ * and description every {@code interval} days, weeks, months or years from a start
+ * date, optionally until an end date.
+ * <p>
+ * Occurrences are numbered from 0 and always computed from the start date, so
+ * monthly rules starting on the 31st fall on the last day of shorter months
+ * without drifting.
+ */
+public class RecurringRule implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The unit a rule repeats in.
+     */
+    public enum Frequency {
+        DAILY(ChronoUnit.DAYS), WEEKLY(ChronoUnit.WEEKS), MONTHLY(ChronoUnit.MONTHS), YEARLY(ChronoUnit.YEARS);
+
+        private final ChronoUnit unit;
+
+        Frequency(ChronoUnit unit) {
+            this.unit = unit;
+        }
+    }
+
+    private final String id;
+    private final String userId;
+    private final String category;
+    private final long amountCents;
+    private final String description;
+    private final Frequency frequency;
+    private final int interval;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    /**
+     * Constructor for creating a new RecurringRule.
+     *
+     * @param id          Unique ID of the rule.
+     * @param userId      ID of the user the rule belongs to.
+     * @param category    Category of each occurrence.
+     * @param amountCents Amount of each occurrence, in cents.
+     * @param description Description of each occurrence.
+     * @param frequency   Unit of repetition.
+     * @param interval    Number of units between occurrences; at least 1.
+     * @param startDate   Date of the first occurrence.
+     * @param endDate     Last day an occurrence may fall on, or null for no end.
+     */
+    public RecurringRule(String id, String userId, String category, long amountCents, String description,
+                         Frequency frequency, int interval, LocalDate startDate, LocalDate endDate) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be at least 1");
+        }
+        this.id = id;
+        this.userId = userId;
+        this.category = category;
+        this.amountCents = amountCents;
+        this.description = description;
+        this.frequency = frequency;
+        this.interval = interval;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Frequency getFrequency() {
+        return frequency;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * @return Last day an occurrence may fall on, or null if the rule does not end.
+     */
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * @param index Occurrence number, from 0.
+     * @return Date of that occurrence, or null if it falls after the end date.
+     */
+    public LocalDate occurrence(long index) {
+        LocalDate date = startDate.plus(index * interval, frequency.unit);
+        return endDate != null && date.isAfter(endDate) ? null : date;
+    }
+
+    /**
+     * @param date A date.
+     * @return Number of the first occurrence on or after that date (which may be past the end date).
+     */
+    public long firstIndexOnOrAfter(LocalDate date) {
+        if (!date.isAfter(startDate)) return 0;
+        long index = frequency.unit.between(startDate, date) / interval;  // estimate; at most one off
+        while (index > 0 && !startDate.plus((index - 1) * interval, frequency.unit).isBefore(date)) {
+            index--;
+        }
+        while (startDate.plus(index * interval, frequency.unit).isBefore(date)) {
+            index++;
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        String every = interval == 1 ? frequency.name().toLowerCase()
+                : "every " + interval + " " + frequency.unit.toString().toLowerCase();
+        return category + " $" + Money.format(amountCents) + " " + every + " from " + startDate
+                + (endDate == null ? "" : " until " + endDate) + " (" + description + ")";
+    }
+}
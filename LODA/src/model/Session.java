@@ -0,0 +1,57 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Represents one logged-in session of a user.
+ * Several sessions may be active at once, each identified by its token.
+ */
+public class Session implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String token;
+    private final User user;
+    private final long createdAt;
+
+    /**
+     * Constructor for creating a new Session.
+     *
+     * @param token     Unique token identifying the session.
+     * @param user      The logged-in user.
+     * @param createdAt Login time in epoch milliseconds.
+     */
+    public Session(String token, User user, long createdAt) {
+        this.token = token;
+        this.user = user;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Gets the session token.
+     * @return The token.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Gets the logged-in user.
+     * @return The user.
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the login time.
+     * @return Epoch milliseconds.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "Session{user='" + user.getUsername() + "', createdAt=" + createdAt + "}";
+    }
+}
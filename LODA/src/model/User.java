@@ -11,7 +11,7 @@ public class User implements Serializable {
 
     private String id;
     private String username;
-    private String password; // In a real app, this should be hashed.
+    private String password; // null for users returned by UserManager, which only stores hashes
 
     /**
      * Constructor for creating a new User.
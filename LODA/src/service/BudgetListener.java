@@ -0,0 +1,23 @@
+package service;
+
+import model.Expense;
+
+/**
+ * Receives budget breaches from {@link BudgetManager}.
+ * <p>
+ * Calls are made from the thread that changed the expense, after the change,
+ * while the owning user's partition is still locked, so listeners should return
+ * quickly and must not call back into {@link ExpenseManager} for that user.
+ */
+public interface BudgetListener {
+
+    /**
+     * Called when an added or edited expense takes a period's spending over its limit.
+     * Further expenses in the same period do not trigger another call until
+     * spending has dropped back within the limit.
+     *
+     * @param status  Spending in the breached period, including the expense.
+     * @param expense The expense that caused the breach.
+     */
+    void onBudgetExceeded(BudgetStatus status, Expense expense);
+}
@@ -0,0 +1,354 @@
+package service;
+
+import model.Budget;
+import model.Expense;
+import model.User;
+import util.Money;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Per-user budgets by category and period, checked on every expense mutation.
+ * <p>
+ * Each budget keeps a running total in long cents per period bucket, updated as
+ * an {@link ExpenseListener}, so an add or edit costs a hash lookup per matching
+ * budget (at most one per period for the category, plus the all-categories ones)
+ * rather than a re-sum. A new period simply starts a new bucket at zero; nothing
+ * is rescanned when the calendar rolls over. Only users with budgets are tracked.
+ * <p>
+ * Budgets are saved to {@code budgets.csv} as {@code userId,category,period,limit}.
+ * Per-user state is guarded by that user's entry, which is only locked while the
+ * user's partition is locked in {@link ExpenseManager}, so partitions are always
+ * locked first.
+ */
+public class BudgetManager implements ExpenseListener {
+    private static final String DATA_DIR = "data";
+
+    /**
+     * One budget and its spending per period bucket.
+     */
+    private static class Tracker {
+        final Budget budget;
+        final long limitCents;
+        final Map<Integer, long[]> totals = new HashMap<>(); // period bucket -> spent cents
+
+        Tracker(Budget budget) {
+            this.budget = budget;
+            this.limitCents = budget.getLimitCents();
+        }
+
+        long total(int bucket) {
+            long[] total = totals.get(bucket);
+            return total == null ? 0 : total[0];
+        }
+
+        void add(Expense e, long cents) {
+            int bucket = budget.getPeriod().bucketOf(e.getDate());
+            long[] total = totals.computeIfAbsent(bucket, k -> new long[1]);
+            total[0] += cents;
+            if (total[0] == 0) {
+                totals.remove(bucket);
+            }
+        }
+
+        BudgetStatus status(int bucket) {
+            return new BudgetStatus(budget, budget.getPeriod().startOf(bucket), total(bucket));
+        }
+    }
+
+    /**
+     * A user's budgets by category.
+     */
+    private static class UserBudgets {
+        final Map<String, List<Tracker>> byCategory = new HashMap<>();
+    }
+
+    private final ExpenseManager expenseManager;
+    private final File file;
+    private final Map<String, UserBudgets> users = new ConcurrentHashMap<>();
+    private final List<BudgetListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean replaying;
+
+    public BudgetManager(ExpenseManager expenseManager) {
+        this(expenseManager, DATA_DIR);
+    }
+
+    /**
+     * Loads saved budgets and registers with the expense manager, which replays
+     * the stored expenses to seed the running totals. The replay raises no alerts.
+     *
+     * @param expenseManager The expenses to track.
+     * @param dataDir        Directory holding {@code budgets.csv}.
+     */
+    public BudgetManager(ExpenseManager expenseManager, String dataDir) {
+        this.expenseManager = expenseManager;
+        this.file = new File(dataDir, "budgets.csv");
+        loadBudgets();
+        replaying = true;
+        try {
+            expenseManager.addListener(this);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    /**
+     * Registers a listener for budget breaches.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(BudgetListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Sets a budget, replacing any existing one for the same category and period.
+     * The user's stored expenses are summed once to seed its totals.
+     *
+     * @param user       The user.
+     * @param category   The category, or {@link Budget#ALL_CATEGORIES}.
+     * @param period     The period.
+     * @param limitCents Maximum spending per period, in cents.
+     * @return true if the budget was saved.
+     */
+    public boolean setBudget(User user, String category, Budget.Period period, long limitCents) {
+        Tracker tracker = new Tracker(new Budget(user.getId(), category, period, limitCents));
+        withUser(user, budgets -> {
+            List<Tracker> trackers = budgets.byCategory.computeIfAbsent(category, k -> new ArrayList<>());
+            trackers.removeIf(t -> t.budget.getPeriod() == period);
+            trackers.add(tracker);
+            return null;
+        }, store -> {
+            for (Expense e : store.findByUser(user.getId())) {
+                if (category.equals(Budget.ALL_CATEGORIES) || category.equals(e.getCategory())) {
+                    tracker.add(e, e.getAmountCents());
+                }
+            }
+        });
+        return saveBudgets();
+    }
+
+    /**
+     * Removes a budget.
+     *
+     * @param user     The user.
+     * @param category The category, or {@link Budget#ALL_CATEGORIES}.
+     * @param period   The period.
+     * @return true if the budget existed and the change was saved.
+     */
+    public boolean removeBudget(User user, String category, Budget.Period period) {
+        UserBudgets budgets = users.get(user.getId());
+        if (budgets == null) return false;
+        boolean removed;
+        synchronized (budgets) {
+            List<Tracker> trackers = budgets.byCategory.get(category);
+            removed = trackers != null && trackers.removeIf(t -> t.budget.getPeriod() == period);
+            if (trackers != null && trackers.isEmpty()) {
+                budgets.byCategory.remove(category);
+            }
+        }
+        return removed && saveBudgets();
+    }
+
+    /**
+     * Gets spending against each of a user's budgets in the current period.
+     *
+     * @param user The user.
+     * @return One status per budget, ordered by category and period.
+     */
+    public List<BudgetStatus> getStatus(User user) {
+        return getStatus(user, LocalDate.now());
+    }
+
+    /**
+     * Gets spending against each of a user's budgets in the periods containing a date.
+     *
+     * @param user The user.
+     * @param date Any day of the periods wanted.
+     * @return One status per budget, ordered by category and period.
+     */
+    public List<BudgetStatus> getStatus(User user, LocalDate date) {
+        if (!users.containsKey(user.getId())) return new ArrayList<>();
+        return withUser(user, budgets -> {
+            List<BudgetStatus> result = new ArrayList<>();
+            for (List<Tracker> trackers : budgets.byCategory.values()) {
+                for (Tracker t : trackers) {
+                    result.add(t.status(t.budget.getPeriod().bucketOf(date)));
+                }
+            }
+            result.sort((a, b) -> {
+                int c = a.getBudget().getCategory().compareTo(b.getBudget().getCategory());
+                return c != 0 ? c : a.getBudget().getPeriod().compareTo(b.getBudget().getPeriod());
+            });
+            return result;
+        }, null);
+    }
+
+    @Override
+    public void onAdded(Expense expense) {
+        update(null, expense, !replaying);
+    }
+
+    @Override
+    public void onUpdated(Expense before, Expense after) {
+        update(before, after, true);
+    }
+
+    @Override
+    public void onRemoved(Expense expense) {
+        update(expense, null, false);
+    }
+
+    @Override
+    public void onLoaded(Expense expense) {
+        update(null, expense, false);
+    }
+
+    @Override
+    public void onEvicted(Expense expense) {
+        update(expense, null, false);
+    }
+
+    /**
+     * Moves an expense's amount between running totals and reports budgets whose
+     * period went from within the limit to over it.
+     */
+    private void update(Expense removed, Expense added, boolean alert) {
+        UserBudgets budgets = users.get(added != null ? added.getUserId() : removed.getUserId());
+        if (budgets == null) return;
+
+        List<BudgetStatus> breaches = null;
+        synchronized (budgets) {
+            List<Tracker> watched = alert ? trackersFor(budgets, added) : Collections.emptyList();
+            long[] before = new long[watched.size()];
+            for (int i = 0; i < before.length; i++) {
+                Tracker t = watched.get(i);
+                before[i] = t.total(t.budget.getPeriod().bucketOf(added.getDate()));
+            }
+            if (removed != null) {
+                long cents = removed.getAmountCents();
+                for (Tracker t : trackersFor(budgets, removed)) {
+                    t.add(removed, -cents);
+                }
+            }
+            if (added != null) {
+                long cents = added.getAmountCents();
+                for (Tracker t : trackersFor(budgets, added)) {
+                    t.add(added, cents);
+                }
+            }
+            for (int i = 0; i < before.length; i++) {
+                Tracker t = watched.get(i);
+                int bucket = t.budget.getPeriod().bucketOf(added.getDate());
+                if (before[i] <= t.limitCents && t.total(bucket) > t.limitCents) {
+                    if (breaches == null) breaches = new ArrayList<>();
+                    breaches.add(t.status(bucket));
+                }
+            }
+        }
+
+        if (breaches != null) {
+            for (BudgetStatus status : breaches) {
+                for (BudgetListener listener : listeners) {
+                    listener.onBudgetExceeded(status, added);
+                }
+            }
+        }
+    }
+
+    private static List<Tracker> trackersFor(UserBudgets budgets, Expense e) {
+        List<Tracker> byCategory = budgets.byCategory.get(e.getCategory());
+        List<Tracker> all = budgets.byCategory.get(Budget.ALL_CATEGORIES);
+        if (all == null) return byCategory == null ? Collections.emptyList() : byCategory;
+        if (byCategory == null) return all;
+        List<Tracker> both = new ArrayList<>(byCategory);
+        both.addAll(all);
+        return both;
+    }
+
+    /**
+     * Runs an action on a user's budgets while the user's partition is read-locked,
+     * so no mutation for the user can interleave.
+     *
+     * @param seed Optional pass over the user's stored expenses, run first.
+     */
+    private <R> R withUser(User user, Function<UserBudgets, R> action,
+                           Consumer<ExpenseStore> seed) {
+        String userId = user.getId();
+        return expenseManager.scan(Collections.singleton(userId), store -> {
+            if (seed != null) {
+                seed.accept(store);
+            }
+            UserBudgets budgets = users.computeIfAbsent(userId, k -> new UserBudgets());
+            synchronized (budgets) {
+                return action.apply(budgets);
+            }
+        }, (a, b) -> a);
+    }
+
+    private void loadBudgets() {
+        if (!file.exists()) return;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length != 4) continue;
+                try {
+                    Tracker tracker = new Tracker(new Budget(parts[0], parts[1],
+                            Budget.Period.valueOf(parts[2]), Money.parse(parts[3])));
+                    users.computeIfAbsent(parts[0], k -> new UserBudgets())
+                            .byCategory.computeIfAbsent(parts[1], k -> new ArrayList<>()).add(tracker);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error parsing budget: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading budgets: " + e.getMessage());
+        }
+    }
+
+    private synchronized boolean saveBudgets() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists()) {
+                parent.mkdirs();
+            }
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(tmp))) {
+                for (UserBudgets budgets : users.values()) {
+                    synchronized (budgets) {
+                        for (List<Tracker> trackers : budgets.byCategory.values()) {
+                            for (Tracker t : trackers) {
+                                Budget b = t.budget;
+                                bw.write(b.getUserId() + "," + b.getCategory() + "," + b.getPeriod() + "," + Money.format(b.getLimitCents()));
+                                bw.newLine();
+                            }
+                        }
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving budgets: " + e.getMessage());
+            return false;
+        }
+    }
+}
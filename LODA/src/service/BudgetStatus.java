@@ -0,0 +1,50 @@
+package service;
+
+import model.Budget;
+import util.Money;
+
+import java.time.LocalDate;
+
+/**
+ * Spending against a budget in one period.
+ */
+public class BudgetStatus {
+    private final Budget budget;
+    private final LocalDate periodStart;
+    private final long spentCents;
+
+    BudgetStatus(Budget budget, LocalDate periodStart, long spentCents) {
+        this.budget = budget;
+        this.periodStart = periodStart;
+        this.spentCents = spentCents;
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return First day of the period.
+     */
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    public long getSpentCents() {
+        return spentCents;
+    }
+
+    public long getRemainingCents() {
+        return budget.getLimitCents() - spentCents;
+    }
+
+    public boolean isExceeded() {
+        return spentCents > budget.getLimitCents();
+    }
+
+    @Override
+    public String toString() {
+        return budget + " (period from " + periodStart + "): spent $" + Money.format(spentCents)
+                + (isExceeded() ? " [WARNING: Exceeded]" : ", $" + Money.format(getRemainingCents()) + " left");
+    }
+}
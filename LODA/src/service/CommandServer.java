@@ -0,0 +1,274 @@
+package service;
+
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the {@link CommandProcessor} line protocol without the interactive menu,
+ * either over a script on an input stream or over a local TCP socket.
+ * <p>
+ * Every client runs on its own thread: a virtual thread when the JVM supports
+ * them (Java 21+), otherwise a pooled platform thread. Commands of one client run
+ * in order; different clients run concurrently against the shared services.
+ * <p>
+ * In a script, a line starting with {@code @<name> } belongs to the client
+ * {@code name} and its response lines carry the same prefix; untagged lines
+ * belong to a default client. Blank lines and lines starting with {@code #} are
+ * skipped. This lets a script replay many interleaved sessions at once.
+ */
+public class CommandServer implements Closeable {
+    private static final int LANE_QUEUE_SIZE = 1024;
+    private static final long LANE_OFFER_MILLIS = 100;  // how often a blocked script checks its lane is alive
+    private static final String END = "\u0000";  // marks the end of a lane's input
+
+    private static final LatencyHistogram COMMAND_SECONDS = Metrics.global().histogram(
+            "command_seconds", "Time per headless command");
+    private static final LongAdder COMMAND_ERRORS = Metrics.global().counter(
+            "command_errors_total", "Headless commands answered with ERR");
+
+    private final CommandProcessor processor;
+    private final ExecutorService executor;
+
+    /**
+     * @param processor Executes the commands.
+     */
+    public CommandServer(CommandProcessor processor) {
+        this.processor = processor;
+        this.executor = newExecutor();
+    }
+
+    /**
+     * Input queue and task of one client of a script.
+     */
+    private static final class Lane {
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(LANE_QUEUE_SIZE);
+        Future<?> task;
+
+        /**
+         * Queues a line, waiting while the queue is full as long as the client is
+         * still running.
+         *
+         * @throws IOException if the client stopped; carries its failure, if any.
+         */
+        void put(String line) throws IOException, InterruptedException {
+            while (!queue.offer(line, LANE_OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (task.isDone()) {
+                    try {
+                        task.get();
+                    } catch (ExecutionException e) {
+                        throw failure(e);
+                    }
+                    throw new IOException("Client stopped before the end of the script");
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a command script to completion and reports throughput and latency
+     * percentiles for it on {@code System.err}. If a client fails, the others are
+     * cancelled and its failure is thrown.
+     *
+     * @param in  The script.
+     * @param out Receives the responses; lines of different clients may interleave.
+     * @throws IOException if reading the script or writing a response fails.
+     */
+    public void runScript(InputStream in, Writer out) throws IOException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        Map<String, Lane> lanes = new HashMap<>();
+        List<Lane> running = new ArrayList<>();
+        boolean finished = false;
+        long start = System.nanoTime();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+                String tag = "";
+                if (trimmed.startsWith("@")) {
+                    int space = trimmed.indexOf(' ');
+                    tag = space < 0 ? trimmed : trimmed.substring(0, space);
+                    trimmed = space < 0 ? "" : trimmed.substring(space + 1);
+                }
+                Lane lane = lanes.get(tag);
+                if (lane == null) {
+                    lane = new Lane();
+                    lanes.put(tag, lane);
+                    running.add(lane);
+                    lane.task = executor.submit(runLane(tag, lane.queue, out, latencies));
+                }
+                lane.put(trimmed);
+            }
+            for (Lane lane : running) {
+                lane.put(END);
+            }
+            for (Lane lane : running) {
+                lane.task.get();
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running script", e);
+        } catch (ExecutionException e) {
+            throw failure(e);
+        } finally {
+            if (!finished) {
+                for (Lane lane : running) {
+                    lane.task.cancel(true);
+                }
+            }
+        }
+        out.flush();
+
+        long elapsed = System.nanoTime() - start;
+        long count = latencies.getCount();
+        System.err.printf("Ran %d commands from %d clients in %.1f ms (%.0f commands/s); "
+                        + "latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                count, lanes.size(), elapsed / 1e6, count * 1e9 / Math.max(1, elapsed),
+                latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6,
+                latencies.getPercentile(99.9) / 1e6, latencies.getMax() / 1e6);
+    }
+
+    /**
+     * Accepts connections on a loopback port until the process exits, serving each
+     * connection as one client.
+     *
+     * @param port TCP port, or 0 for any free port.
+     * @throws IOException if the port cannot be bound.
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+            System.err.println("Listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                executor.execute(() -> serveConnection(socket));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static IOException failure(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException) {
+            return ((UncheckedIOException) cause).getCause();
+        }
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    private Runnable runLane(String tag, BlockingQueue<String> lane, Writer out, LatencyHistogram latencies) {
+        return () -> {
+            CommandProcessor.Client client = new CommandProcessor.Client();
+            String prefix = tag.isEmpty() ? "" : tag + " ";
+            StringBuilder response = new StringBuilder();
+            try {
+                String line;
+                while (!(line = lane.take()).equals(END)) {
+                    response.setLength(0);
+                    long latency = execute(client, line, response);
+                    latencies.record(latency);
+                    synchronized (out) {
+                        int lineStart = 0;
+                        for (int i = 0; i < response.length(); i++) {
+                            if (response.charAt(i) == '\n') {
+                                out.append(prefix).append(response, lineStart, i + 1);
+                                lineStart = i + 1;
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                processor.disconnect(client);
+            }
+        };
+    }
+
+    private void serveConnection(Socket socket) {
+        CommandProcessor.Client client = new CommandProcessor.Client();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) continue;
+                if (trimmed.equalsIgnoreCase("QUIT")) break;
+                response.setLength(0);
+                execute(client, trimmed, response);
+                out.append(response);
+                if (!in.ready()) {
+                    out.flush();  // pipelined commands are answered in one write
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error serving connection: " + e.getMessage());
+        } finally {
+            processor.disconnect(client);
+        }
+    }
+
+    /**
+     * @return Nanoseconds the command took.
+     */
+    private long execute(CommandProcessor.Client client, String line, StringBuilder response) {
+        long start = System.nanoTime();
+        if (!processor.execute(client, line, response)) {
+            COMMAND_ERRORS.increment();
+        }
+        long latency = System.nanoTime() - start;
+        COMMAND_SECONDS.record(latency);
+        return latency;
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor when the runtime has one. It is
+     * looked up reflectively so the code still compiles and runs on Java 8.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "command-client");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Persistent username -> (user ID, salted password hash) store.
+ * <p>
+ * Two files are kept:
+ * <pre>
+ * users.dat  append-only records:
+ *            length:int iterations:int salt:16 bytes hash:32 bytes idLength:ushort id nameLength:ushort name
+ * users.idx  header  magic:int version:int capacity:int count:int dataLength:long reserved:long
+ *            slots   capacity x (nameHash:long recordOffset:long), open addressing with linear probing
+ * </pre>
+ * The index is memory-mapped, so a lookup touches one or two slots and reads a
+ * single record; no user is held on-heap. The index is derived data: if it is
+ * missing or does not cover the whole data file (e.g. after a crash between the
+ * two writes) it is rebuilt from {@code users.dat} on open. A record is synced
+ * before its slot, and the slot before the header that covers the record, so an
+ * index that passes that check has a slot for every record. A user appearing in
+ * several records (after a re-hash) is taken from the last one.
+ * <p>
+ * Passwords are hashed with PBKDF2-HMAC-SHA256 and a random 16-byte salt. The
+ * iteration count is configurable and stored per record, so existing users keep
+ * working when it changes and are re-hashed at the new cost on their next login.
+ */
+public class CredentialStore implements Closeable {
+    /** Longest username or user ID, in UTF-8 bytes, that fits a record. */
+    public static final int MAX_NAME_BYTES = 0xffff;
+
+    private static final int MAGIC = 0x53535550; // "SSUP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 26;   // keeps the mapped index under 2 GB
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final int FIXED_RECORD_BYTES = 4 + 4 + SALT_BYTES + HASH_BYTES; // length .. hash
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final byte[] DUMMY_SALT = new byte[SALT_BYTES]; // hashed against for unknown users
+
+    /**
+     * A stored credential, as read back for verification.
+     */
+    public static class Credential {
+        private final String userId;
+        private final String username;
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final long offset;
+
+        Credential(String userId, String username, int iterations, byte[] salt, byte[] hash, long offset) {
+            this.userId = userId;
+            this.username = username;
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+            this.offset = offset;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+    }
+
+    private final File indexFile;
+    private final FileChannel data;
+    private final int iterations;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long dataLength;
+
+    /**
+     * Opens (or creates) a credential store.
+     *
+     * @param directory  Directory holding {@code users.dat} and {@code users.idx}.
+     * @param iterations PBKDF2 iteration count for newly hashed passwords.
+     * @throws IOException if the files cannot be opened.
+     */
+    public CredentialStore(String directory, int iterations) throws IOException {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        this.iterations = iterations;
+        File dir = new File(directory);
+        dir.mkdirs();
+        this.indexFile = new File(dir, "users.idx");
+        this.data = FileChannel.open(new File(dir, "users.dat").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            dataLength = data.size();
+            if (!openIndex()) {
+                rebuildIndex(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(countRecords() * 4 + 1)));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of stored users.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a user unless the username is taken. The password is hashed before any lock is taken.
+     *
+     * @param username The username.
+     * @param userId   The user's ID.
+     * @param password The plaintext password.
+     * @return true if added, false if the username already exists.
+     * @throws IOException              if the write fails.
+     * @throws IllegalArgumentException if the username or ID is longer than {@link #MAX_NAME_BYTES}.
+     */
+    public boolean add(String username, String userId, String password) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES || id.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Username or user ID longer than " + MAX_NAME_BYTES + " bytes");
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = hash(password, salt, iterations);
+
+        lock.writeLock().lock();
+        try {
+            long nameHash = nameHash(name);
+            if (findSlot(name, nameHash) >= 0) {
+                return false;
+            }
+            // Grow first: a rebuilt index is installed with a header covering the whole data file.
+            if ((count + 1) * 2L > capacity) {
+                if (capacity == MAX_CAPACITY) {
+                    throw new IOException("Credential index is full");
+                }
+                rebuildIndex(capacity * 2);
+            }
+            long offset = appendRecord(id, name, iterations, salt, hash);
+            insertSlot(nameHash, offset);
+            index.force();
+            count++;
+            writeHeader();
+            index.force();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up a user's stored credential.
+     *
+     * @param username The username.
+     * @return The credential, or null if the user does not exist.
+     * @throws IOException if the read fails.
+     */
+    public Credential find(String username) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(name, nameHash(name));
+            return slot < 0 ? null : readRecord(index.getLong(slotPosition(slot) + 8));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks a password. Hashing runs outside the store lock, so logins proceed in parallel.
+     * Credentials hashed at a different cost than the configured one are re-hashed on success.
+     * An unknown username still costs a hash at the configured iteration count, so the
+     * response time does not reveal which usernames exist.
+     *
+     * @param username The username.
+     * @param password The plaintext password.
+     * @return The matching credential, or null if the user is unknown or the password is wrong.
+     * @throws IOException if the store cannot be read.
+     */
+    public Credential verify(String username, String password) throws IOException {
+        Credential credential = find(username);
+        if (credential == null) {
+            hash(password, DUMMY_SALT, iterations);
+            return null;
+        }
+        byte[] actual = hash(password, credential.salt, credential.iterations);
+        if (!MessageDigest.isEqual(actual, credential.hash)) {
+            return null;
+        }
+        if (credential.iterations != iterations) {
+            rehash(credential, password);
+        }
+        return credential;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                index.force();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            data.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record with the new cost, salt and hash and repoints the user's slot
+     * to it. The old record stays valid until then, so a crash at any point leaves
+     * one of the two in use.
+     */
+    private void rehash(Credential credential, String password) throws IOException {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = hash(password, salt, iterations);
+        byte[] name = credential.username.getBytes(StandardCharsets.UTF_8);
+
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(name, nameHash(name));
+            if (slot < 0 || index.getLong(slotPosition(slot) + 8) != credential.offset) {
+                return;  // re-hashed by a concurrent login
+            }
+            long offset = appendRecord(credential.userId.getBytes(StandardCharsets.UTF_8), name, iterations, salt, hash);
+            index.putLong(slotPosition(slot) + 8, offset);
+            index.force();
+            writeHeader();
+            index.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Maps an existing index if it is valid and covers the whole data file.
+     */
+    private boolean openIndex() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        int slots = header.getInt(8);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(16) != dataLength
+                || Integer.bitCount(slots) != 1 || channel.size() != HEADER_SIZE + (long) slots * SLOT_SIZE) {
+            channel.close();
+            return false;
+        }
+        indexChannel = channel;
+        index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        capacity = slots;
+        count = header.getInt(12);
+        return true;
+    }
+
+    /**
+     * Writes a fresh index of the given capacity to a temporary file, moves it into
+     * place and maps it. Slots come from the current index if one is open, otherwise
+     * from a scan of the data file.
+     */
+    private void rebuildIndex(int newCapacity) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        int entries = 0;
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+            if (index != null) {
+                for (int slot = 0; slot < capacity; slot++) {
+                    long hash = index.getLong(slotPosition(slot));
+                    if (hash != 0) {
+                        place(target, newCapacity, hash, index.getLong(slotPosition(slot) + 8));
+                        entries++;
+                    }
+                }
+            } else {
+                for (long offset = 0; offset + 4 <= dataLength; ) {
+                    byte[] name = readRecord(offset).username.getBytes(StandardCharsets.UTF_8);
+                    if (placeLatest(target, newCapacity, name, offset)) {
+                        entries++;
+                    }
+                    offset += 4 + readInt(offset);
+                }
+            }
+            target.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, newCapacity).putInt(12, entries)
+                    .putLong(16, dataLength).putLong(24, 0);
+            target.force();
+        }
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+        capacity = newCapacity;
+        count = entries;
+    }
+
+    /**
+     * @return The slot holding the username, or -1.
+     */
+    private int findSlot(byte[] name, long nameHash) throws IOException {
+        int mask = capacity - 1;
+        for (int slot = (int) nameHash & mask; ; slot = (slot + 1) & mask) {
+            long hash = index.getLong(slotPosition(slot));
+            if (hash == 0) {
+                return -1;
+            }
+            if (hash == nameHash && nameMatches(index.getLong(slotPosition(slot) + 8), name)) {
+                return slot;
+            }
+        }
+    }
+
+    private void insertSlot(long nameHash, long offset) {
+        place(index, capacity, nameHash, offset);
+    }
+
+    private static void place(ByteBuffer table, int capacity, long nameHash, long offset) {
+        int mask = capacity - 1;
+        int slot = (int) nameHash & mask;
+        while (table.getLong(slotPosition(slot)) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        // Offset first, so a slot is never visible with a hash but no record.
+        table.putLong(slotPosition(slot) + 8, offset);
+        table.putLong(slotPosition(slot), nameHash);
+    }
+
+    /**
+     * Places a record scanned from the data file, replacing the slot of an earlier
+     * record of the same user.
+     *
+     * @return true if a new slot was used.
+     */
+    private boolean placeLatest(ByteBuffer table, int capacity, byte[] name, long offset) throws IOException {
+        long nameHash = nameHash(name);
+        int mask = capacity - 1;
+        int slot = (int) nameHash & mask;
+        for (long hash; (hash = table.getLong(slotPosition(slot))) != 0; slot = (slot + 1) & mask) {
+            if (hash == nameHash && nameMatches(table.getLong(slotPosition(slot) + 8), name)) {
+                table.putLong(slotPosition(slot) + 8, offset);
+                return false;
+            }
+        }
+        place(table, capacity, nameHash, offset);
+        return true;
+    }
+
+    private void writeHeader() {
+        index.putInt(12, count);
+        index.putLong(16, dataLength);
+    }
+
+    /**
+     * Appends a record and syncs the data file before the index refers to it.
+     */
+    private long appendRecord(byte[] id, byte[] name, int cost, byte[] salt, byte[] hash) throws IOException {
+        int length = FIXED_RECORD_BYTES - 4 + 2 + id.length + 2 + name.length;
+        ByteBuffer buf = ByteBuffer.allocate(4 + length);
+        buf.putInt(length).putInt(cost).put(salt).put(hash)
+                .putShort((short) id.length).put(id)
+                .putShort((short) name.length).put(name)
+                .flip();
+        long offset = dataLength;
+        writeFully(data, buf, offset);
+        data.force(false);
+        dataLength += buf.capacity();
+        return offset;
+    }
+
+    private Credential readRecord(long offset) throws IOException {
+        int length = readInt(offset);
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        readFully(buf, offset + 4);
+        buf.flip();
+        int cost = buf.getInt();
+        byte[] salt = new byte[SALT_BYTES];
+        buf.get(salt);
+        byte[] hash = new byte[HASH_BYTES];
+        buf.get(hash);
+        byte[] id = new byte[buf.getShort() & 0xffff];
+        buf.get(id);
+        byte[] name = new byte[buf.getShort() & 0xffff];
+        buf.get(name);
+        return new Credential(new String(id, StandardCharsets.UTF_8), new String(name, StandardCharsets.UTF_8),
+                cost, salt, hash, offset);
+    }
+
+    /**
+     * Compares a record's username with the given bytes without decoding the record.
+     */
+    private boolean nameMatches(long offset, byte[] name) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(2);
+        readFully(buf, offset + FIXED_RECORD_BYTES);
+        long namePosition = offset + FIXED_RECORD_BYTES + 2 + (buf.getShort(0) & 0xffff);
+        buf.clear();
+        readFully(buf, namePosition);
+        if ((buf.getShort(0) & 0xffff) != name.length) {
+            return false;
+        }
+        ByteBuffer stored = ByteBuffer.allocate(name.length);
+        readFully(stored, namePosition + 2);
+        stored.flip();
+        return stored.equals(ByteBuffer.wrap(name));
+    }
+
+    /**
+     * Counts complete records, truncating a torn trailing record left by a crash mid-append.
+     */
+    private int countRecords() throws IOException {
+        int records = 0;
+        long offset = 0;
+        while (offset + 4 <= dataLength) {
+            int length = readInt(offset);
+            if (length < FIXED_RECORD_BYTES || offset + 4 + length > dataLength) break;
+            offset += 4 + length;
+            records++;
+        }
+        if (offset != dataLength) {
+            data.truncate(offset);
+            dataLength = offset;
+        }
+        return records;
+    }
+
+    private int readInt(long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(buf, position);
+        return buf.getInt(0);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (data.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Truncated credential record at " + position);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position());
+        }
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 username; never 0, which marks an empty slot.
+     */
+    private static long nameHash(byte[] name) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 29;
+        return h == 0 ? 1 : h;
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
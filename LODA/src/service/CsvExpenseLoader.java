@@ -0,0 +1,228 @@
+package service;
+
+import model.Expense;
+import util.Money;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel loader for {@code expenses.csv}.
+ * <p>
+ * The file is cut into byte ranges aligned on line breaks; each range is memory-mapped
+ * and parsed on a fork-join pool by a byte-level field scanner (no {@code split}, no
+ * regex). Chunk results are concatenated in file order, so the output matches a
+ * sequential {@code readLine}/{@code split(",")} parse row for row, including which
+ * malformed rows are skipped.
+ */
+public class CsvExpenseLoader {
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int MAX_CHUNK_BYTES = 1 << 28;
+    private static final Charset CHARSET = Charset.defaultCharset(); // what FileReader/FileWriter use
+
+    private final ForkJoinPool pool;
+
+    public CsvExpenseLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool Pool that parses the chunks.
+     */
+    public CsvExpenseLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Parses a CSV file of expenses.
+     *
+     * @param path Path of the CSV file.
+     * @return Every well-formed row, in file order.
+     * @throws IOException if the file cannot be read.
+     */
+    public List<Expense> load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = chunkBounds(channel, size, pool.getParallelism());
+
+            List<ForkJoinTask<List<Expense>>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                if (bounds[i] == bounds[i + 1]) continue;
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                tasks.add(pool.submit(new ChunkParser(chunk)));
+            }
+
+            List<Expense> result = new ArrayList<>();
+            for (ForkJoinTask<List<Expense>> task : tasks) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Splits the file into ranges that each start at the beginning of a line.
+     */
+    private static long[] chunkBounds(FileChannel channel, long size, int parallelism) throws IOException {
+        long target = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, size / (parallelism * 4L) + 1));
+        int chunks = (int) Math.max(1, (size + target - 1) / target);
+        long[] bounds = new long[chunks + 1];
+        bounds[chunks] = size;
+
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int i = 1; i < chunks; i++) {
+            long position = Math.max(i * target, bounds[i - 1]);
+            bounds[i] = size;
+            scan:
+            while (position < size) {
+                probe.clear();
+                int read = channel.read(probe, position);
+                if (read <= 0) break;
+                for (int j = 0; j < read; j++) {
+                    if (probe.get(j) == '\n') {
+                        bounds[i] = position + j + 1;
+                        break scan;
+                    }
+                }
+                position += read;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses one chunk of complete lines.
+     */
+    private static class ChunkParser extends RecursiveTask<List<Expense>> {
+        private static final long serialVersionUID = 1L;
+        private final ByteBuffer buf;
+        private final int[] commas = new int[5];
+        private final CharSequence chars = new CharSequence() { // the chunk's bytes as ASCII, for Money.parse
+            @Override
+            public int length() {
+                return buf.limit();
+            }
+
+            @Override
+            public char charAt(int index) {
+                return (char) (buf.get(index) & 0xFF);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return text(start, end);
+            }
+        };
+
+        ChunkParser(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        protected List<Expense> compute() {
+            List<Expense> rows = new ArrayList<>();
+            int limit = buf.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && buf.get(end) != '\n' && buf.get(end) != '\r') {
+                    end++;
+                }
+                Expense expense = parseLine(start, end);
+                if (expense != null) {
+                    rows.add(expense);
+                }
+                start = end + 1;
+            }
+            return rows;
+        }
+
+        /**
+         * Parses bytes [from, to) with the same acceptance rules as
+         * {@code line.split(",")} requiring exactly six fields: trailing empty
+         * fields are dropped before counting.
+         */
+        private Expense parseLine(int from, int to) {
+            int found = 0;
+            int pos = from;
+            while (found < 5 && pos < to) {
+                if (buf.get(pos) == ',') {
+                    commas[found++] = pos;
+                }
+                pos++;
+            }
+            if (found < 5) return null;
+
+            int descStart = commas[4] + 1;
+            int descEnd = descStart;
+            while (descEnd < to && buf.get(descEnd) != ',') {
+                descEnd++;
+            }
+            for (int i = descEnd; i < to; i++) {
+                if (buf.get(i) != ',') return null; // a seventh non-empty field
+            }
+            if (descEnd == descStart) return null;  // description dropped as a trailing empty field
+
+            LocalDate date = parseDate(commas[1] + 1, commas[2]);
+            if (date == null) return null;
+            long amountCents;
+            try {
+                amountCents = Money.parse(chars, commas[3] + 1, commas[4]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return new Expense(
+                    text(from, commas[0]),
+                    text(commas[0] + 1, commas[1]),
+                    date,
+                    text(commas[2] + 1, commas[3]),
+                    amountCents,
+                    text(descStart, descEnd));
+        }
+
+        private LocalDate parseDate(int from, int to) {
+            try {
+                if (to - from == 10 && buf.get(from + 4) == '-' && buf.get(from + 7) == '-') {
+                    int year = digits(from, from + 4);
+                    int month = digits(from + 5, from + 7);
+                    int day = digits(from + 8, from + 10);
+                    if (year >= 0 && month >= 0 && day >= 0) {
+                        return LocalDate.of(year, month, day);
+                    }
+                }
+                return LocalDate.parse(text(from, to));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        private int digits(int from, int to) {
+            int value = 0;
+            for (int i = from; i < to; i++) {
+                byte b = buf.get(i);
+                if (b < '0' || b > '9') return -1;
+                value = value * 10 + (b - '0');
+            }
+            return value;
+        }
+
+        private String text(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(from + i);
+            }
+            return new String(bytes, CHARSET);
+        }
+    }
+}
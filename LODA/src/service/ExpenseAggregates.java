@@ -0,0 +1,148 @@
+package service;
+
+import model.Expense;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Running per-user totals by category and by month/category, maintained
+ * incrementally from expense mutations. Amounts are summed as long cents, so
+ * adding and removing the same expense always cancels out exactly.
+ * <p>
+ * Per-user state is only touched under that user's partition lock in
+ * {@link ExpenseManager}; the top-level maps are concurrent.
+ */
+public class ExpenseAggregates implements ExpenseListener {
+
+    /**
+     * Running sum and row count for one group.
+     */
+    private static class Total {
+        long cents;
+        int count;
+    }
+
+    private final Map<String, Map<String, Total>> byCategory = new ConcurrentHashMap<>();               // userId -> category -> total
+    private final Map<String, Map<YearMonth, Map<String, Total>>> byMonth = new ConcurrentHashMap<>(); // userId -> month -> category -> total
+
+    @Override
+    public void onAdded(Expense expense) {
+        apply(expense, 1);
+    }
+
+    @Override
+    public void onUpdated(Expense before, Expense after) {
+        apply(before, -1);
+        apply(after, 1);
+    }
+
+    @Override
+    public void onRemoved(Expense expense) {
+        apply(expense, -1);
+    }
+
+    /**
+     * @param userId The user.
+     * @return Total spent per category in cents, sorted by category.
+     */
+    public Map<String, Long> getCategoryTotals(String userId) {
+        return toAmounts(byCategory.get(userId));
+    }
+
+    /**
+     * @param userId The user.
+     * @param month  The month.
+     * @return Total spent per category in that month in cents, sorted by category.
+     */
+    public Map<String, Long> getCategoryTotals(String userId, YearMonth month) {
+        Map<YearMonth, Map<String, Total>> months = byMonth.get(userId);
+        return toAmounts(months == null ? null : months.get(month));
+    }
+
+    /**
+     * Rebuilds aggregates from scratch and compares them with these running totals.
+     *
+     * @param expenses Every expense the totals should describe.
+     * @return true if every group's sum and count match.
+     */
+    public boolean isConsistentWith(List<Expense> expenses) {
+        ExpenseAggregates fresh = new ExpenseAggregates();
+        expenses.forEach(fresh::onAdded);
+        return sameTotals(byCategory, fresh.byCategory) && sameMonthTotals(byMonth, fresh.byMonth);
+    }
+
+    private void apply(Expense e, int sign) {
+        long cents = e.getAmountCents();
+        Map<String, Total> categories = byCategory.computeIfAbsent(e.getUserId(), k -> new HashMap<>());
+        add(categories, e.getCategory(), cents, sign);
+        if (categories.isEmpty()) {
+            byCategory.remove(e.getUserId());
+        }
+
+        Map<YearMonth, Map<String, Total>> months = byMonth.computeIfAbsent(e.getUserId(), k -> new HashMap<>());
+        YearMonth month = YearMonth.from(e.getDate());
+        Map<String, Total> monthCategories = months.computeIfAbsent(month, k -> new HashMap<>());
+        add(monthCategories, e.getCategory(), cents, sign);
+        if (monthCategories.isEmpty()) {
+            months.remove(month);
+        }
+        if (months.isEmpty()) {
+            byMonth.remove(e.getUserId());
+        }
+    }
+
+    private static void add(Map<String, Total> totals, String key, long cents, int sign) {
+        Total total = totals.computeIfAbsent(key, k -> new Total());
+        total.cents += sign * cents;
+        total.count += sign;
+        if (total.count == 0) {
+            totals.remove(key);
+        }
+    }
+
+    private static Map<String, Long> toAmounts(Map<String, Total> totals) {
+        Map<String, Long> amounts = new TreeMap<>();
+        if (totals != null) {
+            for (Map.Entry<String, Total> entry : totals.entrySet()) {
+                amounts.put(entry.getKey(), entry.getValue().cents);
+            }
+        }
+        return amounts;
+    }
+
+    private static boolean sameTotals(Map<String, Map<String, Total>> a, Map<String, Map<String, Total>> b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (String user : a.keySet()) {
+            if (!sameGroup(a.get(user), b.get(user))) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameMonthTotals(Map<String, Map<YearMonth, Map<String, Total>>> a,
+                                           Map<String, Map<YearMonth, Map<String, Total>>> b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (String user : a.keySet()) {
+            Map<YearMonth, Map<String, Total>> monthsA = a.get(user);
+            Map<YearMonth, Map<String, Total>> monthsB = b.get(user);
+            if (!monthsA.keySet().equals(monthsB.keySet())) return false;
+            for (YearMonth month : monthsA.keySet()) {
+                if (!sameGroup(monthsA.get(month), monthsB.get(month))) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameGroup(Map<String, Total> a, Map<String, Total> b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (Map.Entry<String, Total> entry : a.entrySet()) {
+            Total other = b.get(entry.getKey());
+            if (entry.getValue().cents != other.cents || entry.getValue().count != other.count) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+package service;
+
+import model.Expense;
+import util.HeavyHitters;
+import util.HyperLogLog;
+import util.KllSketch;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Approximate fleet-wide statistics across all users, kept in bounded memory by
+ * probabilistic sketches that are updated as expenses are added:
+ * <ul>
+ *   <li>distinct users with expenses dated on each day, one {@link HyperLogLog}
+ *       per day (about 1.6% standard error, at most 4 KB a day);</li>
+ *   <li>categories by total spend, from {@link HeavyHitters} (totals overestimated
+ *       by at most 0.14% of all spending, with 99.3% probability);</li>
+ *   <li>amount quantiles per category, one {@link KllSketch} per category (rank
+ *       within about 1.7%, at most about 600 values a category).</li>
+ * </ul>
+ * Queries over several days or categories merge their sketches, so a window of
+ * days is counted once per user rather than once per day.
+ * <p>
+ * Spend totals follow edits and deletes exactly, since Count-Min counters can be
+ * decremented. The other two sketches only grow: a deleted expense's user still
+ * counts as active that day, and edited or deleted amounts stay in the quantiles.
+ * <p>
+ * Spend is counted in {@value #STRIPES} stripes chosen by user, so updates from
+ * different partitions rarely contend, and the stripes are merged per query. Days
+ * and categories each have their own sketch and lock.
+ * <p>
+ * With a memory budget, only the expenses in memory at registration are replayed,
+ * so segments never loaded since are not counted.
+ */
+public class ExpenseAnalytics implements ExpenseListener {
+    private static final int STRIPES = 16;
+
+    private final ConcurrentMap<Long, HyperLogLog> usersByDay = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, KllSketch> amountsByCategory = new ConcurrentHashMap<>();
+    private final HeavyHitters[] spendByCategory = new HeavyHitters[STRIPES];
+
+    /**
+     * Registers with the expense manager, which replays every stored expense,
+     * sealed ones included, to seed the sketches.
+     *
+     * @param expenseManager The expenses to track.
+     */
+    public ExpenseAnalytics(ExpenseManager expenseManager) {
+        for (int i = 0; i < STRIPES; i++) {
+            spendByCategory[i] = new HeavyHitters();
+        }
+        expenseManager.addListener(this, true);
+    }
+
+    @Override
+    public void onAdded(Expense expense) {
+        HyperLogLog users = usersByDay.computeIfAbsent(expense.getDate().toEpochDay(), k -> new HyperLogLog());
+        synchronized (users) {
+            users.add(expense.getUserId());
+        }
+        addSpend(expense, expense.getAmountCents());
+        KllSketch amounts = amountsByCategory.computeIfAbsent(expense.getCategory(), k -> new KllSketch());
+        synchronized (amounts) {
+            amounts.add(expense.getAmountCents());
+        }
+    }
+
+    @Override
+    public void onUpdated(Expense before, Expense after) {
+        addSpend(before, -before.getAmountCents());
+        onAdded(after);
+    }
+
+    @Override
+    public void onRemoved(Expense expense) {
+        addSpend(expense, -expense.getAmountCents());
+    }
+
+    /**
+     * Expenses entering memory (a thawed month, a reloaded segment) were counted when
+     * they were added.
+     */
+    @Override
+    public void onLoaded(Expense expense) {
+    }
+
+    /**
+     * Expenses leaving memory (sealed or evicted) are still stored, so they stay counted.
+     */
+    @Override
+    public void onEvicted(Expense expense) {
+    }
+
+    /**
+     * Estimates how many distinct users have expenses dated within a window.
+     *
+     * @param from First day (inclusive).
+     * @param to   Last day (inclusive).
+     * @return Estimated number of users.
+     */
+    public long countActiveUsers(LocalDate from, LocalDate to) {
+        HyperLogLog merged = new HyperLogLog();
+        for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+            HyperLogLog users = usersByDay.get(day);
+            if (users == null) continue;
+            synchronized (users) {
+                merged.merge(users);
+            }
+        }
+        return merged.estimate();
+    }
+
+    /**
+     * @param k Number of categories.
+     * @return Up to {@code k} categories with their estimated total spend in cents, largest first.
+     */
+    public Map<String, Long> getTopCategories(int k) {
+        HeavyHitters merged = new HeavyHitters();
+        for (HeavyHitters stripe : spendByCategory) {
+            synchronized (stripe) {
+                merged.merge(stripe);
+            }
+        }
+        return merged.top(k);
+    }
+
+    /**
+     * Estimates a quantile of expense amounts.
+     *
+     * @param category The category, or null for all categories.
+     * @param fraction Rank as a fraction, e.g. 0.5 for the median.
+     * @return Estimated amount in cents; 0 if there are no expenses.
+     */
+    public long getAmountQuantile(String category, double fraction) {
+        KllSketch merged = new KllSketch();
+        for (Map.Entry<String, KllSketch> entry : amountsByCategory.entrySet()) {
+            if (category == null || category.equals(entry.getKey())) {
+                synchronized (entry.getValue()) {
+                    merged.merge(entry.getValue());
+                }
+            }
+        }
+        return merged.quantile(fraction);
+    }
+
+    private void addSpend(Expense expense, long amountCents) {
+        HeavyHitters stripe = spendByCategory[(expense.getUserId().hashCode() & 0x7fffffff) % STRIPES];
+        synchronized (stripe) {
+            stripe.add(expense.getCategory(), amountCents);
+        }
+    }
+}
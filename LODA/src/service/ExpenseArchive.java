@@ -0,0 +1,571 @@
+package service;
+
+import model.Expense;
+import util.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Cold tier of the expense store: months that have left the hot window, sealed
+ * into immutable compressed {@link SealedSegment}s under {@code data/archive/},
+ * one file per month with one block per user.
+ * <p>
+ * Sealed rows are not held in memory. Per-category totals of every block are,
+ * so category totals and whole-month report groups never decompress a block;
+ * listings, searches and partial-month reports inflate only the blocks of the
+ * users and months they cover.
+ * <p>
+ * A segment is never changed in place. Sealing more rows into a month, or
+ * dropping a user's block from it, writes a new file (copying untouched blocks
+ * without decompressing them), fsyncs it and renames it over the old one.
+ * Sealing is split in two so that the slow part, compressing and writing the
+ * file, can run while the rows are still served from the hot store:
+ * {@link #prepareSeal} writes the new segment to a temporary file and
+ * {@link #install} renames it into place. Callers hold the partition locks of the
+ * users involved while the segments in use change, as for the hot store; this
+ * class only guards swapping segment files against concurrent reads.
+ */
+public class ExpenseArchive implements Closeable {
+    static final Comparator<Expense> DATE_ORDER = Comparator.comparing(Expense::getDate).thenComparing(Expense::getId);
+
+    private static final String SUFFIX = ".seg";
+    private static final LongAdder BLOCKS_READ = Metrics.global().counter(
+            "expense_archive_blocks_read_total", "Sealed blocks decompressed to answer a query");
+    private static final LongAdder BYTES_WRITTEN = Metrics.global().counter(
+            "expense_archive_bytes_written_total", "Bytes written to sealed segments");
+
+    /**
+     * A month's new segment, written to a temporary file but not yet in use.
+     */
+    static final class PendingSegment {
+        final YearMonth month;
+        private final SealedSegment old;
+        private final File tmp;
+
+        private PendingSegment(YearMonth month, SealedSegment old, File tmp) {
+            this.month = month;
+            this.old = old;
+            this.tmp = tmp;
+        }
+    }
+
+    private final File dir;
+    private final NavigableMap<YearMonth, SealedSegment> segments = new ConcurrentSkipListMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();  // reads vs. swapping a segment
+
+    /**
+     * Opens every segment in a directory. Segments that cannot be read are renamed
+     * to {@code *.corrupt}, so sealing new rows into their month cannot replace them.
+     *
+     * @param dir Directory holding the segments; created when first written.
+     */
+    ExpenseArchive(File dir) {
+        this.dir = dir;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX + ".tmp")) {
+                file.delete();  // left by an interrupted rewrite
+            } else if (file.getName().endsWith(SUFFIX)) {
+                try {
+                    SealedSegment segment = SealedSegment.open(file);
+                    segments.put(segment.getMonth(), segment);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error opening sealed segment " + file.getName() + ": " + e.getMessage());
+                    if (!file.renameTo(new File(file.getPath() + ".corrupt"))) {
+                        System.err.println("Could not set aside " + file.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of sealed expenses.
+     */
+    public long size() {
+        long size = 0;
+        for (SealedSegment segment : segments.values()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return Number of sealed months.
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @param userId The user.
+     * @return true if the user has sealed expenses.
+     */
+    boolean hasUser(String userId) {
+        for (SealedSegment segment : segments.values()) {
+            if (segment.block(userId) != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param userIds Receives the ID of every user with sealed expenses.
+     */
+    void collectUserIds(Collection<String> userIds) {
+        for (SealedSegment segment : segments.values()) {
+            for (SealedSegment.Block block : segment.blocks()) {
+                userIds.add(block.userId);
+            }
+        }
+    }
+
+    /**
+     * @param userId The user.
+     * @return Number of the user's sealed expenses.
+     */
+    int countByUser(String userId) {
+        int count = 0;
+        for (SealedSegment segment : segments.values()) {
+            SealedSegment.Block block = segment.block(userId);
+            if (block != null) count += block.rows;
+        }
+        return count;
+    }
+
+    /**
+     * Adds a user's sealed spending per category to a map of totals, from the
+     * stored block totals only.
+     *
+     * @param userId The user.
+     * @param month  The month, or null for all sealed months.
+     * @param totals Receives amounts in cents, merged by category.
+     */
+    void addCategoryTotals(String userId, YearMonth month, Map<String, Long> totals) {
+        Collection<SealedSegment> selected = month == null ? segments.values()
+                : segments.containsKey(month) ? Collections.singleton(segments.get(month)) : Collections.emptySet();
+        for (SealedSegment segment : selected) {
+            SealedSegment.Block block = segment.block(userId);
+            if (block == null) continue;
+            for (int g = 0; g < block.groupCount(); g++) {
+                totals.merge(block.groupCategories[g], block.sum(g), Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Reads a user's sealed expenses dated within a window.
+     *
+     * @param userId The user.
+     * @param from   First day (inclusive), or null for no lower bound.
+     * @param to     Last day (inclusive), or null for no upper bound.
+     * @return Matching expenses in (date, id) order.
+     * @throws UncheckedIOException if a block cannot be read.
+     */
+    List<Expense> find(String userId, LocalDate from, LocalDate to) {
+        List<Expense> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (SealedSegment segment : window(from, to)) {
+                for (Expense e : read(segment, userId)) {
+                    if ((from == null || !e.getDate().isBefore(from)) && (to == null || !e.getDate().isAfter(to))) {
+                        result.add(e);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Reads a user's sealed expenses following a (date, id) position, month by month
+     * until enough are found.
+     *
+     * @param userId The user.
+     * @param date   Date of the last expense already seen, or null to start from the beginning.
+     * @param id     ID of the last expense already seen; ignored when {@code date} is null.
+     * @param limit  Maximum number of expenses to return.
+     * @return Expenses strictly after the position, in (date, id) order.
+     */
+    List<Expense> findAfter(String userId, LocalDate date, String id, int limit) {
+        List<Expense> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (SealedSegment segment : window(date, null)) {
+                if (segment.block(userId) == null) continue;
+                for (Expense e : read(segment, userId)) {
+                    int c = date == null ? 1 : e.getDate().compareTo(date);
+                    if (c > 0 || (c == 0 && e.getId().compareTo(id) > 0)) {
+                        result.add(e);
+                        if (result.size() == limit) return result;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Reads one page of a user's sealed expenses in (date, id) order. Whole months
+     * before the page are skipped by their row counts without being read.
+     *
+     * @param userId The user.
+     * @param offset Number of sealed expenses to skip.
+     * @param limit  Maximum page size.
+     * @return The page.
+     */
+    List<Expense> findPage(String userId, int offset, int limit) {
+        List<Expense> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (SealedSegment segment : segments.values()) {
+                SealedSegment.Block block = segment.block(userId);
+                if (block == null) continue;
+                if (offset >= block.rows) {
+                    offset -= block.rows;
+                    continue;
+                }
+                List<Expense> rows = read(segment, userId);
+                int end = Math.min(rows.size(), offset + limit - result.size());
+                result.addAll(rows.subList(offset, end));
+                offset = 0;
+                if (result.size() == limit) break;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Finds the sealed month holding an expense, reading the user's blocks newest first.
+     *
+     * @param userId    The owner.
+     * @param expenseId The expense.
+     * @return The month, or null if the expense is not sealed.
+     */
+    YearMonth locate(String userId, String expenseId) {
+        lock.readLock().lock();
+        try {
+            for (SealedSegment segment : segments.descendingMap().values()) {
+                if (segment.block(userId) == null) continue;
+                for (Expense e : read(segment, userId)) {
+                    if (e.getId().equals(expenseId)) return segment.getMonth();
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId The owner.
+     * @param month  The month the expense is dated in.
+     * @param id     The expense ID.
+     * @return true if the expense is sealed in that month.
+     */
+    boolean contains(String userId, YearMonth month, String id) {
+        lock.readLock().lock();
+        try {
+            SealedSegment segment = segments.get(month);
+            if (segment == null || segment.block(userId) == null) return false;
+            for (Expense e : read(segment, userId)) {
+                if (e.getId().equals(id)) return true;
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a user's block for one month.
+     *
+     * @return The rows in (date, id) order; empty if there is no block.
+     */
+    List<Expense> read(String userId, YearMonth month) {
+        lock.readLock().lock();
+        try {
+            SealedSegment segment = segments.get(month);
+            return segment == null ? new ArrayList<>() : read(segment, userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every sealed expense, month by month.
+     *
+     * @param action The visitor.
+     */
+    void forEach(Consumer<Expense> action) {
+        lock.readLock().lock();
+        try {
+            for (SealedSegment segment : segments.values()) {
+                for (SealedSegment.Block block : segment.blocks()) {
+                    read(segment, block.userId).forEach(action);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregates a grouped report over the sealed months in the query's window.
+     * A month wholly inside the window contributes its stored block totals when
+     * the query needs no percentiles and groups by month or not by time at all;
+     * otherwise its blocks are read row by row.
+     *
+     * @param query The report.
+     * @return Partial groups, mergeable with {@link GroupAggregator#merge}.
+     */
+    Map<GroupAggregator.Key, GroupAggregator.Stats> aggregate(ReportQuery query) {
+        GroupAggregator aggregator = new GroupAggregator(query);
+        Set<String> userIds = query.getUserIds();
+        lock.readLock().lock();
+        try {
+            for (SealedSegment segment : window(query.getFrom(), query.getTo())) {
+                LocalDate first = segment.getMonth().atDay(1);
+                boolean useTotals = aggregator.canUseTotals(first, segment.getMonth().atEndOfMonth());
+                Collection<SealedSegment.Block> blocks;
+                if (userIds == null) {
+                    blocks = segment.blocks();
+                } else {
+                    blocks = new ArrayList<>();
+                    for (String userId : userIds) {
+                        SealedSegment.Block block = segment.block(userId);
+                        if (block != null) blocks.add(block);
+                    }
+                }
+                for (SealedSegment.Block block : blocks) {
+                    if (useTotals) {
+                        for (int g = 0; g < block.groupCount(); g++) {
+                            aggregator.visitTotals(block.userId, (int) first.toEpochDay(), block.groupCategories[g],
+                                    block.count(g), block.sum(g), block.min(g), block.max(g));
+                        }
+                    } else {
+                        for (Expense e : read(segment, block.userId)) {
+                            aggregator.visit(e.getUserId(), (int) e.getDate().toEpochDay(), e.getCategory(),
+                                    e.getAmountCents());
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return aggregator.result();
+    }
+
+    /**
+     * Writes the segment that seals rows into a month, without using it yet. Each
+     * user's rows are merged with their existing block for the month, if any; a row
+     * replaces a sealed row with the same ID.
+     *
+     * @param month      The month every row is dated in.
+     * @param rowsByUser The rows, by owner.
+     * @return The new segment, to be passed to {@link #install} or {@link #discard}.
+     * @throws IOException if the new segment cannot be written.
+     */
+    synchronized PendingSegment prepareSeal(YearMonth month, Map<String, List<Expense>> rowsByUser)
+            throws IOException {
+        SealedSegment old = segments.get(month);
+        List<SealedSegment.Block> blocks = new ArrayList<>();
+        for (Map.Entry<String, List<Expense>> entry : rowsByUser.entrySet()) {
+            List<Expense> rows = entry.getValue();
+            if (old != null && old.block(entry.getKey()) != null) {
+                Map<String, Expense> merged = new HashMap<>();
+                for (Expense e : read(old, entry.getKey())) {
+                    merged.put(e.getId(), e);
+                }
+                for (Expense e : rows) {
+                    merged.put(e.getId(), e);
+                }
+                rows = new ArrayList<>(merged.values());
+            } else {
+                rows = new ArrayList<>(rows);
+            }
+            blocks.add(SealedSegment.encode(entry.getKey(), rows));
+        }
+        return new PendingSegment(month, old, writeTemp(month, old, blocks, rowsByUser.keySet()));
+    }
+
+    /**
+     * Puts a prepared segment in place of the month's current one.
+     *
+     * @param pending From {@link #prepareSeal}.
+     * @throws IOException if the month changed since it was prepared, or the file cannot
+     *                     be renamed; the old segment is kept.
+     */
+    synchronized void install(PendingSegment pending) throws IOException {
+        if (segments.get(pending.month) != pending.old) {
+            discard(pending);
+            throw new IOException("Sealed segment " + pending.month + " changed while sealing");
+        }
+        swap(pending.month, pending.old, pending.tmp);
+    }
+
+    /**
+     * Drops a prepared segment.
+     *
+     * @param pending From {@link #prepareSeal}.
+     */
+    void discard(PendingSegment pending) {
+        pending.tmp.delete();
+    }
+
+    /**
+     * Drops a user's block from a month, e.g. once its rows are back in the hot store.
+     *
+     * @param userId The user.
+     * @param month  The month.
+     * @throws IOException if the new segment cannot be written; the old one is kept.
+     */
+    synchronized void remove(String userId, YearMonth month) throws IOException {
+        SealedSegment old = segments.get(month);
+        if (old == null || old.block(userId) == null) return;
+        swap(month, old, writeTemp(month, old, new ArrayList<>(), Collections.singleton(userId)));
+    }
+
+    /**
+     * Closes every segment.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (SealedSegment segment : segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing sealed segment: " + e.getMessage());
+                }
+            }
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a month's new segment to a temporary file from fresh blocks plus the
+     * old segment's blocks of every user not being replaced.
+     *
+     * @return The file, or null if no block is left.
+     */
+    private File writeTemp(YearMonth month, SealedSegment old, List<SealedSegment.Block> blocks,
+                           Set<String> replaced) throws IOException {
+        if (old != null) {
+            for (SealedSegment.Block block : old.blocks()) {
+                if (replaced.contains(block.userId)) continue;
+                SealedSegment.Block copy = new SealedSegment.Block(block.userId, block.rows, block.rawLength,
+                        block.checksum, block.groupCategories, block.groupTotals);
+                copy.data = old.readCompressed(block);
+                copy.length = copy.data.length;
+                blocks.add(copy);
+            }
+        }
+
+        if (blocks.isEmpty()) return null;
+        dir.mkdirs();
+        File tmp = new File(dir, month + SUFFIX + ".tmp");
+        try {
+            BYTES_WRITTEN.add(SealedSegment.write(tmp, month, blocks));
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        return tmp;
+    }
+
+    /**
+     * Renames a month's new segment over the old one and opens it, or deletes the
+     * month's segment if {@code tmp} is null.
+     */
+    private void swap(YearMonth month, SealedSegment old, File tmp) throws IOException {
+        File file = new File(dir, month + SUFFIX);
+        if (tmp == null) {
+            lock.writeLock().lock();
+            try {
+                Files.deleteIfExists(file.toPath());
+                segments.remove(month);
+                old.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (old != null) {
+                old.close();  // released before the rename, which some platforms refuse on an open file
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                tmp.delete();
+                if (old != null) {
+                    segments.put(month, SealedSegment.open(file));
+                }
+                throw e;
+            }
+            segments.put(month, SealedSegment.open(file));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Segments of the months overlapping a window, oldest first.
+     */
+    private Collection<SealedSegment> window(LocalDate from, LocalDate to) {
+        if (from == null && to == null) return segments.values();
+        YearMonth first = from == null ? segments.isEmpty() ? null : segments.firstKey() : YearMonth.from(from);
+        YearMonth last = to == null ? segments.isEmpty() ? null : segments.lastKey() : YearMonth.from(to);
+        if (first == null || last == null || first.isAfter(last)) return Collections.emptyList();
+        return segments.subMap(first, true, last, true).values();
+    }
+
+    /**
+     * Reads a block; the caller holds the read lock.
+     *
+     * @throws UncheckedIOException if the block cannot be read or is damaged.
+     */
+    private static List<Expense> read(SealedSegment segment, String userId) {
+        if (segment.block(userId) == null) return new ArrayList<>();
+        try {
+            BLOCKS_READ.increment();
+            return segment.read(userId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(new IOException("Error reading sealed expenses: " + e.getMessage(), e));
+        }
+    }
+}
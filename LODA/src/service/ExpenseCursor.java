@@ -0,0 +1,40 @@
+package service;
+
+import model.Expense;
+
+import java.time.LocalDate;
+
+/**
+ * Position in a user's expenses ordered by (date, id), used for keyset paging.
+ * A cursor stays valid when expenses before or after it are added or deleted.
+ */
+public class ExpenseCursor {
+    private final LocalDate date;
+    private final String expenseId;
+
+    public ExpenseCursor(LocalDate date, String expenseId) {
+        this.date = date;
+        this.expenseId = expenseId;
+    }
+
+    /**
+     * @param expense The last expense already seen.
+     * @return A cursor positioned just after it.
+     */
+    public static ExpenseCursor after(Expense expense) {
+        return new ExpenseCursor(expense.getDate(), expense.getId());
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getExpenseId() {
+        return expenseId;
+    }
+
+    @Override
+    public String toString() {
+        return date + "/" + expenseId;
+    }
+}
@@ -0,0 +1,229 @@
+package service;
+
+import model.Expense;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user index of expense IDs sorted by date, for O(log n + k) date-range lookups.
+ * Expenses on the same day are ordered by ID, so (date, id) is a stable keyset
+ * for paging.
+ * <p>
+ * Each user's entries are parallel sorted arrays: the epoch day as an int and the
+ * expense UUID as two longs, 20 bytes per expense. For canonical UUID strings,
+ * ordering the two longs unsigned matches ordering the strings. IDs that are not
+ * canonical UUIDs are kept as strings in a column that is only allocated once one
+ * turns up. An add or remove shifts the later entries of that user only.
+ * <p>
+ * Per-user state is only touched under that user's partition lock in
+ * {@link ExpenseManager}; the top-level map is concurrent.
+ */
+public class ExpenseDateIndex implements ExpenseListener {
+    private final Map<String, Entries> byUser = new ConcurrentHashMap<>();
+
+    @Override
+    public void onAdded(Expense expense) {
+        byUser.computeIfAbsent(expense.getUserId(), k -> new Entries())
+                .add((int) expense.getDate().toEpochDay(), expense.getId());
+    }
+
+    @Override
+    public void onUpdated(Expense before, Expense after) {
+        if (before.getDate().equals(after.getDate()) && before.getUserId().equals(after.getUserId())) {
+            return;
+        }
+        onRemoved(before);
+        onAdded(after);
+    }
+
+    @Override
+    public void onRemoved(Expense expense) {
+        Entries entries = byUser.get(expense.getUserId());
+        if (entries == null) return;
+        entries.remove((int) expense.getDate().toEpochDay(), expense.getId());
+        if (entries.count == 0) {
+            byUser.remove(expense.getUserId());
+        }
+    }
+
+    /**
+     * Finds a user's expense IDs dated within a window.
+     *
+     * @param userId The user.
+     * @param from   First day of the window (inclusive).
+     * @param to     Last day of the window (inclusive).
+     * @return Matching IDs ordered by date.
+     */
+    public List<String> findIds(String userId, LocalDate from, LocalDate to) {
+        List<String> result = new ArrayList<>();
+        Entries entries = byUser.get(userId);
+        if (entries == null || from.isAfter(to)) {
+            return result;
+        }
+        int end = entries.firstAfter((int) to.toEpochDay());
+        for (int i = entries.firstAfter((int) from.toEpochDay() - 1); i < end; i++) {
+            result.add(entries.idAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the next page of a user's expense IDs in (date, id) order.
+     *
+     * @param userId The user.
+     * @param date   Date of the last ID already seen, or null to start from the beginning.
+     * @param id     The last ID already seen; ignored when {@code date} is null.
+     * @param limit  Maximum number of IDs to return.
+     * @return IDs strictly after the given position.
+     */
+    public List<String> findIdsAfter(String userId, LocalDate date, String id, int limit) {
+        List<String> result = new ArrayList<>();
+        Entries entries = byUser.get(userId);
+        if (entries == null || limit <= 0) {
+            return result;
+        }
+        int start = 0;
+        if (date != null) {
+            int found = entries.search((int) date.toEpochDay(), id);
+            start = found >= 0 ? found + 1 : -found - 1;
+        }
+        for (int i = start; i < entries.count && result.size() < limit; i++) {
+            result.add(entries.idAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * One user's entries, sorted by (day, id).
+     */
+    private static class Entries {
+        int[] days = new int[4];
+        long[] idHi = new long[4];
+        long[] idLo = new long[4];
+        String[] otherIds; // non-UUID IDs by position; null while there are none
+        int count;
+
+        void add(int day, String id) {
+            int found = search(day, id);
+            if (found >= 0) return;
+            int at = -found - 1;
+            if (count == days.length) {
+                resize(Math.max(4, count + (count >> 1)));
+            }
+            System.arraycopy(days, at, days, at + 1, count - at);
+            System.arraycopy(idHi, at, idHi, at + 1, count - at);
+            System.arraycopy(idLo, at, idLo, at + 1, count - at);
+            UUID uuid = parseUuid(id);
+            if (uuid == null && otherIds == null) {
+                otherIds = new String[days.length];
+            }
+            if (otherIds != null) {
+                System.arraycopy(otherIds, at, otherIds, at + 1, count - at);
+                otherIds[at] = uuid == null ? id : null;
+            }
+            days[at] = day;
+            idHi[at] = uuid == null ? 0 : uuid.getMostSignificantBits();
+            idLo[at] = uuid == null ? 0 : uuid.getLeastSignificantBits();
+            count++;
+        }
+
+        void remove(int day, String id) {
+            int at = search(day, id);
+            if (at < 0) return;
+            count--;
+            System.arraycopy(days, at + 1, days, at, count - at);
+            System.arraycopy(idHi, at + 1, idHi, at, count - at);
+            System.arraycopy(idLo, at + 1, idLo, at, count - at);
+            if (otherIds != null) {
+                System.arraycopy(otherIds, at + 1, otherIds, at, count - at);
+                otherIds[count] = null;
+            }
+            if (days.length > 16 && count < days.length / 4) {
+                resize(Math.max(4, count * 2));
+            }
+        }
+
+        /**
+         * @return Position of the entry, or (-(insertion point) - 1) if absent.
+         */
+        int search(int day, String id) {
+            UUID uuid = parseUuid(id);
+            long hi = uuid == null ? 0 : uuid.getMostSignificantBits();
+            long lo = uuid == null ? 0 : uuid.getLeastSignificantBits();
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = Integer.compare(days[mid], day);
+                if (c == 0) {
+                    if (uuid != null && (otherIds == null || otherIds[mid] == null)) {
+                        c = Long.compareUnsigned(idHi[mid], hi);
+                        if (c == 0) c = Long.compareUnsigned(idLo[mid], lo);
+                    } else {
+                        c = idAt(mid).compareTo(id);
+                    }
+                }
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * @return Position of the first entry dated after the given day.
+         */
+        int firstAfter(int day) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (days[mid] <= day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        String idAt(int i) {
+            if (otherIds != null && otherIds[i] != null) {
+                return otherIds[i];
+            }
+            return new UUID(idHi[i], idLo[i]).toString();
+        }
+
+        private void resize(int capacity) {
+            days = Arrays.copyOf(days, capacity);
+            idHi = Arrays.copyOf(idHi, capacity);
+            idLo = Arrays.copyOf(idLo, capacity);
+            if (otherIds != null) {
+                otherIds = Arrays.copyOf(otherIds, capacity);
+            }
+        }
+    }
+
+    /**
+     * @return The ID as a UUID, or null unless it is a canonical UUID string.
+     */
+    static UUID parseUuid(String id) {
+        if (id.length() != 36) return null;
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package service;
+
+import java.time.LocalDate;
+
+/**
+ * The user-supplied fields of an expense that has not been stored yet,
+ * used for bulk imports. IDs and ownership are assigned by {@link ExpenseManager}.
+ */
+public class ExpenseDraft {
+    private final LocalDate date;
+    private final String category;
+    private final long amountCents;
+    private final String description;
+
+    /**
+     * @param date        Date of the expense.
+     * @param category    Category.
+     * @param amountCents Amount in cents.
+     * @param description Description.
+     */
+    public ExpenseDraft(LocalDate date, String category, long amountCents, String description) {
+        this.date = date;
+        this.category = category;
+        this.amountCents = amountCents;
+        this.description = description;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
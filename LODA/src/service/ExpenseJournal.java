@@ -0,0 +1,302 @@
+package service;
+
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of expense mutations.
+ * Each line is one record: a CRC32 of the rest of the line, an operation code and its payload.
+ * <ul>
+ *     <li>{@code #<crc>,A,<expense row>} - expense added</li>
+ *     <li>{@code #<crc>,E,<expense row>} - expense edited</li>
+ *     <li>{@code #<crc>,D,<expense id>,<user id>} - expense deleted (older journals omit the user id)</li>
+ * </ul>
+ * The checksum is eight hex digits over the UTF-8 bytes of {@code <op>,<payload>}.
+ * Older journals have no checksum column; such lines are still replayed.
+ * <p>
+ * Records are flushed to the OS on every append; fsync is batched (group commit).
+ * A record torn by a crash mid-append is cut off when the journal is next opened,
+ * so new records never run on from a partial line, and records whose checksum does
+ * not match are skipped on replay.
+ */
+public class ExpenseJournal implements Closeable {
+    public static final char ADD = 'A';
+    public static final char EDIT = 'E';
+    public static final char DELETE = 'D';
+
+    private static final LongAdder RECORDS_WRITTEN = Metrics.global().counter(
+            "expense_journal_records_total", "Records appended to the expense journal");
+    private static final LongAdder BYTES_WRITTEN = Metrics.global().counter(
+            "expense_journal_bytes_total", "Bytes appended to the expense journal");
+    private static final LatencyHistogram SYNC_SECONDS = Metrics.global().histogram(
+            "expense_journal_fsync_seconds", "Time per journal fsync (one per group commit)");
+
+    /**
+     * Callback used when replaying the journal.
+     */
+    public interface Handler {
+        void apply(char op, String payload);
+    }
+
+    private final File file;
+    private final int syncBatch;
+    private FileOutputStream out;
+    private BufferedWriter writer;
+    private int pending;   // records written since the last fsync
+    private long records;  // records currently held in the journal file
+    private ScheduledExecutorService syncTimer;
+
+    /**
+     * Opens (or creates) a journal file for appending.
+     *
+     * @param path               Path of the journal file.
+     * @param syncBatch          Number of records per fsync; 1 syncs every record, 0 leaves it to the timer.
+     * @param syncIntervalMillis Interval for flushing a partial batch; 0 disables the timer.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ExpenseJournal(String path, int syncBatch, long syncIntervalMillis) throws IOException {
+        this.file = new File(path);
+        this.syncBatch = syncBatch;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        this.records = recover(file);
+        open();
+
+        if (syncIntervalMillis > 0) {
+            syncTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "expense-journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncTimer.scheduleWithFixedDelay(this::syncQuietly,
+                    syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Appends one record to the journal.
+     *
+     * @param op      Operation code ({@link #ADD}, {@link #EDIT} or {@link #DELETE}).
+     * @param payload Expense row for add/edit, expense and user id for delete.
+     * @throws IOException if the write fails.
+     */
+    public synchronized void append(char op, String payload) throws IOException {
+        write(op, payload);
+        writer.flush();
+        records++;
+        pending++;
+        if (syncBatch > 0 && pending >= syncBatch) {
+            sync();
+        }
+    }
+
+    /**
+     * Appends several records of the same kind with a single flush.
+     *
+     * @param op       Operation code.
+     * @param payloads One payload per record.
+     * @throws IOException if the write fails.
+     */
+    public synchronized void appendAll(char op, List<String> payloads) throws IOException {
+        if (payloads.isEmpty()) return;
+        for (String payload : payloads) {
+            write(op, payload);
+        }
+        writer.flush();
+        records += payloads.size();
+        pending += payloads.size();
+        if (syncBatch > 0 && pending >= syncBatch) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces all appended records to stable storage.
+     *
+     * @throws IOException if the sync fails.
+     */
+    public synchronized void sync() throws IOException {
+        if (pending == 0) return;
+        long start = System.nanoTime();
+        writer.flush();
+        out.getFD().sync();
+        pending = 0;
+        SYNC_SECONDS.recordSince(start);
+    }
+
+    /**
+     * @return Number of records currently held in the journal.
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return Current journal length in bytes; used as a compaction mark.
+     * @throws IOException if the length cannot be read.
+     */
+    public synchronized long length() throws IOException {
+        writer.flush();
+        return out.getChannel().size();
+    }
+
+    /**
+     * Drops every record before {@code mark} once it has been folded into a snapshot.
+     * Records appended after the mark are kept.
+     *
+     * @param mark        Byte offset returned by {@link #length()} when the snapshot was taken.
+     * @param markRecords Record count at the time the mark was taken.
+     * @throws IOException if the journal cannot be rewritten.
+     */
+    public synchronized void discardBefore(long mark, long markRecords) throws IOException {
+        sync();
+        writer.close();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = src.size();
+            long position = mark;
+            while (position < size) {
+                position += src.transferTo(position, size - position, dst);
+            }
+            dst.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        records -= markRecords;
+        open();
+    }
+
+    /**
+     * Replays every intact record of a journal file.
+     * A torn trailing record (e.g. from a crash mid-append) is ignored, as is any
+     * record whose checksum does not match; the number skipped is reported.
+     *
+     * @param path    Path of the journal file.
+     * @param handler Receives each record in order.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void replay(String path, Handler handler) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) return;
+
+        int skipped = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int start = 0;
+                if (line.startsWith("#")) {
+                    if (line.length() < 10 || line.charAt(9) != ',' || !checksumMatches(line)) {
+                        skipped++;
+                        continue;
+                    }
+                    start = 10;
+                }
+                if (line.length() < start + 2 || line.charAt(start + 1) != ',') continue;
+                handler.apply(line.charAt(start), line.substring(start + 2));
+            }
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " damaged record(s) in " + path);
+        }
+    }
+
+    private static boolean checksumMatches(String line) {
+        try {
+            return (int) Long.parseLong(line.substring(1, 9), 16) == checksum(line.substring(10));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int checksum(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+
+    private void write(char op, String payload) throws IOException {
+        String record = op + "," + payload;
+        String crc = Integer.toHexString(checksum(record));
+        writer.write('#');
+        for (int i = crc.length(); i < 8; i++) {
+            writer.write('0');
+        }
+        writer.write(crc);
+        writer.write(',');
+        writer.write(record);
+        writer.newLine();
+        RECORDS_WRITTEN.increment();
+        BYTES_WRITTEN.add(10 + record.length() + 1);  // checksum column, record, newline (ASCII rows)
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncTimer != null) {
+            syncTimer.shutdownNow();
+        }
+        sync();
+        writer.close();
+    }
+
+    private void open() throws IOException {
+        out = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        pending = 0;
+    }
+
+    private synchronized void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Error syncing expense journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts the complete records of a journal file and truncates a torn trailing
+     * record, i.e. anything after the last newline.
+     */
+    private static long recover(File file) throws IOException {
+        if (!file.exists()) return 0;
+        long count = 0;
+        long end = 0;
+        long position = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == '\n') {
+                        count++;
+                        end = position + i + 1;
+                    }
+                }
+                position += n;
+            }
+        }
+        if (end < position) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            System.err.println("Truncated a torn record at the end of " + file.getPath());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,58 @@
+package service;
+
+import model.Expense;
+
+/**
+ * Receives expense mutations from {@link ExpenseManager}, used to keep derived
+ * structures (aggregates, indexes) up to date incrementally.
+ * <p>
+ * Calls for one user are serialized by that user's partition lock; calls for
+ * users in different partitions may arrive concurrently.
+ * <p>
+ * When partitions are loaded lazily, {@link #onLoaded} and {@link #onEvicted}
+ * report expenses entering and leaving memory. By default they are treated as
+ * adds and removes, so in-memory indexes track exactly the resident expenses;
+ * listeners that record mutations rather than state should override them.
+ */
+public interface ExpenseListener {
+
+    /**
+     * Called after an expense is added.
+     *
+     * @param expense The new expense.
+     */
+    void onAdded(Expense expense);
+
+    /**
+     * Called after an expense is edited.
+     *
+     * @param before The expense before the edit.
+     * @param after  The expense after the edit.
+     */
+    void onUpdated(Expense before, Expense after);
+
+    /**
+     * Called after an expense is deleted.
+     *
+     * @param expense The deleted expense.
+     */
+    void onRemoved(Expense expense);
+
+    /**
+     * Called when a stored expense is loaded into memory.
+     *
+     * @param expense The loaded expense.
+     */
+    default void onLoaded(Expense expense) {
+        onAdded(expense);
+    }
+
+    /**
+     * Called when a stored expense is dropped from memory; it remains on disk.
+     *
+     * @param expense The evicted expense.
+     */
+    default void onEvicted(Expense expense) {
+        onRemoved(expense);
+    }
+}
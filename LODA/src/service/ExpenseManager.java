@@ -2,25 +2,310 @@ package service;
 
 import model.Expense;
 import model.User;
+import util.InputValidator;
+import util.LatencyHistogram;
+import util.Metrics;
+import util.Money;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Manages expense operations (CRUD) and persistence.
+ * <p>
+ * In journal mode (the default) each mutation appends a single record to
+ * {@code data/expenses.journal}; the journal is periodically compacted into the
+ * memory-mapped binary snapshot {@code data/expenses.bin} on a background thread.
+ * Without journal mode the whole CSV file is rewritten after mutations by a
+ * background writer; a burst of mutations is coalesced into a single save.
+ * Every full save goes to a temporary file that is fsynced and atomically
+ * renamed over the previous one, so a crash leaves either the old or the new file.
+ * On startup the newer of the binary snapshot and the CSV file is loaded, then
+ * the journal is replayed; CSV remains the import/export format.
+ * <p>
+ * Expenses are held in {@link ExpenseStore}s indexed by ID and by owning user,
+ * so lookups, edits and deletes are O(1) and listing a user's expenses costs O(k)
+ * in their count. {@link ColumnarExpenseStore} trades per-read materialization
+ * for a much smaller heap footprint.
+ * <p>
+ * The manager is safe for concurrent use. Users are hashed onto a fixed number of
+ * partitions, each with its own store and read-write lock, so readers never block
+ * each other and writers only contend with sessions that share a partition.
+ * Unless segmented, grouped reports read a point-in-time snapshot of an
+ * {@link ExpenseVersions} log instead, taking no partition locks at all.
+ * <p>
+ * Derived structures register as {@link ExpenseListener}s and are updated on every
+ * add, edit and delete; per-category totals are kept this way by {@link ExpenseAggregates}.
+ * Full-text search uses an {@link ExpenseSearchIndex}, saved to {@code data/search.idx}
+ * on close and reloaded on the next start if the expense files are unchanged.
+ * <p>
+ * With a memory budget the manager switches to a segmented layout: each user-hash
+ * partition is stored in its own file under {@code data/segments/}, loaded on first
+ * access and evicted least-recently-used first once the resident expenses exceed the
+ * budget (see {@link PartitionCache}). The journal is folded into the segments on
+ * startup, and existing {@code expenses.bin}/{@code expenses.csv} data is migrated
+ * into segments the first time.
+ * <p>
+ * With a hot window (the default for {@link #ExpenseManager()}: the last 12 months),
+ * expenses dated before it are sealed into compressed per-month segments under
+ * {@code data/archive/} (see {@link ExpenseArchive}) at startup and whenever a month
+ * leaves the window, and the hot files are rewritten without them. Sealed expenses
+ * are read back on demand for listings, searches and reports, and their stored
+ * per-category totals answer category totals without reading them. Editing or
+ * deleting a sealed expense first moves its user's block for that month back into
+ * the hot store, where it stays until the next seal.
  */
-public class ExpenseManager {
-    private static final String EXPENSE_FILE = "data/expenses.csv";
-    private List<Expense> allExpenses;
+public class ExpenseManager implements Closeable {
+    private static final String DATA_DIR = "data";
+    private static final int JOURNAL_SYNC_BATCH = 32;
+    private static final long JOURNAL_SYNC_INTERVAL_MS = 200;
+    private static final long MIN_COMPACTION_RECORDS = 10_000;
+    private static final int PARTITIONS = 64;
+    private static final int SEGMENTS = 1024;  // partitions in segmented mode; finer units for the cache
+    private static final int STREAM_PAGE_SIZE = 256;
+    private static final int DEFAULT_HOT_MONTHS = 12;
+    private static final int SEAL_ATTEMPTS = 3;
 
+    private static final LatencyHistogram LOAD_SECONDS = Metrics.global().histogram(
+            "expense_load_seconds", "Time to load or open the expense files at startup");
+    private static final LatencyHistogram SAVE_SECONDS = Metrics.global().histogram(
+            "expense_save_seconds", "Time per full save of the expense files");
+    private static final LatencyHistogram COMPACTION_SECONDS = Metrics.global().histogram(
+            "expense_compaction_seconds", "Time to fold the journal into the snapshot or segments");
+    private static final LatencyHistogram LIST_SECONDS = Metrics.global().histogram(
+            "expense_list_seconds", "Time to list or page a user's expenses");
+    private static final LatencyHistogram SEARCH_SECONDS = Metrics.global().histogram(
+            "expense_search_seconds", "Time per full-text expense search");
+    private static final LatencyHistogram MUTATION_SECONDS = Metrics.global().histogram(
+            "expense_mutation_seconds", "Time per add, batch add, edit or delete, including persistence");
+    private static final LatencyHistogram SEAL_SECONDS = Metrics.global().histogram(
+            "expense_seal_seconds", "Time to seal expenses that left the hot window into the archive");
+    private static final LongAdder ROWS_WRITTEN = Metrics.global().counter(
+            "expense_rows_written_total", "Expenses written by full saves, snapshots, segments and exports");
+    private static final LongAdder BYTES_WRITTEN = Metrics.global().counter(
+            "expense_bytes_written_total", "Bytes written by full saves, snapshots, segments and exports");
+
+    /**
+     * A group of users sharing one store and one lock.
+     * In segmented mode {@code store}, {@code resident} and {@code dirty} change under the write lock.
+     */
+    private static class Partition {
+        final int index;
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        volatile ExpenseStore store;
+        boolean resident = true;
+        boolean dirty;    // changed since its segment was last written
+
+        Partition(int index, ExpenseStore store) {
+            this.index = index;
+            this.store = store;
+        }
+    }
+
+    private final String expenseFile;
+    private final String snapshotFile;
+    private final String journalFile;
+    private final String segmentDir;
+    private final File searchFile;
+    private final Supplier<ExpenseStore> storeFactory;
+    private final Partition[] partitions;
+    private final PartitionCache cache;  // null unless segmented
+    private final List<ExpenseListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<ExpenseProjection> projections = new CopyOnWriteArrayList<>();
+    private final ExpenseAggregates aggregates = new ExpenseAggregates();
+    private final ExpenseDateIndex dateIndex = new ExpenseDateIndex();
+    private final ExpenseSearchIndex searchIndex = new ExpenseSearchIndex();
+    private final ExpenseVersions versions;  // null in segmented mode
+    private ExpenseJournal journal;
+    private ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private ExecutorService saver;  // full saves, when not journaled
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+    private volatile boolean saveFailed;
+    private final LongSupplier storeSizeGauge = this::size;
+    private final ExpenseArchive archive;  // null unless sealing or sealed months exist
+    private final int hotMonths;
+    private volatile YearMonth sealedBefore;  // hot window start at the last seal
+    private volatile long archiveEpoch;       // odd while rows move between the tiers
+    private final Object tiersSettled = new Object();  // notified when archiveEpoch turns even
+    private final AtomicBoolean sealPending = new AtomicBoolean(false);
+    private final LongSupplier sealedSizeGauge = this::sealedSize;
+    private final LongSupplier versionCountGauge = this::versionCount;
+
+    /**
+     * Journaled, with expenses older than the last 12 months sealed into the archive.
+     */
     public ExpenseManager() {
-        allExpenses = new ArrayList<>();
-        loadExpenses();
+        this(DATA_DIR, true, IndexedExpenseStore::new, 0, DEFAULT_HOT_MONTHS);
+    }
+
+    /**
+     * @param journaled true to persist mutations through the append-only journal,
+     *                  false to rewrite the CSV file on every mutation.
+     */
+    public ExpenseManager(boolean journaled) {
+        this(journaled, IndexedExpenseStore::new);
+    }
+
+    /**
+     * @param journaled    true to persist mutations through the append-only journal,
+     *                     false to rewrite the CSV file on every mutation.
+     * @param storeFactory Creates the empty backing store of each partition.
+     */
+    public ExpenseManager(boolean journaled, Supplier<ExpenseStore> storeFactory) {
+        this(DATA_DIR, journaled, storeFactory);
+    }
+
+    /**
+     * @param dataDir      Directory holding the expense files.
+     * @param journaled    true to persist mutations through the append-only journal,
+     *                     false to rewrite the CSV file on every mutation.
+     * @param storeFactory Creates the empty backing store of each partition.
+     */
+    public ExpenseManager(String dataDir, boolean journaled, Supplier<ExpenseStore> storeFactory) {
+        this(dataDir, journaled, storeFactory, 0);
+    }
+
+    /**
+     * @param dataDir             Directory holding the expense files.
+     * @param journaled           true to persist mutations through the append-only journal,
+     *                            false to rewrite the changed data on every mutation.
+     * @param storeFactory        Creates the empty backing store of each partition.
+     * @param maxResidentExpenses Memory budget in expenses for the segmented layout, where
+     *                            partitions are loaded on demand and evicted when cold;
+     *                            0 loads everything at startup.
+     */
+    public ExpenseManager(String dataDir, boolean journaled, Supplier<ExpenseStore> storeFactory,
+                          long maxResidentExpenses) {
+        this(dataDir, journaled, storeFactory, maxResidentExpenses, 0);
+    }
+
+    /**
+     * @param dataDir             Directory holding the expense files.
+     * @param journaled           true to persist mutations through the append-only journal,
+     *                            false to rewrite the changed data on every mutation.
+     * @param storeFactory        Creates the empty backing store of each partition.
+     * @param maxResidentExpenses Memory budget in expenses for the segmented layout, where
+     *                            partitions are loaded on demand and evicted when cold;
+     *                            0 loads everything at startup.
+     * @param hotMonths           Number of most recent months, the current one included, kept
+     *                            in the hot store; older expenses are sealed into the archive.
+     *                            0 seals nothing, though months sealed earlier are still read.
+     * @throws IllegalArgumentException if sealing is combined with a memory budget.
+     */
+    public ExpenseManager(String dataDir, boolean journaled, Supplier<ExpenseStore> storeFactory,
+                          long maxResidentExpenses, int hotMonths) {
+        File archiveDir = new File(dataDir, "archive");
+        if (maxResidentExpenses > 0 && (hotMonths > 0 || archiveDir.exists())) {
+            throw new IllegalArgumentException("Sealed months cannot be combined with a memory budget");
+        }
+        this.hotMonths = hotMonths;
+        archive = hotMonths > 0 || archiveDir.exists() ? new ExpenseArchive(archiveDir) : null;
+        expenseFile = dataDir + "/expenses.csv";
+        snapshotFile = dataDir + "/expenses.bin";
+        journalFile = dataDir + "/expenses.journal";
+        segmentDir = dataDir + "/segments";
+        searchFile = new File(dataDir, "search.idx");
+        this.storeFactory = storeFactory;
+        partitions = new Partition[maxResidentExpenses > 0 ? SEGMENTS : PARTITIONS];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i, storeFactory.get());
+        }
+        long start = System.nanoTime();
+        if (maxResidentExpenses > 0) {
+            cache = new PartitionCache(maxResidentExpenses, partitions.length);
+            openSegments();
+        } else {
+            cache = null;
+            loadExpenses();
+        }
+        versions = cache == null ? new ExpenseVersions(partitions.length, this::partitionIndex) : null;
+        LOAD_SECONDS.recordSince(start);
+        if (journaled) {
+            try {
+                journal = new ExpenseJournal(journalFile, JOURNAL_SYNC_BATCH, JOURNAL_SYNC_INTERVAL_MS);
+                compactor = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "expense-compactor");
+                    t.setDaemon(true);
+                    return t;
+                });
+            } catch (IOException e) {
+                System.err.println("Error opening expense journal, falling back to full saves: " + e.getMessage());
+                journal = null;
+            }
+        }
+        if (journal == null) {
+            saver = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "expense-saver");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (hotMonths > 0) {
+            sealColdMonths();
+        }
+        addListener(aggregates);
+        addListener(dateIndex);
+        if (versions != null) {
+            addListener(versions);
+        }
+        // In segmented mode the index follows the resident partitions, like the aggregates.
+        String stamp = cache == null ? dataStamp() : null;
+        if (stamp != null && searchIndex.load(searchFile, stamp)) {
+            listeners.add(searchIndex);
+        } else {
+            addListener(searchIndex);
+        }
+        Metrics.global().gauge("expense_store_size", "Expenses in memory", storeSizeGauge);
+        if (archive != null) {
+            Metrics.global().gauge("expense_sealed_size", "Expenses in sealed segments", sealedSizeGauge);
+        }
+        if (versions != null) {
+            Metrics.global().gauge("expense_version_count",
+                    "Expense versions kept for report snapshots, superseded ones included", versionCountGauge);
+        }
     }
 
     /**
@@ -29,26 +314,383 @@ public class ExpenseManager {
      * @param user        The user adding the expense.
      * @param date        Date of expense.
      * @param category    Category.
-     * @param amount      Amount.
+     * @param amountCents Amount in cents (see {@link util.Money#parse}).
      * @param description Description.
+     * @return true if added, false if a field is invalid (see {@link #addExpenses}).
      */
-    public void addExpense(User user, LocalDate date, String category, double amount, String description) {
+    public boolean addExpense(User user, LocalDate date, String category, long amountCents, String description) {
+        if (validate(date, category, amountCents, description) != null) {
+            return false;
+        }
+        long start = System.nanoTime();
         String id = UUID.randomUUID().toString();
-        Expense expense = new Expense(id, user.getId(), date, category, amount, description);
-        allExpenses.add(expense);
-        saveExpenses();
+        Expense expense = new Expense(id, user.getId(), date, category, amountCents, description);
+        Partition partition = lockWrite(partitionOf(user.getId()));
+        try {
+            partition.store.put(expense);
+            for (ExpenseListener listener : listeners) {
+                listener.onAdded(expense);
+            }
+            journal(ExpenseJournal.ADD, toCsv(expense));
+            changed(partition);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+        afterMutation();
+        MUTATION_SECONDS.recordSince(start);
+        return true;
+    }
+
+    /**
+     * Adds many expenses for a user as one batch: rows are validated, stored and
+     * journaled under a single lock acquisition, and persisted once. Invalid rows
+     * are reported in the result without aborting the batch.
+     *
+     * @param user   The user adding the expenses.
+     * @param drafts The expenses to add.
+     * @return Accepted count and per-row rejections (rows numbered from 1).
+     */
+    public ImportResult addExpenses(User user, Collection<ExpenseDraft> drafts) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult();
+        List<Expense> accepted = new ArrayList<>(drafts.size());
+        int row = 0;
+        for (ExpenseDraft draft : drafts) {
+            row++;
+            String problem = validate(draft);
+            if (problem != null) {
+                result.reject(row, problem);
+                continue;
+            }
+            accepted.add(new Expense(UUID.randomUUID().toString(), user.getId(), draft.getDate(),
+                    draft.getCategory(), draft.getAmountCents(), draft.getDescription()));
+        }
+        if (accepted.isEmpty()) {
+            return result;
+        }
+
+        List<String> rows = new ArrayList<>(accepted.size());
+        Partition partition = lockWrite(partitionOf(user.getId()));
+        try {
+            for (Expense expense : accepted) {
+                partition.store.put(expense);
+                for (ExpenseListener listener : listeners) {
+                    listener.onAdded(expense);
+                }
+                rows.add(toCsv(expense));
+            }
+            if (journal != null) {
+                try {
+                    journal.appendAll(ExpenseJournal.ADD, rows);
+                } catch (IOException e) {
+                    System.err.println("Error writing expense journal: " + e.getMessage());
+                }
+            }
+            changed(partition);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+        result.addAccepted(accepted.size());
+        afterMutation();
+        MUTATION_SECONDS.recordSince(start);
+        return result;
+    }
+
+    /**
+     * Adds a stream of expenses for a user as one batch.
+     *
+     * @param user   The user adding the expenses.
+     * @param drafts The expenses to add.
+     * @return Accepted count and per-row rejections (rows numbered from 1).
+     * @see #addExpenses(User, Collection)
+     */
+    public ImportResult addExpenses(User user, Stream<ExpenseDraft> drafts) {
+        return addExpenses(user, drafts.collect(Collectors.toList()));
     }
 
     /**
-     * Retrieves all expenses for a specific user.
+     * Retrieves all expenses for a specific user: sealed ones first, by date, then
+     * the rest in insertion order.
      *
      * @param user The user.
      * @return List of expenses belonging to the user.
      */
     public List<Expense> getExpensesByUser(User user) {
-        return allExpenses.stream()
-                .filter(e -> e.getUserId().equals(user.getId()))
-                .collect(Collectors.toList());
+        long start = System.nanoTime();
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            List<Expense> expenses = partition.store.findByUser(user.getId());
+            if (archive == null) {
+                return expenses;
+            }
+            List<Expense> all = archive.find(user.getId(), null, null);
+            all.addAll(expenses);
+            return all;
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+            LIST_SECONDS.recordSince(start);
+        }
+    }
+
+    /**
+     * Retrieves one page of a user's expenses in the order of {@link #getExpensesByUser(User)}.
+     * Only the requested page is materialized.
+     *
+     * @param user   The user.
+     * @param offset Number of expenses to skip.
+     * @param limit  Maximum page size.
+     * @return The page, including the user's total expense count.
+     */
+    public ExpensePage getExpensePage(User user, int offset, int limit) {
+        long start = System.nanoTime();
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            int sealed = archive == null ? 0 : archive.countByUser(user.getId());
+            int total = sealed + partition.store.countByUser(user.getId());
+            List<Expense> expenses = offset < sealed ? archive.findPage(user.getId(), offset, limit) : new ArrayList<>();
+            if (expenses.size() < limit) {
+                expenses.addAll(partition.store.findByUser(user.getId(), Math.max(0, offset - sealed),
+                        limit - expenses.size()));
+            }
+            return new ExpensePage(expenses, offset + expenses.size() < total, total);
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+            LIST_SECONDS.recordSince(start);
+        }
+    }
+
+    /**
+     * Retrieves the page of a user's expenses following a cursor, in (date, id) order.
+     * Unlike offset paging, the cost does not grow with the position in the list and
+     * concurrent inserts or deletes do not shift later pages.
+     *
+     * @param user   The user.
+     * @param after  Position of the last expense already seen, or null for the first page.
+     * @param limit  Maximum page size.
+     * @return The page; {@link ExpensePage#nextCursor()} continues from it.
+     */
+    public ExpensePage getExpensesAfter(User user, ExpenseCursor after, int limit) {
+        return getExpensesAfter(user.getId(), after, limit);
+    }
+
+    private ExpensePage getExpensesAfter(String userId, ExpenseCursor after, int limit) {
+        long start = System.nanoTime();
+        Partition partition = lockRead(partitionOf(userId));
+        try {
+            List<String> ids = after == null
+                    ? dateIndex.findIdsAfter(userId, null, null, limit + 1)  // one extra to detect a next page
+                    : dateIndex.findIdsAfter(userId, after.getDate(), after.getExpenseId(), limit + 1);
+            List<Expense> expenses = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                expenses.add(partition.store.get(id));
+            }
+            if (archive != null) {
+                expenses = mergeByDate(expenses, archive.findAfter(userId, after == null ? null : after.getDate(),
+                        after == null ? null : after.getExpenseId(), limit + 1));
+            }
+            boolean hasMore = expenses.size() > limit;
+            if (hasMore) {
+                expenses = new ArrayList<>(expenses.subList(0, limit));
+            }
+            return new ExpensePage(expenses, hasMore, -1);
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+            LIST_SECONDS.recordSince(start);
+        }
+    }
+
+    /**
+     * Streams a user's expenses in (date, id) order without copying the full list.
+     * Expenses are fetched lazily in keyset pages, each under a short read lock, so
+     * the stream is weakly consistent: changes made while it is consumed may or may
+     * not be seen, but no expense is returned twice.
+     *
+     * @param user The user.
+     * @return Lazily populated stream of the user's expenses.
+     */
+    public Stream<Expense> streamExpensesByUser(User user) {
+        return streamExpensesByUser(user.getId());
+    }
+
+    /**
+     * Streams every user's expenses, user by user in ID order, each user's as
+     * {@link #streamExpensesByUser(User)} does. Only the user IDs are collected
+     * up front; in segmented mode every segment is loaded once to find them.
+     *
+     * @return Lazily populated stream of all expenses.
+     */
+    public Stream<Expense> streamAllExpenses() {
+        Set<String> userIds = new TreeSet<>();
+        for (Partition partition : partitions) {
+            lockRead(partition);
+            try {
+                partition.store.forEach(e -> userIds.add(e.getUserId()));
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+            evictCold();
+        }
+        if (archive != null) {
+            archive.collectUserIds(userIds);
+        }
+        // Chained by hand: flatMap buffers a whole inner stream when consumed through an iterator.
+        Iterator<String> users = userIds.iterator();
+        Iterator<Expense> all = new Iterator<Expense>() {
+            private Iterator<Expense> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && users.hasNext()) {
+                    current = expenseIterator(users.next());
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Expense next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(all,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    private Stream<Expense> streamExpensesByUser(String userId) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(expenseIterator(userId),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    /**
+     * Iterates a user's expenses in keyset pages, fetching the first one right away.
+     */
+    private Iterator<Expense> expenseIterator(String userId) {
+        return new Iterator<Expense>() {
+            private ExpensePage page = getExpensesAfter(userId, null, STREAM_PAGE_SIZE);
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == page.getExpenses().size() && page.hasMore()) {
+                    page = getExpensesAfter(userId, page.nextCursor(), STREAM_PAGE_SIZE);
+                    next = 0;
+                }
+                return next < page.getExpenses().size();
+            }
+
+            @Override
+            public Expense next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.getExpenses().get(next++);
+            }
+        };
+    }
+
+    /**
+     * Retrieves a user's expenses dated within a window, ordered by date, including
+     * projected expenses (see {@link #addProjection}).
+     *
+     * @param user The user.
+     * @param from First day of the window (inclusive).
+     * @param to   Last day of the window (inclusive).
+     * @return List of matching expenses.
+     */
+    public List<Expense> getExpensesByUser(User user, LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        List<Expense> result;
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            List<String> ids = dateIndex.findIds(user.getId(), from, to);
+            result = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                result.add(partition.store.get(id));
+            }
+            if (archive != null) {
+                result = mergeByDate(archive.find(user.getId(), from, to), result);
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+        }
+        if (!projections.isEmpty()) {
+            int stored = result.size();
+            for (ExpenseProjection projection : projections) {
+                projection.project(user.getId(), from, to, result::add);
+            }
+            if (result.size() > stored) {
+                result.sort(Comparator.comparing(Expense::getDate).thenComparing(Expense::getId));
+            }
+        }
+        LIST_SECONDS.recordSince(start);
+        return result;
+    }
+
+    /**
+     * Finds a user's expenses whose description or category contains every word
+     * of a query, ignoring case; a word ending in {@code *} matches as a prefix.
+     *
+     * @param user  The user.
+     * @param query The query, e.g. {@code "uber airport"}.
+     * @return Matching expenses ordered by date.
+     */
+    public List<Expense> searchExpenses(User user, String query) {
+        return searchExpenses(user, query, null, null);
+    }
+
+    /**
+     * Finds a user's expenses matching a query within a date window. When the window
+     * holds fewer expenses than the query matches, the window is walked instead.
+     * Sealed expenses are not indexed; those of the months in the window are read
+     * and tested one by one.
+     *
+     * @param user  The user.
+     * @param query The query (see {@link #searchExpenses(User, String)}).
+     * @param from  First day (inclusive), or null for no lower bound.
+     * @param to    Last day (inclusive), or null for no upper bound.
+     * @return Matching expenses ordered by date.
+     */
+    public List<Expense> searchExpenses(User user, String query, LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            Set<String> ids = searchIndex.findIds(user.getId(), query);
+            List<Expense> result = new ArrayList<>();
+            List<String> window = ids.isEmpty() || from == null || to == null ? null
+                    : dateIndex.findIds(user.getId(), from, to);
+            if (window != null && window.size() < ids.size()) {
+                for (String id : window) {
+                    if (ids.contains(id)) {
+                        result.add(partition.store.get(id));
+                    }
+                }
+            } else {
+                for (String id : ids) {
+                    Expense e = partition.store.get(id);
+                    if ((from == null || !e.getDate().isBefore(from)) && (to == null || !e.getDate().isAfter(to))) {
+                        result.add(e);
+                    }
+                }
+                result.sort(ExpenseArchive.DATE_ORDER);
+            }
+            if (archive != null) {
+                Predicate<Expense> matcher = ExpenseSearchIndex.matcher(query);
+                List<Expense> sealed = new ArrayList<>();
+                for (Expense e : archive.find(user.getId(), from, to)) {
+                    if (matcher.test(e)) {
+                        sealed.add(e);
+                    }
+                }
+                result = mergeByDate(sealed, result);
+            }
+            return result;
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+            SEARCH_SECONDS.recordSince(start);
+        }
     }
 
     /**
@@ -58,22 +700,35 @@ public class ExpenseManager {
      * @param user        The owner of the expense.
      * @param date        New date.
      * @param category    New category.
-     * @param amount      New amount.
+     * @param amountCents New amount in cents.
      * @param description New description.
-     * @return true if updated, false if not found or unauthorized.
-     */
-    public boolean editExpense(String expenseId, User user, LocalDate date, String category, double amount, String description) {
-        for (Expense e : allExpenses) {
-            if (e.getId().equals(expenseId) && e.getUserId().equals(user.getId())) {
-                e.setDate(date);
-                e.setCategory(category);
-                e.setAmount(amount);
-                e.setDescription(description);
-                saveExpenses();
-                return true;
+     * @return true if updated, false if not found, unauthorized or a field is invalid.
+     */
+    public boolean editExpense(String expenseId, User user, LocalDate date, String category, long amountCents, String description) {
+        if (validate(date, category, amountCents, description) != null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        thaw(expenseId, user);
+        Partition partition = lockWrite(partitionOf(user.getId()));
+        try {
+            Expense e = findOwned(partition, expenseId, user);
+            if (e == null) {
+                return false;
             }
+            Expense updated = new Expense(e.getId(), e.getUserId(), date, category, amountCents, description);
+            partition.store.put(updated);
+            for (ExpenseListener listener : listeners) {
+                listener.onUpdated(e, updated);
+            }
+            journal(ExpenseJournal.EDIT, toCsv(updated));
+            changed(partition);
+        } finally {
+            partition.lock.writeLock().unlock();
         }
-        return false;
+        afterMutation();
+        MUTATION_SECONDS.recordSince(start);
+        return true;
     }
 
     /**
@@ -84,63 +739,1446 @@ public class ExpenseManager {
      * @return true if deleted, false if not found or unauthorized.
      */
     public boolean deleteExpense(String expenseId, User user) {
-        Iterator<Expense> iterator = allExpenses.iterator();
-        while (iterator.hasNext()) {
-            Expense e = iterator.next();
-            if (e.getId().equals(expenseId) && e.getUserId().equals(user.getId())) {
-                iterator.remove();
-                saveExpenses();
-                return true;
+        long start = System.nanoTime();
+        thaw(expenseId, user);
+        Partition partition = lockWrite(partitionOf(user.getId()));
+        try {
+            Expense e = findOwned(partition, expenseId, user);
+            if (e == null) {
+                return false;
             }
+            partition.store.remove(e.getId());
+            for (ExpenseListener listener : listeners) {
+                listener.onRemoved(e);
+            }
+            journal(ExpenseJournal.DELETE, e.getId() + "," + e.getUserId());
+            changed(partition);
+        } finally {
+            partition.lock.writeLock().unlock();
         }
-        return false;
+        afterMutation();
+        MUTATION_SECONDS.recordSince(start);
+        return true;
     }
 
     /**
-     * Loads expenses from the CSV file.
+     * Registers a listener for expense mutations. The listener is first sent an
+     * {@link ExpenseListener#onAdded} call for every expense already in memory.
+     *
+     * @param listener The listener.
      */
-    private void loadExpenses() {
-        File file = new File(EXPENSE_FILE);
-        if (!file.exists()) return;
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 6) {
-                    Expense expense = new Expense(
-                            parts[0], // id
-                            parts[1], // userId
-                            LocalDate.parse(parts[2]), // date
-                            parts[3], // category
-                            Double.parseDouble(parts[4]), // amount
-                            parts[5]  // description
-                    );
-                    allExpenses.add(expense);
+    public void addListener(ExpenseListener listener) {
+        addListener(listener, false);
+    }
+
+    /**
+     * Registers a listener for expense mutations, optionally replaying the sealed
+     * expenses to it as well, for listeners that record history rather than the
+     * hot state. No seal or thaw runs during the replay.
+     *
+     * @param listener      The listener.
+     * @param includeSealed true to also send an {@link ExpenseListener#onAdded} call
+     *                      for every sealed expense.
+     */
+    synchronized void addListener(ExpenseListener listener, boolean includeSealed) {
+        lockAll();
+        try {
+            for (Partition partition : partitions) {
+                partition.store.forEach(listener::onAdded);
+            }
+            if (includeSealed && archive != null) {
+                archive.forEach(listener::onAdded);
+            }
+            listeners.add(listener);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Registers a source of projected expenses, which are included in date-window
+     * listings ({@link #getExpensesByUser(User, LocalDate, LocalDate)}) and monthly
+     * totals ({@link #getCategoryTotals(User, YearMonth)}) but are not stored.
+     *
+     * @param projection The projection.
+     */
+    public void addProjection(ExpenseProjection projection) {
+        projections.add(projection);
+    }
+
+    /**
+     * Adds an expense with a caller-chosen ID unless one with that ID is already
+     * stored, so a generated expense can be re-added safely after a crash.
+     *
+     * @param expense The expense.
+     * @return true if it was added.
+     */
+    boolean addExpenseIfAbsent(Expense expense) {
+        long start = System.nanoTime();
+        Partition partition = lockWrite(partitionOf(expense.getUserId()));
+        try {
+            if (partition.store.get(expense.getId()) != null || (archive != null
+                    && archive.contains(expense.getUserId(), YearMonth.from(expense.getDate()), expense.getId()))) {
+                return false;
+            }
+            partition.store.put(expense);
+            for (ExpenseListener listener : listeners) {
+                listener.onAdded(expense);
+            }
+            journal(ExpenseJournal.ADD, toCsv(expense));
+            changed(partition);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+        afterMutation();
+        MUTATION_SECONDS.recordSince(start);
+        return true;
+    }
+
+    /**
+     * Gets a user's running totals per category, sealed months included.
+     *
+     * @param user The user.
+     * @return Total spent per category, in cents.
+     */
+    public Map<String, Long> getCategoryTotals(User user) {
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            Map<String, Long> totals = aggregates.getCategoryTotals(user.getId());
+            if (archive != null) {
+                archive.addCategoryTotals(user.getId(), null, totals);
+            }
+            return totals;
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+        }
+    }
+
+    /**
+     * Gets a user's running totals per category for one month, including projected
+     * expenses (see {@link #addProjection}).
+     *
+     * @param user  The user.
+     * @param month The month.
+     * @return Total spent per category in that month, in cents.
+     */
+    public Map<String, Long> getCategoryTotals(User user, YearMonth month) {
+        Map<String, Long> totals;
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            totals = aggregates.getCategoryTotals(user.getId(), month);
+            if (archive != null) {
+                archive.addCategoryTotals(user.getId(), month, totals);
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+            evictCold();
+        }
+        for (ExpenseProjection projection : projections) {
+            projection.project(user.getId(), month.atDay(1), month.atEndOfMonth(),
+                    e -> totals.merge(e.getCategory(), e.getAmountCents(), Long::sum));
+        }
+        return totals;
+    }
+
+    /**
+     * Recomputes the category totals from scratch and compares them with the running ones.
+     * In segmented mode only resident partitions are checked, as only they are aggregated.
+     *
+     * @return true if the incremental aggregates are consistent with the stored expenses.
+     */
+    public boolean verifyAggregates() {
+        lockAll();
+        try {
+            return aggregates.isConsistentWith(snapshot());
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Runs a read-only computation over partitions in parallel on the common
+     * fork-join pool. Each partition's store is visited under its read lock and the
+     * per-partition results are combined pairwise.
+     *
+     * @param userIds Users whose partitions to visit, or null for all partitions.
+     *                Other users sharing those partitions are visited too.
+     * @param task    Computes a partial result from one store; must not modify it.
+     * @param combine Merges two partial results.
+     * @param <R>     Result type.
+     * @return The combined result, or null if no partition was visited.
+     */
+    public <R> R scan(Collection<String> userIds, Function<ExpenseStore, R> task, BinaryOperator<R> combine) {
+        return scanPartitions(userIds, i -> {
+            Partition partition = lockRead(partitions[i]);
+            try {
+                return task.apply(partition.store);
+            } finally {
+                partition.lock.readLock().unlock();
+                evictCold();
+            }
+        }, combine);
+    }
+
+    /**
+     * Runs a grouped report over the hot expenses in parallel, as {@link #scan}
+     * does, and merges in the sealed months. Unless segmented, the hot partitions
+     * are read from one {@link ExpenseVersions} snapshot rather than under their
+     * locks, so the report sees a single point in time and writers carry on
+     * meanwhile. Waits for a seal or thaw that is moving rows between the tiers
+     * to finish, and is run again if one started meanwhile, so no row is counted
+     * twice or missed.
+     *
+     * @param query Grouping, percentiles and filters.
+     * @return Groups by key; empty if nothing matched.
+     */
+    Map<GroupAggregator.Key, GroupAggregator.Stats> aggregate(ReportQuery query) {
+        while (true) {
+            long epoch = awaitSettledTiers();
+            Map<GroupAggregator.Key, GroupAggregator.Stats> groups;
+            if (versions != null) {
+                ExpenseVersions.Snapshot snapshot = versions.snapshot();
+                groups = scanPartitions(query.getUserIds(),
+                        i -> new GroupAggregator(query).aggregate(snapshot, i), GroupAggregator::merge);
+            } else {
+                groups = scan(query.getUserIds(),
+                        store -> new GroupAggregator(query).aggregate(store), GroupAggregator::merge);
+            }
+            if (groups == null) {
+                groups = new HashMap<>();
+            }
+            if (archive == null) {
+                return groups;
+            }
+            groups = GroupAggregator.merge(groups, archive.aggregate(query));
+            if (archiveEpoch == epoch) {
+                return groups;
+            }
+        }
+    }
+
+    /**
+     * Waits until no seal or thaw is moving rows between the tiers. An interrupt
+     * does not end the wait; the thread's interrupt status is restored afterwards.
+     *
+     * @return The archive epoch, which is even.
+     */
+    private long awaitSettledTiers() {
+        long epoch = archiveEpoch;
+        if ((epoch & 1) == 0) return epoch;
+        boolean interrupted = false;
+        synchronized (tiersSettled) {
+            while (((epoch = archiveEpoch) & 1) != 0) {
+                try {
+                    tiersSettled.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Error loading expenses: " + e.getMessage());
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return epoch;
     }
 
     /**
-     * Overwrites the CSV file with the current list of expenses.
+     * Ends a move of rows between the tiers, begun by making the archive epoch odd,
+     * and wakes the reports waiting for it.
      */
-    private void saveExpenses() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(EXPENSE_FILE))) {
-            for (Expense e : allExpenses) {
-                bw.write(String.format("%s,%s,%s,%s,%.2f,%s",
-                        e.getId(),
-                        e.getUserId(),
-                        e.getDate().toString(),
-                        e.getCategory(),
-                        e.getAmount(),
-                        e.getDescription()));
-                bw.newLine();
+    private void settleTiers() {
+        synchronized (tiersSettled) {
+            archiveEpoch++;
+            tiersSettled.notifyAll();
+        }
+    }
+
+    /**
+     * Runs a task per partition in parallel on the common fork-join pool and
+     * combines the results pairwise.
+     *
+     * @param userIds Users whose partitions to visit, or null for all partitions.
+     * @param task    Computes a partial result from a partition index.
+     * @return The combined result, or null if no partition was visited.
+     */
+    private <R> R scanPartitions(Collection<String> userIds, IntFunction<R> task, BinaryOperator<R> combine) {
+        int[] selected;
+        if (userIds == null) {
+            selected = IntStream.range(0, partitions.length).toArray();
+        } else {
+            selected = userIds.stream().mapToInt(this::partitionIndex).distinct().toArray();
+        }
+        if (selected.length == 0) return null;
+        return ForkJoinPool.commonPool().invoke(new ScanTask<>(selected, 0, selected.length, task, combine));
+    }
+
+    /**
+     * Splits a range of partitions in half until one is left, then runs the task on it.
+     */
+    private static class ScanTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+        private final int[] selected;
+        private final int from;
+        private final int to;
+        private final IntFunction<R> task;
+        private final BinaryOperator<R> combine;
+
+        ScanTask(int[] selected, int from, int to, IntFunction<R> task, BinaryOperator<R> combine) {
+            this.selected = selected;
+            this.from = from;
+            this.to = to;
+            this.task = task;
+            this.combine = combine;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from == 1) {
+                return task.apply(selected[from]);
             }
+            int mid = (from + to) >>> 1;
+            ScanTask<R> left = new ScanTask<>(selected, from, mid, task, combine);
+            left.fork();
+            R right = new ScanTask<>(selected, mid, to, task, combine).compute();
+            return combine.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * @return Residency and hit/miss/eviction metrics in segmented mode, or null.
+     */
+    public PartitionCache getPartitionCache() {
+        return cache;
+    }
+
+    /**
+     * Folds the journal back into the binary snapshot (or, in segmented mode, into
+     * the segments of partitions changed since they were last written).
+     * The expenses are captured on the calling thread; writing the file and
+     * trimming the journal happen on the background compactor thread.
+     */
+    public void compact() {
+        if (journal == null || !compacting.compareAndSet(false, true)) return;
+        if (cache != null) {
+            compactSegments();
+            return;
+        }
+
+        final List<Expense> expenses;
+        final long mark;
+        final long markRecords;
+        lockAll();
+        try {
+            expenses = snapshot();
+            mark = journal.length();
+            markRecords = journal.getRecordCount();
         } catch (IOException e) {
-            System.err.println("Error saving expenses: " + e.getMessage());
+            compacting.set(false);
+            System.err.println("Error compacting expenses: " + e.getMessage());
+            return;
+        } finally {
+            unlockAll();
+        }
+
+        compactor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                writeSnapshot(expenses);
+                journal.discardBefore(mark, markRecords);
+            } catch (IOException e) {
+                System.err.println("Error compacting expenses: " + e.getMessage());
+            } finally {
+                compacting.set(false);
+                COMPACTION_SECONDS.recordSince(start);
+            }
+        });
+    }
+
+    /**
+     * Exports every expense as CSV, sealed ones included.
+     *
+     * @param path Destination file.
+     */
+    public void exportCsv(String path) {
+        synchronized (this) {  // no seal or thaw moves rows between the tiers meanwhile
+            try {
+                writeCsv(path, true);
+            } catch (IOException e) {
+                System.err.println("Error exporting expenses: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits until every mutation made so far is on disk: pending background saves
+     * have finished, or the journal has been fsynced.
+     *
+     * @return true if the data was saved, false if the last save failed.
+     */
+    public boolean flush() {
+        if (journal != null) {
+            try {
+                journal.sync();
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error syncing expense journal: " + e.getMessage());
+                return false;
+            }
+        }
+        if (!saver.isShutdown()) {
+            try {
+                saver.submit(() -> { }).get();  // runs after any save queued before it
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+        return !saveFailed;
+    }
+
+    /**
+     * Flushes pending saves or the journal to disk, stops background work and saves
+     * the search index. A failed background save is retried once.
+     */
+    @Override
+    public void close() {
+        Metrics.global().removeGauge("expense_store_size", storeSizeGauge);
+        if (archive != null) {
+            Metrics.global().removeGauge("expense_sealed_size", sealedSizeGauge);
+        }
+        if (versions != null) {
+            Metrics.global().removeGauge("expense_version_count", versionCountGauge);
+        }
+        if (saver != null) {
+            saver.shutdown();
+            try {
+                saver.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (saveFailed) {
+                saveExpenses();
+            }
+        }
+        if (journal != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+                journal.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Error closing expense journal: " + e.getMessage());
+            }
+        }
+        if (cache == null) {
+            lockAll();
+            try {
+                searchIndex.save(searchFile, dataStamp());
+            } catch (IOException e) {
+                System.err.println("Error saving search index: " + e.getMessage());
+            } finally {
+                unlockAll();
+            }
+        }
+        if (archive != null) {
+            archive.close();
+        }
+    }
+
+    /**
+     * Describes the current expense files by size and modification time, so a saved
+     * search index is only reused for the exact data it was built from.
+     */
+    private String dataStamp() {
+        StringBuilder sb = new StringBuilder();
+        for (String path : new String[]{expenseFile, snapshotFile, journalFile}) {
+            File file = new File(path);
+            sb.append(file.length()).append(':').append(file.lastModified()).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a mutation to the journal. Called under the partition's write lock,
+     * so records for any one expense are journaled in the order they were applied.
+     */
+    private void journal(char op, String payload) {
+        if (journal == null) return;
+        try {
+            journal.append(op, payload);
+        } catch (IOException e) {
+            System.err.println("Error writing expense journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Persists after a mutation, once the partition lock has been released:
+     * either schedules a full save (of the changed segments, when segmented) or,
+     * in journal mode, a compaction when the journal is large. Then trims the cache.
+     */
+    private void afterMutation() {
+        if (journal == null) {
+            requestSave();
+        } else if (journal.getRecordCount() >= Math.max(MIN_COMPACTION_RECORDS, size())) {
+            compact();
+        }
+        requestSeal();
+        evictCold();
+    }
+
+    /**
+     * @return First month of the hot window.
+     */
+    private YearMonth hotCutoff() {
+        return YearMonth.now().minusMonths(hotMonths - 1);
+    }
+
+    /**
+     * Queues a seal once a month has left the hot window since the last one. It runs
+     * on the thread that writes the hot files: in journal mode it takes the
+     * compaction slot, and if a compaction holds it a later mutation asks again.
+     */
+    private void requestSeal() {
+        YearMonth sealed = sealedBefore;
+        if (sealed == null || !sealed.isBefore(hotCutoff())) return;
+        if (journal != null) {
+            if (!compacting.compareAndSet(false, true)) return;
+            try {
+                compactor.execute(() -> {
+                    try {
+                        sealColdMonths();
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {  // closing; sealed at the next startup
+                compacting.set(false);
+            }
+        } else if (sealPending.compareAndSet(false, true)) {
+            try {
+                saver.execute(() -> {
+                    sealPending.set(false);
+                    sealColdMonths();
+                });
+            } catch (RejectedExecutionException e) {
+                sealPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Seals every hot expense dated before the hot window into the archive, month by
+     * month, then rewrites the hot files without them.
+     * <p>
+     * The cold rows are collected under read locks, one partition at a time, and
+     * their segments are compressed and written with no partition locked. Every
+     * partition is write-locked only to rename the segments into place and drop the
+     * sealed rows from the hot store. A month with a row edited or deleted in the
+     * meantime is not installed but collected and sealed again, up to
+     * {@value #SEAL_ATTEMPTS} times. A month that cannot be sealed stays hot and is
+     * retried at the next startup; a crash before the hot files are rewritten leaves
+     * rows in both tiers, which the next seal merges again by ID.
+     */
+    private void sealColdMonths() {
+        long start = System.nanoTime();
+        YearMonth cutoff = hotCutoff();
+        LocalDate firstHotDay = cutoff.atDay(1);
+        synchronized (this) {  // no thaw changes the archive meanwhile
+            Set<String> touched = ConcurrentHashMap.newKeySet();
+            ExpenseListener watcher = new ExpenseListener() {
+                @Override
+                public void onAdded(Expense expense) {
+                    // a new cold row stays hot until the next seal
+                }
+
+                @Override
+                public void onUpdated(Expense before, Expense after) {
+                    onRemoved(before);
+                }
+
+                @Override
+                public void onRemoved(Expense expense) {
+                    if (expense.getDate().isBefore(firstHotDay)) {
+                        touched.add(expense.getId());
+                    }
+                }
+            };
+            listeners.add(watcher);
+            int sealed = 0;
+            try {
+                Map<YearMonth, Map<String, List<Expense>>> cold = collectCold(firstHotDay, null);
+                for (int attempt = 1; !cold.isEmpty(); attempt++) {
+                    List<ExpenseArchive.PendingSegment> prepared = new ArrayList<>();
+                    for (Map.Entry<YearMonth, Map<String, List<Expense>>> month : cold.entrySet()) {
+                        try {
+                            prepared.add(archive.prepareSeal(month.getKey(), month.getValue()));
+                        } catch (IOException | UncheckedIOException e) {
+                            System.err.println("Error sealing expenses of " + month.getKey() + ": " + e.getMessage());
+                        }
+                    }
+                    Set<YearMonth> retry = new TreeSet<>();
+                    for (Partition partition : partitions) {
+                        partition.lock.writeLock().lock();
+                    }
+                    archiveEpoch++;
+                    listeners.remove(watcher);  // not told of the rows sealed here
+                    try {
+                        for (ExpenseArchive.PendingSegment segment : prepared) {
+                            Map<String, List<Expense>> rowsByUser = cold.get(segment.month);
+                            if (isTouched(rowsByUser, touched)) {
+                                archive.discard(segment);
+                                retry.add(segment.month);
+                                continue;
+                            }
+                            try {
+                                archive.install(segment);
+                            } catch (IOException e) {
+                                System.err.println("Error sealing expenses of " + segment.month + ": " + e.getMessage());
+                                continue;
+                            }
+                            for (List<Expense> rows : rowsByUser.values()) {
+                                Partition partition = partitionOf(rows.get(0).getUserId());
+                                for (Expense e : rows) {
+                                    partition.store.remove(e.getId());
+                                    for (ExpenseListener listener : listeners) {
+                                        listener.onEvicted(e);
+                                    }
+                                }
+                                changed(partition);
+                                sealed += rows.size();
+                            }
+                        }
+                        touched.clear();
+                        listeners.add(watcher);
+                    } finally {
+                        settleTiers();
+                        for (Partition partition : partitions) {
+                            partition.lock.writeLock().unlock();
+                        }
+                    }
+                    if (retry.isEmpty()) break;
+                    if (attempt == SEAL_ATTEMPTS) {
+                        System.err.println("Error sealing expenses of " + retry + ": still being edited; left hot");
+                        break;
+                    }
+                    cold = collectCold(firstHotDay, retry);
+                }
+            } finally {
+                listeners.remove(watcher);
+            }
+            if (sealed > 0) {
+                saveHot();
+            }
+            sealedBefore = cutoff;
+        }
+        SEAL_SECONDS.recordSince(start);
+    }
+
+    /**
+     * Gathers the hot expenses dated before a day, by month and owner, reading one
+     * partition at a time under its read lock.
+     *
+     * @param months Months to gather, or null for all.
+     */
+    private Map<YearMonth, Map<String, List<Expense>>> collectCold(LocalDate firstHotDay, Set<YearMonth> months) {
+        Map<YearMonth, Map<String, List<Expense>>> cold = new TreeMap<>();
+        for (Partition partition : partitions) {
+            lockRead(partition);
+            try {
+                partition.store.forEach(e -> {
+                    if (!e.getDate().isBefore(firstHotDay)) return;
+                    YearMonth month = YearMonth.from(e.getDate());
+                    if (months != null && !months.contains(month)) return;
+                    cold.computeIfAbsent(month, k -> new HashMap<>())
+                            .computeIfAbsent(e.getUserId(), k -> new ArrayList<>()).add(e);
+                });
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+        return cold;
+    }
+
+    private static boolean isTouched(Map<String, List<Expense>> rowsByUser, Set<String> touched) {
+        if (touched.isEmpty()) return false;
+        for (List<Expense> rows : rowsByUser.values()) {
+            for (Expense e : rows) {
+                if (touched.contains(e.getId())) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the hot files after rows have been sealed: the binary snapshot, which
+     * trims the journal up to the point it was taken at, or the CSV file. The
+     * expenses are captured under every partition's read lock, as for a compaction.
+     */
+    private void saveHot() {
+        try {
+            if (journal != null) {
+                List<Expense> expenses;
+                long mark;
+                long markRecords;
+                lockAll();
+                try {
+                    expenses = snapshot();
+                    mark = journal.length();
+                    markRecords = journal.getRecordCount();
+                } finally {
+                    unlockAll();
+                }
+                writeSnapshot(expenses);
+                journal.discardBefore(mark, markRecords);
+            } else {
+                writeCsv(expenseFile, false);
+                new File(journalFile).delete();
+            }
+        } catch (IOException e) {
+            saveFailed = journal == null;
+            System.err.println("Error saving expenses after sealing: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves the sealed block holding an expense back into the hot store so it can be
+     * edited or deleted like any other; it stays hot until the next seal. Its rows
+     * are journaled before the block is dropped, so a crash in between leaves them
+     * in both tiers rather than in neither. Without journal mode they go to a
+     * journal file of their own, which the next full save folds into the CSV file:
+     * a full save here would lock every partition while the user's is write-locked.
+     * Does nothing if the expense is hot or not the user's.
+     */
+    private void thaw(String expenseId, User user) {
+        if (archive == null || !archive.hasUser(user.getId())) return;
+        Partition partition = lockRead(partitionOf(user.getId()));
+        try {
+            if (partition.store.get(expenseId) != null) return;
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+        synchronized (this) {
+            partition.lock.writeLock().lock();
+            archiveEpoch++;
+            try {
+                if (partition.store.get(expenseId) != null) return;
+                YearMonth month = archive.locate(user.getId(), expenseId);
+                if (month == null) return;
+                List<Expense> rows = archive.read(user.getId(), month);
+                for (Expense e : rows) {
+                    partition.store.put(e);
+                    for (ExpenseListener listener : listeners) {
+                        listener.onLoaded(e);
+                    }
+                }
+                try {
+                    List<String> records = new ArrayList<>(rows.size());
+                    for (Expense e : rows) {
+                        records.add(toCsv(e));
+                    }
+                    if (journal != null) {
+                        journal.appendAll(ExpenseJournal.ADD, records);
+                        journal.sync();
+                    } else {
+                        try (ExpenseJournal thawed = new ExpenseJournal(journalFile, 0, 0)) {
+                            thawed.appendAll(ExpenseJournal.ADD, records);
+                            thawed.sync();
+                        }
+                    }
+                    archive.remove(user.getId(), month);
+                    changed(partition);
+                } catch (IOException e) {
+                    for (Expense row : rows) {
+                        partition.store.remove(row.getId());
+                        for (ExpenseListener listener : listeners) {
+                            listener.onEvicted(row);
+                        }
+                    }
+                    System.err.println("Error thawing sealed expenses: " + e.getMessage());
+                }
+            } finally {
+                settleTiers();
+                partition.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Merges two lists that are each ordered by date, then ID.
+     */
+    private static List<Expense> mergeByDate(List<Expense> a, List<Expense> b) {
+        if (a.isEmpty()) return b;
+        if (b.isEmpty()) return a;
+        List<Expense> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            merged.add(ExpenseArchive.DATE_ORDER.compare(a.get(i), b.get(j)) <= 0 ? a.get(i++) : b.get(j++));
+        }
+        merged.addAll(a.subList(i, a.size()));
+        merged.addAll(b.subList(j, b.size()));
+        return merged;
+    }
+
+    /**
+     * Records a mutation of a partition; called under its write lock.
+     */
+    private void changed(Partition partition) {
+        partition.dirty = true;
+        if (cache != null) {
+            cache.resized(partition.index, partition.store.size());
+        }
+    }
+
+    /**
+     * Loads the newer of the binary snapshot and the CSV file, then replays the
+     * journal on top of it. Journal records are applied by expense ID, so replaying
+     * records that were already folded into the snapshot is harmless.
+     */
+    private void loadExpenses() {
+        File binary = new File(snapshotFile);
+        File file = new File(expenseFile);
+        boolean loaded = false;
+        if (binary.exists() && (!file.exists() || binary.lastModified() >= file.lastModified())) {
+            try (ExpenseSnapshot snapshot = ExpenseSnapshot.open(snapshotFile)) {
+                loadSnapshot(snapshot);
+                loaded = true;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error loading expense snapshot, falling back to CSV: " + e.getMessage());
+            }
+        }
+
+        if (!loaded && file.exists()) {
+            try {
+                for (Expense expense : new CsvExpenseLoader().load(expenseFile)) {
+                    partitionOf(expense.getUserId()).store.put(expense);
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading expenses: " + e.getMessage());
+            }
+        }
+
+        try {
+            ExpenseJournal.replay(journalFile, (op, payload) -> {
+                if (op == ExpenseJournal.DELETE) {
+                    String[] parts = payload.split(",");
+                    if (parts.length > 1) {
+                        partitionOf(parts[1]).store.remove(parts[0]);
+                        return;
+                    }
+                    // Older delete records carry only the expense ID, so the owning partition is unknown.
+                    for (Partition partition : partitions) {
+                        if (partition.store.remove(payload) != null) break;
+                    }
+                } else if (op == ExpenseJournal.ADD || op == ExpenseJournal.EDIT) {
+                    Expense expense = parseCsv(payload);
+                    if (expense != null) {
+                        partitionOf(expense.getUserId()).store.put(expense);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error replaying expense journal: " + e.getMessage());
+        }
+        for (Partition partition : partitions) {
+            partition.store.trimToSize();
+        }
+    }
+
+    /**
+     * Prepares the segmented layout: migrates existing data into segments the
+     * first time, otherwise folds the journal into the segments it touches.
+     * Every partition starts out evicted.
+     */
+    private void openSegments() {
+        File dir = new File(segmentDir);
+        try {
+            if (dir.exists()) {
+                foldJournal();
+            } else {
+                migrateToSegments();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening expense segments", e);
+        }
+        for (Partition partition : partitions) {
+            partition.store = storeFactory.get();
+            partition.resident = false;
+            partition.dirty = false;
+        }
+    }
+
+    /**
+     * Loads the snapshot/CSV and journal as usual and writes every partition as a
+     * segment. The segment directory is built under a temporary name and renamed
+     * into place, so an interrupted migration is simply redone.
+     */
+    private void migrateToSegments() throws IOException {
+        loadExpenses();
+        File tmp = new File(segmentDir + ".tmp");
+        deleteDirectory(tmp);
+        tmp.mkdirs();
+        for (Partition partition : partitions) {
+            List<Expense> expenses = new ArrayList<>(partition.store.size());
+            partition.store.forEach(expenses::add);
+            writeSnapshot(expenses, new File(tmp, segmentName(partition.index) + ".bin").getPath(),
+                    new File(tmp, segmentName(partition.index) + ".csv").getPath());
+        }
+        Files.move(tmp.toPath(), new File(segmentDir).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        new File(journalFile).delete();
+        for (String file : new String[]{snapshotFile, expenseFile}) {
+            File old = new File(file);
+            if (old.exists() && !old.renameTo(new File(file + ".migrated"))) {
+                System.err.println("Could not rename " + file + " after migrating to segments");
+            }
+        }
+    }
+
+    /**
+     * Applies journal records to the segments they belong to, then drops the journal.
+     * Replay is idempotent, so a crash part way through is recovered by folding again.
+     */
+    private void foldJournal() throws IOException {
+        if (!new File(journalFile).exists()) return;
+
+        List<List<String[]>> records = new ArrayList<>(partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            records.add(null);
+        }
+        ExpenseJournal.replay(journalFile, (op, payload) -> {
+            String userId;
+            if (op == ExpenseJournal.DELETE) {
+                String[] parts = payload.split(",");
+                userId = parts.length > 1 ? parts[1] : null;  // older records lack the owner
+            } else {
+                Expense expense = parseCsv(payload);
+                if (expense == null) return;
+                userId = expense.getUserId();
+            }
+            String[] record = {String.valueOf(op), payload};
+            if (userId == null) {
+                for (int i = 0; i < partitions.length; i++) {  // try every segment
+                    bucket(records, i).add(record);
+                }
+            } else {
+                bucket(records, partitionIndex(userId)).add(record);
+            }
+        });
+
+        for (Partition partition : partitions) {
+            List<String[]> applied = records.get(partition.index);
+            if (applied == null) continue;
+            partition.store = storeFactory.get();
+            readSegment(partition);
+            for (String[] record : applied) {
+                if (record[0].charAt(0) == ExpenseJournal.DELETE) {
+                    partition.store.remove(record[1].split(",")[0]);
+                } else {
+                    partition.store.put(parseCsv(record[1]));
+                }
+            }
+            writeSegment(partition);
+            partition.store = storeFactory.get();
+        }
+        new File(journalFile).delete();
+    }
+
+    private static List<String[]> bucket(List<List<String[]>> records, int index) {
+        List<String[]> list = records.get(index);
+        if (list == null) {
+            list = new ArrayList<>();
+            records.set(index, list);
+        }
+        return list;
+    }
+
+    /**
+     * Takes a partition's read lock, loading the partition first if it is not in memory.
+     */
+    private Partition lockRead(Partition partition) {
+        partition.lock.readLock().lock();
+        if (partition.resident) {
+            if (cache != null) cache.hit(partition.index);
+            return partition;
+        }
+        partition.lock.readLock().unlock();
+        lockWrite(partition);
+        partition.lock.readLock().lock();  // downgrade
+        partition.lock.writeLock().unlock();
+        return partition;
+    }
+
+    /**
+     * Takes a partition's write lock, loading the partition first if it is not in memory.
+     *
+     * @throws UncheckedIOException if the partition's segment cannot be read.
+     */
+    private Partition lockWrite(Partition partition) {
+        partition.lock.writeLock().lock();
+        if (partition.resident) {
+            if (cache != null) cache.hit(partition.index);
+            return partition;
+        }
+        try {
+            partition.store = storeFactory.get();
+            readSegment(partition);
+        } catch (IOException | RuntimeException e) {
+            partition.store = storeFactory.get();
+            partition.lock.writeLock().unlock();
+            throw new UncheckedIOException(new IOException("Error loading expense segment: " + e.getMessage(), e));
+        }
+        partition.resident = true;
+        partition.dirty = false;
+        for (ExpenseListener listener : listeners) {
+            partition.store.forEach(listener::onLoaded);
+        }
+        cache.loaded(partition.index, partition.store.size());
+        return partition;
+    }
+
+    /**
+     * Evicts least recently used partitions while the cache is over budget. Called
+     * with no locks held; partitions in use by other threads are skipped.
+     */
+    private void evictCold() {
+        if (cache == null || !cache.isOverBudget()) return;
+        for (int index : cache.coldest()) {
+            if (!cache.isOverBudget()) break;
+            Partition partition = partitions[index];
+            if (!partition.lock.writeLock().tryLock()) continue;
+            try {
+                if (!partition.resident) continue;
+                if (partition.dirty) {
+                    writeSegment(partition);
+                }
+                for (ExpenseListener listener : listeners) {
+                    partition.store.forEach(listener::onEvicted);
+                }
+                partition.store = storeFactory.get();
+                partition.resident = false;
+                cache.evicted(index);
+            } catch (IOException e) {
+                System.err.println("Error saving expense segment, keeping it in memory: " + e.getMessage());
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Marks the journal, then writes every changed resident segment and trims the
+     * journal up to the mark on the compactor thread. Changes made after the mark
+     * stay in the journal; segments written earlier by eviction are already current.
+     */
+    private void compactSegments() {
+        final long mark;
+        final long markRecords;
+        lockAll();
+        try {
+            mark = journal.length();
+            markRecords = journal.getRecordCount();
+        } catch (IOException e) {
+            compacting.set(false);
+            System.err.println("Error compacting expenses: " + e.getMessage());
+            return;
+        } finally {
+            unlockAll();
+        }
+
+        compactor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                writeDirtySegments();
+                journal.discardBefore(mark, markRecords);
+            } catch (IOException e) {
+                System.err.println("Error compacting expenses: " + e.getMessage());
+            } finally {
+                compacting.set(false);
+                COMPACTION_SECONDS.recordSince(start);
+            }
+        });
+    }
+
+    /**
+     * Writes every resident segment changed since it was last written.
+     */
+    private void writeDirtySegments() throws IOException {
+        for (Partition partition : partitions) {
+            partition.lock.writeLock().lock();
+            try {
+                if (partition.resident && partition.dirty) {
+                    writeSegment(partition);
+                }
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads a partition's segment into its (empty) store: the binary file, or the
+     * CSV fallback when that is newer. A missing segment is an empty partition.
+     */
+    private void readSegment(Partition partition) throws IOException {
+        File binary = new File(segmentDir, segmentName(partition.index) + ".bin");
+        File csv = new File(segmentDir, segmentName(partition.index) + ".csv");
+        if (binary.exists() && (!csv.exists() || binary.lastModified() >= csv.lastModified())) {
+            try (ExpenseSnapshot snapshot = ExpenseSnapshot.open(binary.getPath())) {
+                int[] records = new int[snapshot.size()];
+                for (int i = 0; i < records.length; i++) {
+                    records[i] = i;
+                }
+                partition.store.load(snapshot, records, records.length);
+            }
+        } else if (csv.exists()) {
+            for (Expense expense : new CsvExpenseLoader().load(csv.getPath())) {
+                partition.store.put(expense);
+            }
+        }
+        partition.store.trimToSize();
+    }
+
+    /**
+     * Writes a partition's segment and clears its dirty flag; called under its write lock.
+     */
+    private void writeSegment(Partition partition) throws IOException {
+        List<Expense> expenses = new ArrayList<>(partition.store.size());
+        partition.store.forEach(expenses::add);
+        String binary = new File(segmentDir, segmentName(partition.index) + ".bin").getPath();
+        String csv = new File(segmentDir, segmentName(partition.index) + ".csv").getPath();
+        String written = writeSnapshot(expenses, binary, csv);
+        new File(written.equals(binary) ? csv : binary).delete();  // never leave a stale alternative behind
+        partition.dirty = false;
+    }
+
+    private static String segmentName(int index) {
+        return String.format("part-%04d", index);
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Buckets snapshot records by partition, then loads the partitions in parallel.
+     */
+    private void loadSnapshot(ExpenseSnapshot snapshot) {
+        int[] partitionOfRef = new int[snapshot.stringCount()];
+        Arrays.fill(partitionOfRef, -1);
+        int[][] records = new int[partitions.length][16];
+        int[] counts = new int[partitions.length];
+        for (int i = 0; i < snapshot.size(); i++) {
+            int ref = snapshot.userRef(i);
+            int p = partitionOfRef[ref];
+            if (p < 0) {
+                p = partitionIndex(snapshot.string(ref));
+                partitionOfRef[ref] = p;
+            }
+            if (counts[p] == records[p].length) {
+                records[p] = Arrays.copyOf(records[p], counts[p] * 2);
+            }
+            records[p][counts[p]++] = i;
+        }
+        IntStream.range(0, partitions.length).parallel()
+                .forEach(p -> partitions[p].store.load(snapshot, records[p], counts[p]));
+    }
+
+    /**
+     * Queues a full save on the background writer unless one is already queued.
+     * Mutations made before the queued save starts are all covered by it.
+     */
+    private void requestSave() {
+        if (savePending.compareAndSet(false, true)) {
+            try {
+                saver.execute(this::saveExpenses);
+            } catch (RejectedExecutionException e) {  // closing; close() retries failed saves itself
+                savePending.set(false);
+                saveExpenses();
+            }
+        }
+    }
+
+    /**
+     * Overwrites the CSV file with the current list of expenses, or writes the
+     * changed segments when segmented. The CSV file then holds the full state, so
+     * any leftover journal is dropped.
+     */
+    private synchronized void saveExpenses() {
+        savePending.set(false);  // later mutations need another save
+        long start = System.nanoTime();
+        try {
+            if (cache != null) {
+                writeDirtySegments();
+            } else {
+                writeCsv(expenseFile, false);
+                new File(journalFile).delete();
+            }
+            saveFailed = false;
+        } catch (IOException | UncheckedIOException e) {
+            saveFailed = true;
+            System.err.println("Error saving expenses: " + e.getMessage());
+        } finally {
+            SAVE_SECONDS.recordSince(start);
+        }
+    }
+
+    /**
+     * Writes every expense as CSV to a temporary file, fsyncs it and renames it over
+     * {@code path}. In segmented mode partitions are loaded and written one at a
+     * time, so the file is not a single point-in-time snapshot.
+     *
+     * @param includeSealed true to append the sealed expenses after the hot ones.
+     */
+    private void writeCsv(String path, boolean includeSealed) throws IOException {
+        File tmp = new File(path + ".tmp");
+        try {
+            ROWS_WRITTEN.add(writeCsvTo(tmp, includeSealed));
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        BYTES_WRITTEN.add(tmp.length());
+        Files.move(tmp.toPath(), new File(path).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Number of rows written.
+     */
+    private int writeCsvTo(File file, boolean includeSealed) throws IOException {
+        int rows = 0;
+        if (cache != null) {
+            try (FileOutputStream out = new FileOutputStream(file);
+                 BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
+                for (Partition partition : partitions) {
+                    List<Expense> expenses = new ArrayList<>();
+                    lockRead(partition);
+                    try {
+                        partition.store.forEach(expenses::add);
+                    } finally {
+                        partition.lock.readLock().unlock();
+                    }
+                    for (Expense e : expenses) {
+                        bw.write(toCsv(e));
+                        bw.newLine();
+                    }
+                    rows += expenses.size();
+                    evictCold();
+                }
+                bw.flush();
+                out.getFD().sync();
+            }
+            return rows;
+        }
+
+        List<Expense> expenses;
+        lockAll();
+        try {
+            expenses = snapshot();
+        } finally {
+            unlockAll();
+        }
+        try (FileOutputStream out = new FileOutputStream(file);
+             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
+            for (Expense e : expenses) {
+                bw.write(toCsv(e));
+                bw.newLine();
+            }
+            rows = expenses.size();
+            if (includeSealed && archive != null) {
+                int[] sealed = {0};
+                try {
+                    archive.forEach(e -> {
+                        try {
+                            bw.write(toCsv(e));
+                            bw.newLine();
+                            sealed[0]++;
+                        } catch (IOException x) {
+                            throw new UncheckedIOException(x);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                rows += sealed[0];
+            }
+            bw.flush();
+            out.getFD().sync();
+        }
+        return rows;
+    }
+
+    /**
+     * @return Why a draft cannot be stored, or null if it is valid.
+     */
+    private static String validate(ExpenseDraft draft) {
+        return validate(draft.getDate(), draft.getCategory(), draft.getAmountCents(), draft.getDescription());
+    }
+
+    private static String validate(LocalDate date, String category, long amountCents, String description) {
+        if (date == null) {
+            return "Missing date";
+        }
+        if (!InputValidator.isValidString(category) || !InputValidator.isCsvSafe(category)) {
+            return "Invalid category";
+        }
+        if (!InputValidator.isPositiveAmount(amountCents)) {
+            return "Amount must be positive";
+        }
+        if (!InputValidator.isValidString(description) || !InputValidator.isCsvSafe(description)) {
+            return "Invalid description";
+        }
+        return null;
+    }
+
+    /**
+     * Looks up an expense by ID, checking that it belongs to the given user.
+     *
+     * @return The expense, or null if not found or owned by someone else.
+     */
+    private static Expense findOwned(Partition partition, String expenseId, User user) {
+        Expense e = partition.store.get(expenseId);
+        if (e == null || !e.getUserId().equals(user.getId())) {
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * Copies every expense; the caller must hold all partition locks.
+     */
+    private List<Expense> snapshot() {
+        List<Expense> all = new ArrayList<>(size());
+        for (Partition partition : partitions) {
+            partition.store.forEach(all::add);
+        }
+        return all;
+    }
+
+    /**
+     * @return Number of stored expenses; approximate unless all partitions are locked.
+     */
+    private int size() {
+        int size = 0;
+        for (Partition partition : partitions) {
+            size += partition.store.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return Number of sealed expenses.
+     */
+    private long sealedSize() {
+        return archive.size();
+    }
+
+    /**
+     * @return Number of expense versions held for report snapshots.
+     */
+    private long versionCount() {
+        return versions.versionCount();
+    }
+
+    /**
+     * Takes every partition's read lock, in index order, blocking all writers.
+     */
+    private void lockAll() {
+        for (Partition partition : partitions) {
+            partition.lock.readLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = partitions.length - 1; i >= 0; i--) {
+            partitions[i].lock.readLock().unlock();
+        }
+    }
+
+    private Partition partitionOf(String userId) {
+        return partitions[partitionIndex(userId)];
+    }
+
+    private int partitionIndex(String userId) {
+        int h = userId.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions.length;
+    }
+
+    private void writeSnapshot(List<Expense> expenses) throws IOException {
+        writeSnapshot(expenses, snapshotFile, expenseFile);
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and atomically replaces the previous one.
+     * Expenses with non-UUID IDs cannot be stored in the binary format; in that case
+     * the snapshot is written as CSV instead.
+     *
+     * @return The file written.
+     */
+    private static String writeSnapshot(List<Expense> expenses, String binaryFile, String csvFile) throws IOException {
+        File tmp = new File(binaryFile + ".tmp");
+        String target = binaryFile;
+        try {
+            ExpenseSnapshot.write(tmp.getPath(), expenses);
+        } catch (IllegalArgumentException e) {
+            tmp = new File(csvFile + ".tmp");
+            target = csvFile;
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                 BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
+                for (Expense expense : expenses) {
+                    bw.write(toCsv(expense));
+                    bw.newLine();
+                }
+                bw.flush();
+                out.getFD().sync();
+            }
+        }
+        ROWS_WRITTEN.add(expenses.size());
+        BYTES_WRITTEN.add(tmp.length());
+        Files.move(tmp.toPath(), new File(target).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private static String toCsv(Expense e) {
+        StringBuilder sb = new StringBuilder(128)
+                .append(e.getId()).append(',')
+                .append(e.getUserId()).append(',')
+                .append(e.getDate()).append(',')
+                .append(e.getCategory()).append(',');
+        return Money.append(sb, e.getAmountCents()).append(',')
+                .append(e.getDescription()).toString();
+    }
+
+    /**
+     * Parses one CSV row.
+     *
+     * @return The expense, or null if the row is malformed.
+     */
+    private static Expense parseCsv(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 6) return null;
+        try {
+            return new Expense(
+                    parts[0], // id
+                    parts[1], // userId
+                    LocalDate.parse(parts[2]), // date
+                    parts[3], // category
+                    Money.parse(parts[4]), // amount in cents
+                    parts[5]  // description
+            );
+        } catch (RuntimeException e) {
+            return null;
         }
     }
 }
@@ -0,0 +1,47 @@
+package service;
+
+import model.Expense;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a user's expenses.
+ */
+public class ExpensePage {
+    private final List<Expense> expenses;
+    private final boolean hasMore;
+    private final int total;
+
+    ExpensePage(List<Expense> expenses, boolean hasMore, int total) {
+        this.expenses = Collections.unmodifiableList(expenses);
+        this.hasMore = hasMore;
+        this.total = total;
+    }
+
+    public List<Expense> getExpenses() {
+        return expenses;
+    }
+
+    /**
+     * @return true if further expenses follow this page.
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return Total number of the user's expenses, or -1 for keyset pages, which are not counted.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Cursor for the next keyset page, or null if this page is the last.
+     */
+    public ExpenseCursor nextCursor() {
+        if (!hasMore || expenses.isEmpty()) return null;
+        return ExpenseCursor.after(expenses.get(expenses.size() - 1));
+    }
+}
@@ -0,0 +1,27 @@
+package service;
+
+import model.Expense;
+
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+/**
+ * Supplies expenses that are not stored but should appear in date-window queries
+ * and monthly totals, such as upcoming occurrences of recurring expenses.
+ * Registered with {@link ExpenseManager#addProjection}.
+ * <p>
+ * Projections are computed on demand for the requested window only, and are
+ * called with no partition lock held.
+ */
+public interface ExpenseProjection {
+
+    /**
+     * Emits a user's projected expenses dated within a window.
+     *
+     * @param userId The user.
+     * @param from   First day of the window (inclusive).
+     * @param to     Last day of the window (inclusive).
+     * @param out    Receives each projected expense.
+     */
+    void project(String userId, LocalDate from, LocalDate to, Consumer<Expense> out);
+}
@@ -0,0 +1,435 @@
+package service;
+
+import model.Expense;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Per-user inverted index from words of each expense's description and category
+ * to expense IDs. Words are runs of letters and digits, lower-cased, so
+ * "Uber ride (airport)" is indexed under {@code uber}, {@code ride} and {@code airport}.
+ * Terms are kept sorted, so a query word ending in {@code *} matches every term
+ * with that prefix.
+ * <p>
+ * Each term's postings hold canonical UUID IDs as a sorted array of (high, low)
+ * long pairs, 16 bytes per posting, and other IDs as strings in a set that is only
+ * allocated once one turns up. Queries intersect and merge the sorted arrays and
+ * make ID strings only for the result.
+ * <p>
+ * Per-user state is only touched under that user's partition lock in
+ * {@link ExpenseManager}; the top-level map is concurrent.
+ */
+public class ExpenseSearchIndex implements ExpenseListener {
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 2;
+
+    private final Map<String, NavigableMap<String, Postings>> byUser = new ConcurrentHashMap<>(); // userId -> term -> expense IDs
+
+    @Override
+    public void onAdded(Expense expense) {
+        NavigableMap<String, Postings> terms = byUser.computeIfAbsent(expense.getUserId(), k -> new TreeMap<>());
+        for (String term : terms(expense)) {
+            terms.computeIfAbsent(term, k -> new Postings()).add(expense.getId());
+        }
+    }
+
+    @Override
+    public void onUpdated(Expense before, Expense after) {
+        if (before.getDescription().equals(after.getDescription())
+                && before.getCategory().equals(after.getCategory())
+                && before.getUserId().equals(after.getUserId())) {
+            return;
+        }
+        onRemoved(before);
+        onAdded(after);
+    }
+
+    @Override
+    public void onRemoved(Expense expense) {
+        NavigableMap<String, Postings> terms = byUser.get(expense.getUserId());
+        if (terms == null) return;
+        for (String term : terms(expense)) {
+            Postings ids = terms.get(term);
+            if (ids == null) continue;
+            ids.remove(expense.getId());
+            if (ids.isEmpty()) {
+                terms.remove(term);
+            }
+        }
+        if (terms.isEmpty()) {
+            byUser.remove(expense.getUserId());
+        }
+    }
+
+    /**
+     * Finds a user's expenses matching every word of a query. Words are split and
+     * case-folded like indexed text; a word ending in {@code *} is a prefix.
+     *
+     * @param userId The user.
+     * @param query  The query, e.g. {@code "uber airport"} or {@code "taxi trav*"}.
+     * @return IDs of the matching expenses, in no particular order; empty for a blank query.
+     */
+    public Set<String> findIds(String userId, String query) {
+        NavigableMap<String, Postings> terms = byUser.get(userId);
+        if (terms == null) return Collections.emptySet();
+
+        List<Postings> required = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            List<String> tokens = new ArrayList<>();
+            tokenize(prefix ? word.substring(0, word.length() - 1) : word, tokens);
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                if (prefix && i == tokens.size() - 1) {
+                    required.add(withPrefix(terms, token));
+                } else {
+                    Postings ids = terms.get(token);
+                    required.add(ids == null ? new Postings() : ids);
+                }
+            }
+        }
+        if (required.isEmpty()) return Collections.emptySet();
+
+        // Intersect starting from the rarest term.
+        required.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Postings result = required.get(0);
+        for (int i = 1; i < required.size() && !result.isEmpty(); i++) {
+            result = result.intersect(required.get(i));
+        }
+        return result.toIds();
+    }
+
+    /**
+     * Tests single expenses against a query the way {@link #findIds} matches indexed
+     * ones; used for expenses that are not indexed, such as sealed ones.
+     *
+     * @param query The query.
+     * @return The test; it matches nothing for a blank query.
+     */
+    static Predicate<Expense> matcher(String query) {
+        List<String> words = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            List<String> tokens = new ArrayList<>();
+            tokenize(prefix ? word.substring(0, word.length() - 1) : word, tokens);
+            for (int i = 0; i < tokens.size(); i++) {
+                (prefix && i == tokens.size() - 1 ? prefixes : words).add(tokens.get(i));
+            }
+        }
+        if (words.isEmpty() && prefixes.isEmpty()) return e -> false;
+        return e -> {
+            Set<String> terms = terms(e);
+            if (!terms.containsAll(words)) return false;
+            for (String prefix : prefixes) {
+                boolean found = false;
+                for (String term : terms) {
+                    if (term.startsWith(prefix)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) return false;
+            }
+            return true;
+        };
+    }
+
+    private static Postings withPrefix(NavigableMap<String, Postings> terms, String prefix) {
+        List<Postings> matching = new ArrayList<>(terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+        return matching.isEmpty() ? new Postings() : Postings.union(matching, 0, matching.size());
+    }
+
+    private static Set<String> terms(Expense expense) {
+        Set<String> terms = new HashSet<>();
+        tokenize(expense.getDescription(), terms);
+        tokenize(expense.getCategory(), terms);
+        return terms;
+    }
+
+    /**
+     * Splits text into lower-cased runs of letters and digits.
+     */
+    static void tokenize(String text, Collection<String> out) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Writes the index to a file, tagged with a stamp describing the data it was built from.
+     *
+     * @param file  Destination.
+     * @param stamp Identifies the state of the expense files.
+     * @throws IOException if the file cannot be written.
+     */
+    void save(File file, String stamp) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(stamp);
+            out.writeInt(byUser.size());
+            for (Map.Entry<String, NavigableMap<String, Postings>> user : byUser.entrySet()) {
+                out.writeUTF(user.getKey());
+                out.writeInt(user.getValue().size());
+                for (Map.Entry<String, Postings> term : user.getValue().entrySet()) {
+                    out.writeUTF(term.getKey());
+                    term.getValue().write(out);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the index with one saved by {@link #save}, if the file exists and
+     * carries the given stamp.
+     *
+     * @param file  Source.
+     * @param stamp Expected stamp.
+     * @return true if the index was loaded.
+     */
+    boolean load(File file, String stamp) {
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(stamp)) {
+                return false;
+            }
+            int users = in.readInt();
+            Map<String, NavigableMap<String, Postings>> loaded = new ConcurrentHashMap<>(users * 2);
+            for (int u = 0; u < users; u++) {
+                String userId = in.readUTF();
+                NavigableMap<String, Postings> terms = new TreeMap<>();
+                int termCount = in.readInt();
+                for (int t = 0; t < termCount; t++) {
+                    String term = in.readUTF();
+                    terms.put(term, Postings.read(in));
+                }
+                loaded.put(userId, terms);
+            }
+            byUser.clear();
+            byUser.putAll(loaded);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error loading search index, rebuilding: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Expense IDs under one term.
+     */
+    private static class Postings {
+        private static final long[] NONE = new long[0];
+
+        long[] pairs = NONE; // UUID IDs as (high, low) pairs, sorted unsigned
+        int count;           // pairs in use
+        Set<String> others;  // non-UUID IDs; null while there are none
+
+        int size() {
+            return count + (others == null ? 0 : others.size());
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+
+        void add(String id) {
+            UUID uuid = ExpenseDateIndex.parseUuid(id);
+            if (uuid == null) {
+                if (others == null) {
+                    others = new HashSet<>();
+                }
+                others.add(id);
+                return;
+            }
+            long hi = uuid.getMostSignificantBits();
+            long lo = uuid.getLeastSignificantBits();
+            int found = search(hi, lo);
+            if (found >= 0) return;
+            int at = -found - 1;
+            if (count * 2 == pairs.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(2, count + (count >> 1) + 1) * 2);
+            }
+            System.arraycopy(pairs, at * 2, pairs, at * 2 + 2, (count - at) * 2);
+            pairs[at * 2] = hi;
+            pairs[at * 2 + 1] = lo;
+            count++;
+        }
+
+        void remove(String id) {
+            UUID uuid = ExpenseDateIndex.parseUuid(id);
+            if (uuid == null) {
+                if (others != null && others.remove(id) && others.isEmpty()) {
+                    others = null;
+                }
+                return;
+            }
+            int at = search(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (at < 0) return;
+            count--;
+            System.arraycopy(pairs, at * 2 + 2, pairs, at * 2, (count - at) * 2);
+            if (pairs.length > 32 && count * 8 < pairs.length) {
+                pairs = Arrays.copyOf(pairs, count * 4);
+            }
+        }
+
+        /**
+         * @return Position of the pair, or (-(insertion point) - 1) if absent.
+         */
+        private int search(long hi, long lo) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = compare(pairs, mid, hi, lo);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        Postings intersect(Postings other) {
+            Postings result = new Postings();
+            result.pairs = new long[Math.min(count, other.count) * 2];
+            int i = 0;
+            int j = 0;
+            while (i < count && j < other.count) {
+                int c = compare(pairs, i, other.pairs[j * 2], other.pairs[j * 2 + 1]);
+                if (c < 0) {
+                    i++;
+                } else if (c > 0) {
+                    j++;
+                } else {
+                    result.append(pairs, i);
+                    i++;
+                    j++;
+                }
+            }
+            if (others != null && other.others != null) {
+                result.others = new HashSet<>(others);
+                result.others.retainAll(other.others);
+            }
+            return result;
+        }
+
+        /**
+         * @return IDs in any of the postings {@code parts[from, to)}; merged pairwise, halving
+         *         the list each round.
+         */
+        static Postings union(List<Postings> parts, int from, int to) {
+            if (to - from == 1) return parts.get(from);
+            int mid = (from + to) >>> 1;
+            Postings a = union(parts, from, mid);
+            Postings b = union(parts, mid, to);
+            Postings result = new Postings();
+            result.pairs = new long[(a.count + b.count) * 2];
+            int i = 0;
+            int j = 0;
+            while (i < a.count || j < b.count) {
+                int c = i == a.count ? 1 : j == b.count ? -1 : compare(a.pairs, i, b.pairs[j * 2], b.pairs[j * 2 + 1]);
+                if (c <= 0) {
+                    result.append(a.pairs, i++);
+                    if (c == 0) j++;
+                } else {
+                    result.append(b.pairs, j++);
+                }
+            }
+            if (a.others != null || b.others != null) {
+                result.others = new HashSet<>();
+                if (a.others != null) result.others.addAll(a.others);
+                if (b.others != null) result.others.addAll(b.others);
+            }
+            return result;
+        }
+
+        Set<String> toIds() {
+            Set<String> ids = new HashSet<>(size() * 2);
+            for (int i = 0; i < count; i++) {
+                ids.add(new UUID(pairs[i * 2], pairs[i * 2 + 1]).toString());
+            }
+            if (others != null) {
+                ids.addAll(others);
+            }
+            return ids;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            for (int i = 0; i < count * 2; i++) {
+                out.writeLong(pairs[i]);
+            }
+            out.writeInt(others == null ? 0 : others.size());
+            if (others != null) {
+                for (String id : others) {
+                    out.writeUTF(id);
+                }
+            }
+        }
+
+        static Postings read(DataInputStream in) throws IOException {
+            Postings postings = new Postings();
+            int count = in.readInt();
+            postings.pairs = new long[count * 2];
+            for (int i = 0; i < count * 2; i++) {
+                postings.pairs[i] = in.readLong();
+            }
+            postings.count = count;
+            int others = in.readInt();
+            if (others > 0) {
+                postings.others = new HashSet<>(others * 2);
+                for (int i = 0; i < others; i++) {
+                    postings.others.add(in.readUTF());
+                }
+            }
+            return postings;
+        }
+
+        private void append(long[] from, int index) {
+            pairs[count * 2] = from[index * 2];
+            pairs[count * 2 + 1] = from[index * 2 + 1];
+            count++;
+        }
+
+        private static int compare(long[] pairs, int index, long hi, long lo) {
+            int c = Long.compareUnsigned(pairs[index * 2], hi);
+            return c != 0 ? c : Long.compareUnsigned(pairs[index * 2 + 1], lo);
+        }
+    }
+}
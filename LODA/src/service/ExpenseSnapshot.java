@@ -0,0 +1,260 @@
+package service;
+
+import model.Expense;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Fixed-width binary snapshot of all expenses, read through a memory-mapped file.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header   magic:int version:int recordCount:int stringCount:int recordOffset:long stringOffset:long
+ *          checksum:int reserved:int
+ * records  recordCount x 40 bytes:
+ *          idHi:long idLo:long userRef:int epochDay:int categoryRef:int descriptionRef:int amountCents:long
+ * strings  stringCount x offset:int, then per string length:int followed by UTF-8 bytes
+ * </pre>
+ * User IDs, categories and descriptions are references into the shared string table.
+ * Opening a snapshot maps the file and verifies the CRC32 of everything after the
+ * header; records and strings are decoded on access. Version 1 files, which have a
+ * 32-byte header without the checksum, are still read.
+ */
+public class ExpenseSnapshot implements Closeable {
+    private static final int MAGIC = 0x53535850; // "SSXP"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int V1_HEADER_SIZE = 32;
+    private static final long CHECK_CHUNK_BYTES = 1 << 30;
+    private static final int RECORD_SIZE = 40;
+    private static final int CHUNK_RECORDS = 1 << 24; // records per mapped region (640 MB)
+
+    private final FileChannel channel;
+    private final int recordCount;
+    private final int stringCount;
+    private final MappedByteBuffer[] recordChunks;
+    private final MappedByteBuffer strings;
+    private final String[] decoded;
+
+    private ExpenseSnapshot(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, V1_HEADER_SIZE);
+        int version = header.getInt(4);
+        if (header.getInt(0) != MAGIC || (version != 1 && version != VERSION)) {
+            throw new IOException("Not an expense snapshot");
+        }
+        header.position(8);
+        recordCount = header.getInt();
+        stringCount = header.getInt();
+        long recordOffset = header.getLong();
+        long stringOffset = header.getLong();
+        if (version == VERSION) {
+            int expected = channel.map(FileChannel.MapMode.READ_ONLY, V1_HEADER_SIZE, 4).getInt();
+            if (checksum(channel, HEADER_SIZE) != expected) {
+                throw new IOException("Expense snapshot checksum mismatch");
+            }
+        }
+
+        recordChunks = new MappedByteBuffer[(recordCount + CHUNK_RECORDS - 1) / CHUNK_RECORDS];
+        for (int i = 0; i < recordChunks.length; i++) {
+            int records = Math.min(CHUNK_RECORDS, recordCount - i * CHUNK_RECORDS);
+            recordChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    recordOffset + (long) i * CHUNK_RECORDS * RECORD_SIZE, (long) records * RECORD_SIZE);
+        }
+        strings = channel.map(FileChannel.MapMode.READ_ONLY, stringOffset, channel.size() - stringOffset);
+        decoded = new String[stringCount];
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @param path Path of the snapshot.
+     * @return The opened snapshot.
+     * @throws IOException if the file cannot be mapped or is not a snapshot.
+     */
+    public static ExpenseSnapshot open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            return new ExpenseSnapshot(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of records.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * @return Number of entries in the string table.
+     */
+    public int stringCount() {
+        return stringCount;
+    }
+
+    public long idHi(int record) {
+        return chunk(record).getLong(position(record));
+    }
+
+    public long idLo(int record) {
+        return chunk(record).getLong(position(record) + 8);
+    }
+
+    public int userRef(int record) {
+        return chunk(record).getInt(position(record) + 16);
+    }
+
+    public int epochDay(int record) {
+        return chunk(record).getInt(position(record) + 20);
+    }
+
+    public int categoryRef(int record) {
+        return chunk(record).getInt(position(record) + 24);
+    }
+
+    public int descriptionRef(int record) {
+        return chunk(record).getInt(position(record) + 28);
+    }
+
+    public long amountCents(int record) {
+        return chunk(record).getLong(position(record) + 32);
+    }
+
+    /**
+     * Decodes a string table entry; each entry is decoded at most once.
+     *
+     * @param ref Index into the string table.
+     * @return The string.
+     */
+    public String string(int ref) {
+        String s = decoded[ref];
+        if (s == null) {
+            int offset = strings.getInt(ref * 4);
+            int length = strings.getInt(offset);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = strings.get(offset + 4 + i);
+            }
+            s = new String(bytes, StandardCharsets.UTF_8);
+            decoded[ref] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Materializes one record.
+     *
+     * @param record Record index.
+     * @return The expense.
+     */
+    public Expense get(int record) {
+        return new Expense(
+                new UUID(idHi(record), idLo(record)).toString(),
+                string(userRef(record)),
+                LocalDate.ofEpochDay(epochDay(record)),
+                string(categoryRef(record)),
+                amountCents(record),
+                string(descriptionRef(record)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int checksum(FileChannel channel, long from) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = channel.size();
+        for (long position = from; position < size; position += CHECK_CHUNK_BYTES) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHECK_CHUNK_BYTES, size - position)));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes a snapshot file.
+     *
+     * @param path     Destination path.
+     * @param expenses Expenses to write, in order.
+     * @throws IOException              if writing fails.
+     * @throws IllegalArgumentException if an expense ID is not a UUID.
+     */
+    public static void write(String path, List<Expense> expenses) throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+        DataOutputStream offsetsOut = new DataOutputStream(offsets);
+
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(path);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc)))) {
+            file.write(new byte[HEADER_SIZE]);
+            for (Expense e : expenses) {
+                UUID id = UUID.fromString(e.getId());
+                out.writeLong(id.getMostSignificantBits());
+                out.writeLong(id.getLeastSignificantBits());
+                out.writeInt(ref(e.getUserId(), refs, tableOut, offsetsOut));
+                out.writeInt((int) e.getDate().toEpochDay());
+                out.writeInt(ref(e.getCategory(), refs, tableOut, offsetsOut));
+                out.writeInt(ref(e.getDescription(), refs, tableOut, offsetsOut));
+                out.writeLong(e.getAmountCents());
+            }
+            // String offsets are relative to the start of the string section, which begins with the offset array.
+            int base = refs.size() * 4;
+            DataInputStream rawOffsets = new DataInputStream(new ByteArrayInputStream(offsets.toByteArray()));
+            for (int i = 0; i < refs.size(); i++) {
+                out.writeInt(base + rawOffsets.readInt());
+            }
+            table.writeTo(out);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(expenses.size()).putInt(refs.size())
+                    .putLong(HEADER_SIZE).putLong(HEADER_SIZE + (long) expenses.size() * RECORD_SIZE)
+                    .putInt((int) crc.getValue()).putInt(0);
+            header.flip();
+            file.getChannel().write(header, 0);
+            file.getChannel().force(true);
+        }
+    }
+
+    private static int ref(String value, Map<String, Integer> refs, DataOutputStream table, DataOutputStream offsets)
+            throws IOException {
+        Integer ref = refs.get(value);
+        if (ref == null) {
+            ref = refs.size();
+            refs.put(value, ref);
+            offsets.writeInt(table.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            table.writeInt(bytes.length);
+            table.write(bytes);
+        }
+        return ref;
+    }
+
+    private MappedByteBuffer chunk(int record) {
+        return recordChunks[record / CHUNK_RECORDS];
+    }
+
+    private static int position(int record) {
+        return (record % CHUNK_RECORDS) * RECORD_SIZE;
+    }
+}
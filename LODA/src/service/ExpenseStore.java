@@ -0,0 +1,118 @@
+package service;
+
+import model.Expense;
+import util.StringDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * In-memory backing store for expenses, keyed by expense ID.
+ * Implementations keep insertion order for listing.
+ */
+public interface ExpenseStore {
+
+    /**
+     * Receives rows from {@link #scan} as primitive columns.
+     */
+    interface RowVisitor {
+        /**
+         * @param userCode     The owner, encoded in the scan's user dictionary.
+         * @param epochDay     The date as days since 1970-01-01.
+         * @param categoryCode The category, encoded in the scan's category dictionary.
+         * @param amountCents  The amount in cents.
+         */
+        void visit(int userCode, int epochDay, int categoryCode, long amountCents);
+    }
+
+    /**
+     * Inserts an expense, or replaces the stored expense with the same ID.
+     *
+     * @param expense The expense to store.
+     */
+    void put(Expense expense);
+
+    /**
+     * @param expenseId The expense ID.
+     * @return The stored expense, or null if not found.
+     */
+    Expense get(String expenseId);
+
+    /**
+     * @param expenseId The expense ID.
+     * @return The removed expense, or null if not found.
+     */
+    Expense remove(String expenseId);
+
+    /**
+     * @param userId The owner's user ID.
+     * @return A new list of the user's expenses in insertion order.
+     */
+    List<Expense> findByUser(String userId);
+
+    /**
+     * @param userId The owner's user ID.
+     * @param offset Number of the user's expenses to skip.
+     * @param limit  Maximum number of expenses to return.
+     * @return A new list with one page of the user's expenses in insertion order.
+     */
+    default List<Expense> findByUser(String userId, int offset, int limit) {
+        List<Expense> all = findByUser(userId);
+        int from = Math.min(offset, all.size());
+        return new ArrayList<>(all.subList(from, Math.min(all.size(), from + limit)));
+    }
+
+    /**
+     * @param userId The owner's user ID.
+     * @return Number of expenses the user has.
+     */
+    default int countByUser(String userId) {
+        return findByUser(userId).size();
+    }
+
+    /**
+     * @return Number of stored expenses.
+     */
+    int size();
+
+    /**
+     * Visits every stored expense in insertion order.
+     *
+     * @param action The visitor.
+     */
+    void forEach(Consumer<Expense> action);
+
+    /**
+     * Visits every stored row without materializing {@link Expense} objects where
+     * the store allows it. Users and categories are passed as codes in the given
+     * dictionaries, which the scan extends as it meets new strings.
+     *
+     * @param users      Dictionary for user IDs.
+     * @param categories Dictionary for categories.
+     * @param visitor    Receives each row.
+     */
+    default void scan(StringDictionary users, StringDictionary categories, RowVisitor visitor) {
+        forEach(e -> visitor.visit(users.encode(e.getUserId()), (int) e.getDate().toEpochDay(),
+                categories.encode(e.getCategory()), e.getAmountCents()));
+    }
+
+    /**
+     * Releases capacity kept for growth. Called once a bulk load is complete.
+     */
+    default void trimToSize() {
+    }
+
+    /**
+     * Adds records of a binary snapshot, replacing expenses with the same ID.
+     *
+     * @param snapshot The mapped snapshot.
+     * @param records  Indexes of the records to add.
+     * @param count    Number of entries of {@code records} to use.
+     */
+    default void load(ExpenseSnapshot snapshot, int[] records, int count) {
+        for (int i = 0; i < count; i++) {
+            put(snapshot.get(records[i]));
+        }
+    }
+}
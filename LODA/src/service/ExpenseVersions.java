@@ -0,0 +1,387 @@
+package service;
+
+import model.Expense;
+import util.StringDictionary;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Multi-version copy of the in-memory expenses that reports read from, so a report
+ * sees one point-in-time state of every partition without taking partition locks.
+ * <p>
+ * Each partition keeps an append-only log of row versions in primitive columns:
+ * owner and category as codes into per-partition name tables, the date as an epoch
+ * day, the amount in cents, and the stamps of the commits that added and deleted it.
+ * An add appends a version, an edit appends the new version and stamps the old one,
+ * a delete only stamps. Stamps come from one atomic commit clock, and each log
+ * publishes its new size and last stamp on its own, so writers to different
+ * partitions share nothing but the clock.
+ * <p>
+ * {@link #snapshot()} reads the clock, then every log's published state. Of each log
+ * it sees the commits up to the earlier of the clock it read and the log's last
+ * published stamp: a commit that took a stamp but was not yet published counts as
+ * not yet made, and the log's later commits are not seen at all. As a log's commits
+ * are made one at a time under its partition's lock, that is a prefix of them, and
+ * every commit published before the snapshot began is in it.
+ * <p>
+ * When a log fills up, its live versions are copied into a new log and writers go
+ * on in that one. Snapshots taken earlier keep reading the old log, which below its
+ * published size is never changed except for deletion stamps later than theirs, and
+ * the superseded versions are reclaimed by the garbage collector once the last of
+ * those snapshots is dropped. Writers therefore never wait for readers.
+ * <p>
+ * Listener calls for one partition are serialized by its lock (see
+ * {@link ExpenseListener}) and each call is one commit, so an edit is seen entirely
+ * or not at all; the rows of a batch add become visible one by one. Each version
+ * takes 40 bytes of columns and one to three index slots; with a log sized half
+ * again its live versions when copied, this measures 55 to 60 bytes per expense.
+ */
+class ExpenseVersions implements ExpenseListener {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long LIVE = Long.MAX_VALUE;
+
+    private final AtomicLong clock = new AtomicLong();  // stamp of the last commit
+    private final Log[] logs;
+    private final ToIntFunction<String> partitionOf;
+
+    /**
+     * @param partitions  Number of partitions.
+     * @param partitionOf Maps a user ID to its partition.
+     */
+    ExpenseVersions(int partitions, ToIntFunction<String> partitionOf) {
+        this.partitionOf = partitionOf;
+        logs = new Log[partitions];
+        for (int i = 0; i < partitions; i++) {
+            logs[i] = new Log();
+        }
+    }
+
+    /**
+     * Version columns of one log. Rows below a published size are only ever changed
+     * by stamping {@code deletedAt}.
+     */
+    private static final class Columns {
+        final int[] idHashes;
+        final int[] userCodes;
+        final int[] epochDays;
+        final int[] categoryCodes;
+        final long[] amountCents;
+        final long[] addedAt;       // commit stamp of the add
+        final long[] deletedAt;     // commit stamp of the deletion, or LIVE
+
+        Columns(int capacity) {
+            idHashes = new int[capacity];
+            userCodes = new int[capacity];
+            epochDays = new int[capacity];
+            categoryCodes = new int[capacity];
+            amountCents = new long[capacity];
+            addedAt = new long[capacity];
+            deletedAt = new long[capacity];
+        }
+    }
+
+    /**
+     * What a snapshot reads of one partition, as of a commit.
+     */
+    private static final class View {
+        final Columns columns;
+        final int size;
+        final long stamp;      // last commit included
+        final long copiedAt;   // last commit when the columns were copied; older snapshots cannot read them
+        final String[] userNames;
+        final String[] categoryNames;
+
+        View(Columns columns, int size, long stamp, long copiedAt, String[] userNames, String[] categoryNames) {
+            this.columns = columns;
+            this.size = size;
+            this.stamp = stamp;
+            this.copiedAt = copiedAt;
+            this.userNames = userNames;
+            this.categoryNames = categoryNames;
+        }
+    }
+
+    /**
+     * One partition's versions. Only the partition's writer uses the fields other
+     * than {@code published}, which snapshots read.
+     */
+    private static final class Log {
+        final StringDictionary users = new StringDictionary();
+        final StringDictionary categories = new StringDictionary();
+        String[] userNames = new String[16];
+        String[] categoryNames = new String[16];
+        Columns columns = new Columns(INITIAL_CAPACITY);
+        int size;
+        int live;
+        long copiedAt;
+        int[] index = new int[INITIAL_CAPACITY * 2];  // version + 1 by ID hash; 0 is an empty slot
+        volatile View published = new View(columns, 0, 0, 0, userNames, categoryNames);
+    }
+
+    /**
+     * A consistent view of every partition as of one commit. Reading it takes no
+     * locks; holding it keeps the logs it reads from alive.
+     */
+    static final class Snapshot {
+        private final long stamp;
+        private final View[] views;
+
+        private Snapshot(long stamp, View[] views) {
+            this.stamp = stamp;
+            this.views = views;
+        }
+
+        /**
+         * @return Clock reading the snapshot was taken at; it includes no later commit.
+         */
+        long getStamp() {
+            return stamp;
+        }
+
+        /**
+         * Visits the expenses one partition held at the snapshot, as
+         * {@link ExpenseStore#scan} does. Each log code is translated to the caller's
+         * dictionaries once.
+         *
+         * @param partition  The partition.
+         * @param users      Dictionary for user IDs.
+         * @param categories Dictionary for categories.
+         * @param visitor    Receives each row.
+         */
+        void scan(int partition, StringDictionary users, StringDictionary categories,
+                  ExpenseStore.RowVisitor visitor) {
+            View view = views[partition];
+            long cutoff = Math.min(stamp, view.stamp);
+            Columns c = view.columns;
+            int[] userMap = new int[view.userNames.length];
+            int[] categoryMap = new int[view.categoryNames.length];
+            Arrays.fill(userMap, -1);
+            Arrays.fill(categoryMap, -1);
+            for (int v = 0; v < view.size; v++) {
+                if (c.addedAt[v] > cutoff || c.deletedAt[v] <= cutoff) continue;
+                int user = c.userCodes[v];
+                int userCode = userMap[user];
+                if (userCode < 0) {
+                    userCode = users.encode(view.userNames[user]);
+                    userMap[user] = userCode;
+                }
+                int category = c.categoryCodes[v];
+                int categoryCode = categoryMap[category];
+                if (categoryCode < 0) {
+                    categoryCode = categories.encode(view.categoryNames[category]);
+                    categoryMap[category] = categoryCode;
+                }
+                visitor.visit(userCode, c.epochDays[v], categoryCode, c.amountCents[v]);
+            }
+        }
+    }
+
+    /**
+     * Captures the latest committed state of every partition.
+     *
+     * @return The snapshot.
+     */
+    Snapshot snapshot() {
+        View[] views = new View[logs.length];
+        while (true) {
+            long stamp = clock.get();
+            boolean copied = false;
+            for (int i = 0; i < logs.length && !copied; i++) {
+                views[i] = logs[i].published;
+                copied = views[i].copiedAt > stamp;  // dropped versions the snapshot needs; rare
+            }
+            if (!copied) {
+                return new Snapshot(stamp, views);
+            }
+        }
+    }
+
+    /**
+     * @return Versions held in the current logs, superseded ones included.
+     */
+    long versionCount() {
+        long count = 0;
+        for (Log log : logs) {
+            count += log.published.size;
+        }
+        return count;
+    }
+
+    @Override
+    public void onAdded(Expense expense) {
+        Log log = logOf(expense);
+        ensureCapacity(log);
+        commit(log, append(log, expense), -1);
+    }
+
+    @Override
+    public void onUpdated(Expense before, Expense after) {
+        Log log = logOf(after);
+        ensureCapacity(log);
+        int old = find(log, before);
+        commit(log, append(log, after), old);
+    }
+
+    @Override
+    public void onRemoved(Expense expense) {
+        Log log = logOf(expense);
+        int old = find(log, expense);
+        if (old >= 0) {
+            commit(log, -1, old);
+        }
+    }
+
+    private Log logOf(Expense expense) {
+        return logs[partitionOf.applyAsInt(expense.getUserId())];
+    }
+
+    /**
+     * Publishes an appended version and a deletion under one new stamp. Snapshots
+     * that read the stamp before the log's view is replaced do not see either.
+     *
+     * @param added    The version appended at the end of the log, or -1.
+     * @param replaced The version deleted, or -1.
+     */
+    private void commit(Log log, int added, int replaced) {
+        long stamp = clock.incrementAndGet();
+        if (replaced >= 0) {
+            log.columns.deletedAt[replaced] = stamp;
+            log.live--;
+        }
+        if (added >= 0) {
+            log.columns.addedAt[added] = stamp;
+            log.size++;
+            log.live++;
+        }
+        log.published = new View(log.columns, log.size, stamp, log.copiedAt, log.userNames, log.categoryNames);
+    }
+
+    /**
+     * Writes a version past the end of the log, where no snapshot reads, and indexes it.
+     *
+     * @return The new version, to be published by {@link #commit}.
+     */
+    private int append(Log log, Expense expense) {
+        Columns c = log.columns;
+        int v = log.size;
+        int h = idHash(expense.getId());
+        c.idHashes[v] = h;
+        c.userCodes[v] = encodeUser(log, expense.getUserId());
+        c.epochDays[v] = (int) expense.getDate().toEpochDay();
+        c.categoryCodes[v] = encodeCategory(log, expense.getCategory());
+        c.amountCents[v] = expense.getAmountCents();
+        c.addedAt[v] = LIVE;  // stamped by commit
+        c.deletedAt[v] = LIVE;
+        insert(log.index, h, v);
+        return v;
+    }
+
+    /**
+     * Finds the live version of an expense. Versions are matched by ID hash and
+     * content, so of two colliding live versions either may be returned; reports
+     * cannot tell them apart.
+     *
+     * @return The version, or -1 if not found.
+     */
+    private int find(Log log, Expense expense) {
+        int user = log.users.lookup(expense.getUserId());
+        int category = log.categories.lookup(expense.getCategory());
+        if (user < 0 || category < 0) return -1;
+        int day = (int) expense.getDate().toEpochDay();
+        long amount = expense.getAmountCents();
+        int h = idHash(expense.getId());
+        Columns c = log.columns;
+        int[] index = log.index;
+        int mask = index.length - 1;
+        for (int slot = h & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int v = index[slot] - 1;
+            if (c.idHashes[v] == h && c.deletedAt[v] == LIVE && c.userCodes[v] == user
+                    && c.categoryCodes[v] == category && c.epochDays[v] == day && c.amountCents[v] == amount) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes room for one more version: once the log is full, its live versions are
+     * copied into a new log half again their number in size, which is published in
+     * place of the old one without a new stamp, as it holds the same live state. A
+     * snapshot that read the clock before the log's last commit needs versions
+     * deleted since, so it takes the views again.
+     */
+    private void ensureCapacity(Log log) {
+        Columns old = log.columns;
+        if (log.size < old.deletedAt.length) return;
+        int capacity = Math.max(INITIAL_CAPACITY, log.live + (log.live >> 1));
+        Columns c = new Columns(capacity);
+        int slots = INITIAL_CAPACITY * 2;
+        while (capacity * 4 > slots * 3) {
+            slots *= 2;
+        }
+        int[] index = new int[slots];
+        int size = 0;
+        for (int v = 0; v < log.size; v++) {
+            if (old.deletedAt[v] != LIVE) continue;
+            c.idHashes[size] = old.idHashes[v];
+            c.userCodes[size] = old.userCodes[v];
+            c.epochDays[size] = old.epochDays[v];
+            c.categoryCodes[size] = old.categoryCodes[v];
+            c.amountCents[size] = old.amountCents[v];
+            c.addedAt[size] = old.addedAt[v];
+            c.deletedAt[size] = LIVE;
+            insert(index, old.idHashes[v], size);
+            size++;
+        }
+        long stamp = log.published.stamp;
+        log.index = index;
+        log.columns = c;
+        log.size = size;
+        log.copiedAt = stamp;
+        log.published = new View(c, size, stamp, stamp, log.userNames, log.categoryNames);
+    }
+
+    /**
+     * Adds a version to an index, which is at most three quarters full when the log
+     * is, so probes stay short and always end.
+     */
+    private static void insert(int[] index, int h, int v) {
+        int mask = index.length - 1;
+        int slot = h & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = v + 1;
+    }
+
+    private int encodeUser(Log log, String userId) {
+        int known = log.users.size();
+        int code = log.users.encode(userId);
+        if (code == known) {
+            if (code == log.userNames.length) {
+                log.userNames = Arrays.copyOf(log.userNames, code * 2);
+            }
+            log.userNames[code] = userId;
+        }
+        return code;
+    }
+
+    private int encodeCategory(Log log, String category) {
+        int known = log.categories.size();
+        int code = log.categories.encode(category);
+        if (code == known) {
+            if (code == log.categoryNames.length) {
+                log.categoryNames = Arrays.copyOf(log.categoryNames, code * 2);
+            }
+            log.categoryNames[code] = category;
+        }
+        return code;
+    }
+
+    private static int idHash(String id) {
+        int h = id.hashCode() * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,336 @@
+package service;
+
+import util.StringDictionary;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Per-partition stage of a {@link ReportQuery}: groups scanned rows in a primitive
+ * open-addressing table keyed by (user code, category code, time bucket), then
+ * decodes the groups so partial results from different partitions can be merged.
+ * The sealed months of an {@link ExpenseArchive} are aggregated the same way, from
+ * their stored block totals where those suffice.
+ */
+class GroupAggregator implements ExpenseStore.RowVisitor {
+
+    /**
+     * Decoded group key; dimensions that are not grouped by are null / 0.
+     */
+    static final class Key {
+        final String userId;
+        final String category;
+        final int time;
+
+        Key(String userId, String category, int time) {
+            this.userId = userId;
+            this.category = category;
+            this.time = time;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return time == k.time && Objects.equals(userId, k.userId) && Objects.equals(category, k.category);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, category, time);
+        }
+    }
+
+    /**
+     * Running statistics of one group.
+     */
+    static final class Stats {
+        long count;
+        long sum;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long[] values;      // null unless percentiles were requested
+        int valueCount;
+
+        void merge(Stats other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            if (values != null) {
+                if (values.length < valueCount + other.valueCount) {
+                    values = Arrays.copyOf(values, valueCount + other.valueCount);
+                }
+                System.arraycopy(other.values, 0, values, valueCount, other.valueCount);
+                valueCount += other.valueCount;
+            }
+        }
+    }
+
+    private final boolean byUser;
+    private final boolean byCategory;
+    private final ReportQuery.Dimension time;
+    private final boolean keepValues;
+    private final int fromDay;
+    private final int toDay;
+    private final Set<String> userFilter;
+
+    private final StringDictionary users = new StringDictionary();
+    private final StringDictionary categories = new StringDictionary();
+    private byte[] userAllowed = new byte[16];   // by user code: 0 unknown, 1 allowed, 2 filtered out
+
+    private int groups;
+    private int[] table = new int[64];            // group + 1; 0 is an empty slot
+    private int[] keyUser = new int[32];
+    private int[] keyCategory = new int[32];
+    private int[] keyTime = new int[32];
+    private long[] count = new long[32];
+    private long[] sum = new long[32];
+    private long[] min = new long[32];
+    private long[] max = new long[32];
+    private long[][] values = new long[32][];
+    private int[] valueCounts = new int[32];
+
+    GroupAggregator(ReportQuery query) {
+        byUser = query.getDimensions().contains(ReportQuery.Dimension.USER);
+        byCategory = query.getDimensions().contains(ReportQuery.Dimension.CATEGORY);
+        time = query.getTimeDimension();
+        keepValues = query.getPercentiles().length > 0;
+        fromDay = query.getFrom() == null ? Integer.MIN_VALUE : (int) query.getFrom().toEpochDay();
+        toDay = query.getTo() == null ? Integer.MAX_VALUE : (int) query.getTo().toEpochDay();
+        userFilter = query.getUserIds();
+    }
+
+    /**
+     * Scans one store and returns its decoded groups.
+     */
+    Map<Key, Stats> aggregate(ExpenseStore store) {
+        store.scan(users, categories, this);
+        return result();
+    }
+
+    /**
+     * Scans one partition of a version snapshot and returns its decoded groups.
+     */
+    Map<Key, Stats> aggregate(ExpenseVersions.Snapshot snapshot, int partition) {
+        snapshot.scan(partition, users, categories, this);
+        return result();
+    }
+
+    /**
+     * Adds one row held outside a store, such as a sealed one.
+     */
+    void visit(String userId, int epochDay, String category, long amountCents) {
+        visit(users.encode(userId), epochDay, categories.encode(category), amountCents);
+    }
+
+    /**
+     * @param first First day of a span of rows.
+     * @param last  Last day of the span.
+     * @return true if precomputed totals for the span can stand in for its rows:
+     * the span lies inside the date filter, falls in a single time bucket
+     * (there is no time dimension, or it is a month grouped by month) and no
+     * percentiles are needed.
+     */
+    boolean canUseTotals(LocalDate first, LocalDate last) {
+        return !keepValues && (time == null || time == ReportQuery.Dimension.MONTH)
+                && first.toEpochDay() >= fromDay && last.toEpochDay() <= toDay;
+    }
+
+    /**
+     * Adds precomputed totals of rows sharing a user, a category and a time bucket
+     * (see {@link #canUseTotals}).
+     *
+     * @param epochDay Any day in the rows' time bucket.
+     */
+    void visitTotals(String userId, int epochDay, String category, long rows, long totalCents,
+                     long minCents, long maxCents) {
+        int userCode = users.encode(userId);
+        if (userFilter != null && !isAllowed(userCode)) return;
+        int g = findOrAddGroup(byUser ? userCode : 0, byCategory ? categories.encode(category) : 0,
+                time == null ? 0 : bucket(time, epochDay));
+        count[g] += rows;
+        sum[g] += totalCents;
+        if (minCents < min[g]) min[g] = minCents;
+        if (maxCents > max[g]) max[g] = maxCents;
+    }
+
+    /**
+     * @return The groups gathered so far, decoded.
+     */
+    Map<Key, Stats> result() {
+        Map<Key, Stats> result = new HashMap<>(groups * 2);
+        for (int g = 0; g < groups; g++) {
+            Stats stats = new Stats();
+            stats.count = count[g];
+            stats.sum = sum[g];
+            stats.min = min[g];
+            stats.max = max[g];
+            if (keepValues) {
+                stats.values = values[g];
+                stats.valueCount = valueCounts[g];
+            }
+            result.put(new Key(byUser ? users.decode(keyUser[g]) : null,
+                    byCategory ? categories.decode(keyCategory[g]) : null, keyTime[g]), stats);
+        }
+        return result;
+    }
+
+    /**
+     * Merges partial results, folding the smaller map into the larger one.
+     */
+    static Map<Key, Stats> merge(Map<Key, Stats> a, Map<Key, Stats> b) {
+        if (a.size() < b.size()) {
+            Map<Key, Stats> t = a;
+            a = b;
+            b = t;
+        }
+        for (Map.Entry<Key, Stats> entry : b.entrySet()) {
+            Stats existing = a.putIfAbsent(entry.getKey(), entry.getValue());
+            if (existing != null) {
+                existing.merge(entry.getValue());
+            }
+        }
+        return a;
+    }
+
+    @Override
+    public void visit(int userCode, int epochDay, int categoryCode, long amountCents) {
+        if (epochDay < fromDay || epochDay > toDay) return;
+        if (userFilter != null && !isAllowed(userCode)) return;
+
+        int u = byUser ? userCode : 0;
+        int c = byCategory ? categoryCode : 0;
+        int t = time == null ? 0 : bucket(time, epochDay);
+        int g = findOrAddGroup(u, c, t);
+        count[g]++;
+        sum[g] += amountCents;
+        if (amountCents < min[g]) min[g] = amountCents;
+        if (amountCents > max[g]) max[g] = amountCents;
+        if (keepValues) {
+            long[] v = values[g];
+            if (valueCounts[g] == v.length) {
+                v = Arrays.copyOf(v, v.length * 2);
+                values[g] = v;
+            }
+            v[valueCounts[g]++] = amountCents;
+        }
+    }
+
+    /**
+     * Maps an epoch day to its time bucket: the day itself, the epoch day of the
+     * week's Monday, or year * 12 + month - 1.
+     */
+    static int bucket(ReportQuery.Dimension time, int epochDay) {
+        switch (time) {
+            case DAY:
+                return epochDay;
+            case WEEK:
+                return epochDay - Math.floorMod(epochDay + 3, 7); // 1970-01-01 was a Thursday
+            default:
+                return monthIndex(epochDay);
+        }
+    }
+
+    /**
+     * @return First day of a time bucket, or null when there is no time dimension.
+     */
+    static LocalDate periodStart(ReportQuery.Dimension time, int bucket) {
+        if (time == null) return null;
+        if (time == ReportQuery.Dimension.MONTH) {
+            return LocalDate.of(Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1, 1);
+        }
+        return LocalDate.ofEpochDay(bucket);
+    }
+
+    /**
+     * Civil-from-days conversion (proleptic Gregorian), avoiding a LocalDate per row.
+     */
+    private static int monthIndex(int epochDay) {
+        long z = epochDay + 719468L;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    private boolean isAllowed(int userCode) {
+        if (userCode >= userAllowed.length) {
+            userAllowed = Arrays.copyOf(userAllowed, Math.max(userCode + 1, userAllowed.length * 2));
+        }
+        if (userAllowed[userCode] == 0) {
+            userAllowed[userCode] = userFilter.contains(users.decode(userCode)) ? (byte) 1 : (byte) 2;
+        }
+        return userAllowed[userCode] == 1;
+    }
+
+    private int findOrAddGroup(int u, int c, int t) {
+        int mask = table.length - 1;
+        int slot = hash(u, c, t) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) break;
+            int g = entry - 1;
+            if (keyUser[g] == u && keyCategory[g] == c && keyTime[g] == t) {
+                return g;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (groups == keyUser.length) {
+            growGroups(groups * 2);
+        }
+        int g = groups++;
+        keyUser[g] = u;
+        keyCategory[g] = c;
+        keyTime[g] = t;
+        min[g] = Long.MAX_VALUE;
+        max[g] = Long.MIN_VALUE;
+        if (keepValues) {
+            values[g] = new long[8];
+        }
+        if (groups * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            table[slot] = g + 1;
+        }
+        return g;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int g = 0; g < groups; g++) {
+            int slot = hash(keyUser[g], keyCategory[g], keyTime[g]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = g + 1;
+        }
+    }
+
+    private void growGroups(int capacity) {
+        keyUser = Arrays.copyOf(keyUser, capacity);
+        keyCategory = Arrays.copyOf(keyCategory, capacity);
+        keyTime = Arrays.copyOf(keyTime, capacity);
+        count = Arrays.copyOf(count, capacity);
+        sum = Arrays.copyOf(sum, capacity);
+        min = Arrays.copyOf(min, capacity);
+        max = Arrays.copyOf(max, capacity);
+        values = Arrays.copyOf(values, capacity);
+        valueCounts = Arrays.copyOf(valueCounts, capacity);
+    }
+
+    private static int hash(int u, int c, int t) {
+        int h = u * 0x9E3779B1 + c * 0x85EBCA77 + t * 0xC2B2AE3D;
+        return h ^ (h >>> 15);
+    }
+}
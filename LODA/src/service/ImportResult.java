@@ -0,0 +1,66 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were stored and which were rejected.
+ */
+public class ImportResult {
+
+    /**
+     * One rejected input row.
+     */
+    public static class Rejection {
+        private final int row;
+        private final String reason;
+
+        /**
+         * @param row    1-based row number in the input.
+         * @param reason Why the row was rejected.
+         */
+        public Rejection(int row, String reason) {
+            this.row = row;
+            this.reason = reason;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Row " + row + ": " + reason;
+        }
+    }
+
+    private int accepted;
+    private final List<Rejection> rejections = new ArrayList<>();
+
+    void addAccepted(int count) {
+        accepted += count;
+    }
+
+    void reject(int row, String reason) {
+        rejections.add(new Rejection(row, reason));
+    }
+
+    /**
+     * @return Number of rows stored.
+     */
+    public int getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return Rejected rows, in input order.
+     */
+    public List<Rejection> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+}
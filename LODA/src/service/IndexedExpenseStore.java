@@ -0,0 +1,93 @@
+package service;
+
+import model.Expense;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Object-per-row expense store with an ID primary-key map and a per-user index.
+ */
+public class IndexedExpenseStore implements ExpenseStore {
+    private final Map<String, Expense> expensesById = new LinkedHashMap<>();             // expenseId -> expense
+    private final Map<String, Map<String, Expense>> expensesByUser = new HashMap<>();   // userId -> (expenseId -> expense)
+
+    @Override
+    public void put(Expense expense) {
+        Expense previous = expensesById.put(expense.getId(), expense);
+        if (previous != null && !previous.getUserId().equals(expense.getUserId())) {
+            unindexUser(previous);
+        }
+        expensesByUser.computeIfAbsent(expense.getUserId(), k -> new LinkedHashMap<>()).put(expense.getId(), expense);
+    }
+
+    @Override
+    public Expense get(String expenseId) {
+        return expensesById.get(expenseId);
+    }
+
+    @Override
+    public Expense remove(String expenseId) {
+        Expense removed = expensesById.remove(expenseId);
+        if (removed != null) {
+            unindexUser(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public List<Expense> findByUser(String userId) {
+        Map<String, Expense> owned = expensesByUser.get(userId);
+        if (owned == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(owned.values());
+    }
+
+    @Override
+    public List<Expense> findByUser(String userId, int offset, int limit) {
+        Map<String, Expense> owned = expensesByUser.get(userId);
+        List<Expense> result = new ArrayList<>();
+        if (owned == null) {
+            return result;
+        }
+        Iterator<Expense> it = owned.values().iterator();
+        for (int i = 0; i < offset && it.hasNext(); i++) {
+            it.next();
+        }
+        while (result.size() < limit && it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    @Override
+    public int countByUser(String userId) {
+        Map<String, Expense> owned = expensesByUser.get(userId);
+        return owned == null ? 0 : owned.size();
+    }
+
+    @Override
+    public int size() {
+        return expensesById.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Expense> action) {
+        expensesById.values().forEach(action);
+    }
+
+    private void unindexUser(Expense e) {
+        Map<String, Expense> owned = expensesByUser.get(e.getUserId());
+        if (owned == null) return;
+        owned.remove(e.getId());
+        if (owned.isEmpty()) {
+            expensesByUser.remove(e.getUserId());
+        }
+    }
+}
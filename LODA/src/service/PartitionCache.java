@@ -0,0 +1,141 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Residency bookkeeping for lazily loaded expense partitions: which partitions
+ * are in memory, how many expenses they hold, when each was last used, and
+ * hit/miss/eviction counters.
+ * <p>
+ * The cache does not load or evict anything itself; {@link ExpenseManager} does,
+ * under the partition locks, and reports back here. Recording a hit is lock-free
+ * so that reads of resident partitions do not contend with each other.
+ */
+public class PartitionCache {
+    private static final int NOT_RESIDENT = -1;
+
+    private final long maxResidentExpenses;
+    private final AtomicLongArray lastAccess;
+    private final AtomicIntegerArray sizes;
+    private final AtomicLong residentExpenses = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxResidentExpenses Budget of expenses held in memory across all partitions.
+     * @param partitions          Number of partitions.
+     */
+    PartitionCache(long maxResidentExpenses, int partitions) {
+        this.maxResidentExpenses = maxResidentExpenses;
+        this.lastAccess = new AtomicLongArray(partitions);
+        this.sizes = new AtomicIntegerArray(partitions);
+        for (int i = 0; i < partitions; i++) {
+            sizes.set(i, NOT_RESIDENT);
+        }
+    }
+
+    void hit(int partition) {
+        hits.increment();
+        lastAccess.set(partition, System.nanoTime());
+    }
+
+    void loaded(int partition, int size) {
+        misses.increment();
+        lastAccess.set(partition, System.nanoTime());
+        sizes.set(partition, size);
+        residentExpenses.addAndGet(size);
+    }
+
+    void resized(int partition, int size) {
+        int previous = sizes.getAndSet(partition, size);
+        if (previous != NOT_RESIDENT) {
+            residentExpenses.addAndGet(size - previous);
+        }
+    }
+
+    void evicted(int partition) {
+        int previous = sizes.getAndSet(partition, NOT_RESIDENT);
+        if (previous != NOT_RESIDENT) {
+            residentExpenses.addAndGet(-previous);
+            evictions.increment();
+        }
+    }
+
+    boolean isOverBudget() {
+        return residentExpenses.get() > maxResidentExpenses;
+    }
+
+    /**
+     * @return Resident partitions, least recently used first. The most recently
+     *         used partition is left out so the working partition is never evicted.
+     */
+    List<Integer> coldest() {
+        List<Integer> resident = new ArrayList<>();
+        for (int i = 0; i < sizes.length(); i++) {
+            if (sizes.get(i) != NOT_RESIDENT) {
+                resident.add(i);
+            }
+        }
+        resident.sort((a, b) -> Long.compare(lastAccess.get(a), lastAccess.get(b)));
+        if (!resident.isEmpty()) {
+            resident.remove(resident.size() - 1);
+        }
+        return resident;
+    }
+
+    /**
+     * @return Accesses served by a partition already in memory.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Accesses that had to load a partition from disk.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Partitions dropped from memory to stay within the budget.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Expenses currently held in memory.
+     */
+    public long getResidentExpenses() {
+        return residentExpenses.get();
+    }
+
+    /**
+     * @return Partitions currently held in memory.
+     */
+    public int getResidentPartitions() {
+        int resident = 0;
+        for (int i = 0; i < sizes.length(); i++) {
+            if (sizes.get(i) != NOT_RESIDENT) resident++;
+        }
+        return resident;
+    }
+
+    public long getMaxResidentExpenses() {
+        return maxResidentExpenses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PartitionCache{hits=%d, misses=%d, evictions=%d, resident=%d/%d expenses in %d partitions}",
+                getHits(), getMisses(), getEvictions(), getResidentExpenses(), maxResidentExpenses,
+                getResidentPartitions());
+    }
+}
@@ -0,0 +1,295 @@
+package service;
+
+import model.Expense;
+import model.RecurringRule;
+import model.User;
+import util.Money;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Recurring expenses such as rent and subscriptions, kept as compact rules rather
+ * than rows.
+ * <p>
+ * Occurrences that are due (dated today or earlier) are materialized as ordinary
+ * expenses by a background scheduler, so they are journaled, budgeted and searchable
+ * like any other expense. Later occurrences are never stored: the manager is an
+ * {@link ExpenseProjection}, so they appear in date-window listings and monthly
+ * totals only when those windows are asked for.
+ * <p>
+ * The scheduler keeps rules in a priority queue ordered by next due date and pops
+ * only the rules that are due, so a run costs O(due x log n) however many rules
+ * exist. Removed rules are left in the queue and skipped when they surface.
+ * A materialized occurrence gets an ID derived from its rule and occurrence number,
+ * so redoing the work after a crash between adding it and saving the rule does not
+ * add it twice.
+ * <p>
+ * Rules are saved to {@code recurring.csv} as
+ * {@code id,userId,category,amount,frequency,interval,start,end,next,description},
+ * where {@code end} may be empty and {@code next} is the first occurrence not yet
+ * materialized.
+ */
+public class RecurringManager implements ExpenseProjection, Closeable {
+    private static final String DATA_DIR = "data";
+    private static final long CHECK_INTERVAL_MINUTES = 60;
+
+    /**
+     * A rule and its materialization progress.
+     */
+    private static class Schedule {
+        final RecurringRule rule;
+        long next;           // first occurrence not yet materialized
+        LocalDate nextDate;  // its date, or null once the rule has ended
+        boolean removed;
+
+        Schedule(RecurringRule rule, long next) {
+            this.rule = rule;
+            this.next = next;
+            this.nextDate = rule.occurrence(next);
+        }
+    }
+
+    private final ExpenseManager expenseManager;
+    private final File file;
+    private final Map<String, Schedule> byId = new HashMap<>();
+    private final Map<String, List<Schedule>> byUser = new HashMap<>();
+    private final PriorityQueue<Schedule> due = new PriorityQueue<>(Comparator.comparing(s -> s.nextDate));
+    private final ScheduledExecutorService scheduler;
+
+    public RecurringManager(ExpenseManager expenseManager) {
+        this(expenseManager, DATA_DIR);
+    }
+
+    /**
+     * Loads saved rules, registers them as a projection and starts the scheduler,
+     * which materializes anything already due right away and then checks hourly.
+     *
+     * @param expenseManager Receives materialized occurrences.
+     * @param dataDir        Directory holding {@code recurring.csv}.
+     */
+    public RecurringManager(ExpenseManager expenseManager, String dataDir) {
+        this.expenseManager = expenseManager;
+        this.file = new File(dataDir, "recurring.csv");
+        loadRules();
+        expenseManager.addProjection(this);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "recurring-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> materializeDue(LocalDate.now()),
+                0, CHECK_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Adds a rule and materializes any occurrences already due.
+     *
+     * @param user        The user.
+     * @param category    Category of each occurrence.
+     * @param amountCents Amount of each occurrence, in cents.
+     * @param description Description of each occurrence.
+     * @param frequency   Unit of repetition.
+     * @param interval    Number of units between occurrences; at least 1.
+     * @param start       Date of the first occurrence.
+     * @param end         Last day an occurrence may fall on, or null for no end.
+     * @return The new rule.
+     */
+    public RecurringRule addRule(User user, String category, long amountCents, String description,
+                                 RecurringRule.Frequency frequency, int interval, LocalDate start, LocalDate end) {
+        RecurringRule rule = new RecurringRule(UUID.randomUUID().toString(), user.getId(), category, amountCents,
+                description, frequency, interval, start, end);
+        synchronized (this) {
+            track(new Schedule(rule, 0));
+            saveRules();
+        }
+        materializeDue(LocalDate.now());
+        return rule;
+    }
+
+    /**
+     * Removes a rule. Occurrences already materialized are kept.
+     *
+     * @param user   The owner.
+     * @param ruleId The rule.
+     * @return true if the rule existed, belonged to the user and the change was saved.
+     */
+    public synchronized boolean removeRule(User user, String ruleId) {
+        Schedule schedule = byId.get(ruleId);
+        if (schedule == null || !schedule.rule.getUserId().equals(user.getId())) {
+            return false;
+        }
+        schedule.removed = true;
+        byId.remove(ruleId);
+        List<Schedule> schedules = byUser.get(user.getId());
+        schedules.remove(schedule);
+        if (schedules.isEmpty()) {
+            byUser.remove(user.getId());
+        }
+        return saveRules();
+    }
+
+    /**
+     * @param user The user.
+     * @return The user's rules, ordered by start date.
+     */
+    public synchronized List<RecurringRule> getRules(User user) {
+        List<RecurringRule> rules = new ArrayList<>();
+        List<Schedule> schedules = byUser.get(user.getId());
+        if (schedules != null) {
+            for (Schedule schedule : schedules) {
+                rules.add(schedule.rule);
+            }
+        }
+        rules.sort(Comparator.comparing(RecurringRule::getStartDate).thenComparing(RecurringRule::getId));
+        return rules;
+    }
+
+    /**
+     * Adds every occurrence dated on or before a day that has not been added yet.
+     * Run by the scheduler; rule progress is saved once per run.
+     *
+     * @param today The last day to materialize.
+     * @return Number of expenses added.
+     */
+    public synchronized int materializeDue(LocalDate today) {
+        int added = 0;
+        boolean changed = false;
+        while (!due.isEmpty() && !due.peek().nextDate.isAfter(today)) {
+            Schedule schedule = due.poll();
+            if (schedule.removed) continue;
+            while (schedule.nextDate != null && !schedule.nextDate.isAfter(today)) {
+                if (expenseManager.addExpenseIfAbsent(occurrence(schedule.rule, schedule.next, schedule.nextDate))) {
+                    added++;
+                }
+                schedule.next++;
+                schedule.nextDate = schedule.rule.occurrence(schedule.next);
+            }
+            changed = true;
+            if (schedule.nextDate != null) {
+                due.add(schedule);
+            }
+        }
+        if (changed) {
+            saveRules();
+        }
+        return added;
+    }
+
+    @Override
+    public synchronized void project(String userId, LocalDate from, LocalDate to, Consumer<Expense> out) {
+        List<Schedule> schedules = byUser.get(userId);
+        if (schedules == null) return;
+        for (Schedule schedule : schedules) {
+            if (schedule.nextDate == null) continue;
+            RecurringRule rule = schedule.rule;
+            LocalDate date;
+            for (long index = Math.max(schedule.next, rule.firstIndexOnOrAfter(from));
+                 (date = rule.occurrence(index)) != null && !date.isAfter(to); index++) {
+                out.accept(occurrence(rule, index, date));
+            }
+        }
+    }
+
+    /**
+     * Stops the scheduler. Rule progress is saved as it is made.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return The expense for one occurrence; its ID depends only on the rule and index.
+     */
+    private static Expense occurrence(RecurringRule rule, long index, LocalDate date) {
+        String id = UUID.nameUUIDFromBytes((rule.getId() + "#" + index).getBytes(StandardCharsets.UTF_8)).toString();
+        return new Expense(id, rule.getUserId(), date, rule.getCategory(), rule.getAmountCents(), rule.getDescription());
+    }
+
+    private void track(Schedule schedule) {
+        byId.put(schedule.rule.getId(), schedule);
+        byUser.computeIfAbsent(schedule.rule.getUserId(), k -> new ArrayList<>()).add(schedule);
+        if (schedule.nextDate != null) {
+            due.add(schedule);
+        }
+    }
+
+    private void loadRules() {
+        if (!file.exists()) return;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",", 10);
+                if (parts.length != 10) continue;
+                try {
+                    RecurringRule rule = new RecurringRule(parts[0], parts[1], parts[2], Money.parse(parts[3]), parts[9],
+                            RecurringRule.Frequency.valueOf(parts[4]), Integer.parseInt(parts[5]),
+                            LocalDate.parse(parts[6]), parts[7].isEmpty() ? null : LocalDate.parse(parts[7]));
+                    track(new Schedule(rule, Long.parseLong(parts[8])));
+                } catch (RuntimeException e) {
+                    System.err.println("Error parsing recurring rule: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading recurring rules: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every rule to a temporary file, fsyncs it and renames it into place.
+     * Called with this manager locked.
+     */
+    private boolean saveRules() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists()) {
+                parent.mkdirs();
+            }
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                 BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
+                StringBuilder sb = new StringBuilder(160);
+                for (Schedule schedule : byId.values()) {
+                    RecurringRule r = schedule.rule;
+                    sb.setLength(0);
+                    sb.append(r.getId()).append(',').append(r.getUserId()).append(',').append(r.getCategory()).append(',');
+                    Money.append(sb, r.getAmountCents()).append(',')
+                            .append(r.getFrequency()).append(',').append(r.getInterval()).append(',')
+                            .append(r.getStartDate()).append(',').append(r.getEndDate() == null ? "" : r.getEndDate())
+                            .append(',').append(schedule.next).append(',').append(r.getDescription());
+                    bw.write(sb.toString());
+                    bw.newLine();
+                }
+                bw.flush();
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving recurring rules: " + e.getMessage());
+            return false;
+        }
+    }
+}
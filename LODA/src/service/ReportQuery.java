@@ -0,0 +1,128 @@
+package service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a grouped spending report: which dimensions to group by, which
+ * percentiles to compute, and optional user and date filters. Every report row
+ * carries count, sum, average, min and max.
+ */
+public class ReportQuery {
+
+    /**
+     * A dimension to group by. At most one time dimension (day, week or month) may be used.
+     */
+    public enum Dimension {
+        CATEGORY, USER, DAY, WEEK, MONTH;
+
+        boolean isTime() {
+            return this == DAY || this == WEEK || this == MONTH;
+        }
+    }
+
+    private final List<Dimension> dimensions = new ArrayList<>();
+    private double[] percentiles = new double[0];
+    private Set<String> userIds;
+    private LocalDate from;
+    private LocalDate to;
+
+    /**
+     * Adds grouping dimensions; rows are ordered by the dimensions in the order given.
+     *
+     * @param dimensions Dimensions to group by.
+     * @return This query.
+     * @throws IllegalArgumentException if a dimension repeats or a second time dimension is added.
+     */
+    public ReportQuery groupBy(Dimension... dimensions) {
+        for (Dimension dimension : dimensions) {
+            if (this.dimensions.contains(dimension)) {
+                throw new IllegalArgumentException("Duplicate dimension: " + dimension);
+            }
+            if (dimension.isTime() && getTimeDimension() != null) {
+                throw new IllegalArgumentException("Only one of DAY, WEEK and MONTH can be used");
+            }
+            this.dimensions.add(dimension);
+        }
+        return this;
+    }
+
+    /**
+     * Requests exact percentiles of the amounts in each group. Computing them keeps
+     * every matching amount in memory (8 bytes per row) until the report is built.
+     *
+     * @param percentiles Percentiles between 0 and 100, e.g. 50, 90, 99.
+     * @return This query.
+     */
+    public ReportQuery percentiles(double... percentiles) {
+        for (double p : percentiles) {
+            if (p < 0 || p > 100 || Double.isNaN(p)) {
+                throw new IllegalArgumentException("Percentile out of range: " + p);
+            }
+        }
+        this.percentiles = percentiles.clone();
+        return this;
+    }
+
+    /**
+     * Restricts the report to some users; only their partitions are scanned.
+     *
+     * @param userIds The users.
+     * @return This query.
+     */
+    public ReportQuery forUsers(String... userIds) {
+        this.userIds = new LinkedHashSet<>(Arrays.asList(userIds));
+        return this;
+    }
+
+    /**
+     * Restricts the report to a date window.
+     *
+     * @param from First day (inclusive).
+     * @param to   Last day (inclusive).
+     * @return This query.
+     */
+    public ReportQuery between(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public List<Dimension> getDimensions() {
+        return Collections.unmodifiableList(dimensions);
+    }
+
+    public double[] getPercentiles() {
+        return percentiles.clone();
+    }
+
+    /**
+     * @return The user filter, or null for all users.
+     */
+    public Set<String> getUserIds() {
+        return userIds == null ? null : Collections.unmodifiableSet(userIds);
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    /**
+     * @return The time dimension grouped by, or null.
+     */
+    Dimension getTimeDimension() {
+        for (Dimension dimension : dimensions) {
+            if (dimension.isTime()) return dimension;
+        }
+        return null;
+    }
+}
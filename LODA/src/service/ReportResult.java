@@ -0,0 +1,129 @@
+package service;
+
+import util.Money;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a grouped report: one row per combination of dimension values,
+ * ordered by the query's dimensions.
+ */
+public class ReportResult {
+
+    /**
+     * Statistics for one group. Dimensions that were not grouped by are null.
+     */
+    public static class Row {
+        private final String category;
+        private final String userId;
+        private final LocalDate period;
+        private final long count;
+        private final long sumCents;
+        private final long minCents;
+        private final long maxCents;
+        private final double[] percentileLevels;
+        private final long[] percentileCents;
+
+        Row(String category, String userId, LocalDate period, long count, long sumCents, long minCents,
+            long maxCents, double[] percentileLevels, long[] percentileCents) {
+            this.category = category;
+            this.userId = userId;
+            this.period = period;
+            this.count = count;
+            this.sumCents = sumCents;
+            this.minCents = minCents;
+            this.maxCents = maxCents;
+            this.percentileLevels = percentileLevels;
+            this.percentileCents = percentileCents;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        /**
+         * @return First day of the day, week (Monday) or month grouped by, or null.
+         */
+        public LocalDate getPeriod() {
+            return period;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumCents() {
+            return sumCents;
+        }
+
+        /**
+         * @return Mean amount, which is generally not a whole number of cents.
+         */
+        public double getAverage() {
+            return count == 0 ? 0 : sumCents / 100.0 / count;
+        }
+
+        public long getMinCents() {
+            return minCents;
+        }
+
+        public long getMaxCents() {
+            return maxCents;
+        }
+
+        /**
+         * @param percentile A percentile requested in the query.
+         * @return The amount in cents at that percentile (nearest rank).
+         * @throws IllegalArgumentException if the percentile was not requested.
+         */
+        public long getPercentileCents(double percentile) {
+            for (int i = 0; i < percentileLevels.length; i++) {
+                if (percentileLevels[i] == percentile) return percentileCents[i];
+            }
+            throw new IllegalArgumentException("Percentile not computed: " + percentile);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (userId != null) sb.append(userId).append(' ');
+            if (period != null) sb.append(period).append(' ');
+            if (category != null) sb.append(category).append(' ');
+            sb.append("count=").append(count);
+            Money.append(sb.append(" sum="), sumCents);
+            Money.append(sb.append(" avg="), count == 0 ? 0 : Math.round((double) sumCents / count));
+            Money.append(sb.append(" min="), minCents);
+            Money.append(sb.append(" max="), maxCents);
+            for (int i = 0; i < percentileLevels.length; i++) {
+                Money.append(sb.append(" p").append(trim(percentileLevels[i])).append('='), percentileCents[i]);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final List<ReportQuery.Dimension> dimensions;
+    private final List<Row> rows;
+
+    ReportResult(List<ReportQuery.Dimension> dimensions, List<Row> rows) {
+        this.dimensions = dimensions;
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    public List<ReportQuery.Dimension> getDimensions() {
+        return dimensions;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    private static String trim(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
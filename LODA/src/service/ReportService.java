@@ -1,8 +1,16 @@
 package service;
 
 import model.Expense;
+import util.LatencyHistogram;
+import util.Metrics;
+import util.Money;
 
 
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,16 +19,10 @@ import java.util.Map;
  * Generates reports and analytics for expenses.
  */
 public class ReportService {
-
-    private static final Map<String, Double> BUDGET_LIMITS = new HashMap<>();
-
-    static {
-        // Hardcoded budget limits for demonstration
-        BUDGET_LIMITS.put("Food", 500.0);
-        BUDGET_LIMITS.put("Travel", 200.0);
-        BUDGET_LIMITS.put("Utilities", 150.0);
-        BUDGET_LIMITS.put("Entertainment", 100.0);
-    }
+    private static final LatencyHistogram CATEGORY_SECONDS = Metrics.global().histogram(
+            "report_category_seconds", "Time to total and print a category report");
+    private static final LatencyHistogram GROUPED_SECONDS = Metrics.global().histogram(
+            "report_grouped_seconds", "Time to compute a grouped report");
 
     /**
      * Generates a spending report by category.
@@ -28,28 +30,152 @@ public class ReportService {
      * @param expenses List of user expenses.
      */
     public void generateCategoryReport(List<Expense> expenses) {
-        Map<String, Double> totals = new HashMap<>();
+        long start = System.nanoTime();
+        printReport("--- Spending by Category ---", sumByCategory(expenses));
+        CATEGORY_SECONDS.recordSince(start);
+    }
 
-        for (Expense e : expenses) {
-            totals.put(e.getCategory(), totals.getOrDefault(e.getCategory(), 0.0) + e.getAmount());
+    /**
+     * Generates a spending report by category for a date window.
+     *
+     * @param expenses User expenses within the window
+     *                 (see {@link ExpenseManager#getExpensesByUser(model.User, LocalDate, LocalDate)}).
+     * @param from     First day of the window.
+     * @param to       Last day of the window.
+     */
+    public void generateCategoryReport(List<Expense> expenses, LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        printReport("--- Spending by Category (" + from + " to " + to + ") ---", sumByCategory(expenses));
+        CATEGORY_SECONDS.recordSince(start);
+    }
+
+    /**
+     * Prints a spending report from precomputed category totals
+     * (see {@link ExpenseManager#getCategoryTotals}).
+     *
+     * @param totals Total spent per category, in cents.
+     */
+    public void generateCategoryReport(Map<String, Long> totals) {
+        long start = System.nanoTime();
+        printReport("--- Spending by Category ---", totals);
+        CATEGORY_SECONDS.recordSince(start);
+    }
+
+    /**
+     * Prints a monthly statement from precomputed category totals
+     * (see {@link ExpenseManager#getCategoryTotals(model.User, YearMonth)}).
+     *
+     * @param totals Total spent per category in the month, in cents.
+     * @param month  The month.
+     */
+    public void generateCategoryReport(Map<String, Long> totals, YearMonth month) {
+        long start = System.nanoTime();
+        printReport("--- Spending by Category (" + month + ") ---", totals);
+        CATEGORY_SECONDS.recordSince(start);
+    }
+
+    /**
+     * Prints spending against a user's budgets in the current periods
+     * (see {@link BudgetManager#getStatus}).
+     *
+     * @param statuses One status per budget.
+     */
+    public void generateBudgetReport(List<BudgetStatus> statuses) {
+        System.out.println("\n--- Budgets ---");
+        if (statuses.isEmpty()) {
+            System.out.println("No budgets set.");
+        }
+        for (BudgetStatus status : statuses) {
+            System.out.println(status);
         }
+        System.out.println("----------------------------");
+    }
+
+    /**
+     * Runs a grouped report over every stored expense (or the query's users) in
+     * parallel: each partition is aggregated on the fork-join pool and the partial
+     * groups are merged, along with those of the sealed months. Unless the manager
+     * is segmented, the partitions are read from one point-in-time snapshot, so
+     * edits made meanwhile neither wait for the report nor show up in it halfway.
+     *
+     * @param expenseManager The expenses to report on.
+     * @param query          Grouping, percentiles and filters.
+     * @return One row per group, ordered by the query's dimensions.
+     */
+    public ReportResult generateReport(ExpenseManager expenseManager, ReportQuery query) {
+        long start = System.nanoTime();
+        Map<GroupAggregator.Key, GroupAggregator.Stats> groups = expenseManager.aggregate(query);
 
-        System.out.println("\n--- Spending by Category ---");
-        for (Map.Entry<String, Double> entry : totals.entrySet()) {
-            String category = entry.getKey();
-            double total = entry.getValue();
-            System.out.printf("%s: $%.2f", category, total);
-
-            // Check budget
-            if (BUDGET_LIMITS.containsKey(category)) {
-                double limit = BUDGET_LIMITS.get(category);
-                if (total > limit) {
-                    System.out.printf(" [WARNING: Exceeded budget of $%.2f]", limit);
-                } else {
-                    System.out.printf(" (Budget: $%.2f)", limit);
+        ReportQuery.Dimension time = query.getTimeDimension();
+        double[] levels = query.getPercentiles();
+        List<ReportResult.Row> rows = new ArrayList<>(groups.size());
+        for (Map.Entry<GroupAggregator.Key, GroupAggregator.Stats> entry : groups.entrySet()) {
+            GroupAggregator.Key key = entry.getKey();
+            GroupAggregator.Stats stats = entry.getValue();
+            long[] percentiles = new long[levels.length];
+            if (levels.length > 0) {
+                Arrays.sort(stats.values, 0, stats.valueCount);
+                for (int i = 0; i < levels.length; i++) {
+                    // Nearest rank: the smallest value with at least p% of the group at or below it.
+                    int rank = (int) Math.ceil(levels[i] / 100 * stats.valueCount);
+                    percentiles[i] = stats.values[Math.max(0, rank - 1)];
                 }
             }
-            System.out.println();
+            rows.add(new ReportResult.Row(key.category, key.userId, GroupAggregator.periodStart(time, key.time),
+                    stats.count, stats.sum, stats.min, stats.max, levels, percentiles));
+        }
+        rows.sort(rowOrder(query.getDimensions()));
+        GROUPED_SECONDS.recordSince(start);
+        return new ReportResult(query.getDimensions(), rows);
+    }
+
+    /**
+     * Prints a grouped report, one line per group.
+     *
+     * @param result The report to print.
+     */
+    public void printReport(ReportResult result) {
+        System.out.println("\n--- Report by " + result.getDimensions() + " ---");
+        for (ReportResult.Row row : result.getRows()) {
+            System.out.println(row);
+        }
+        System.out.println("----------------------------");
+    }
+
+    private static Comparator<ReportResult.Row> rowOrder(List<ReportQuery.Dimension> dimensions) {
+        Comparator<ReportResult.Row> order = (a, b) -> 0;
+        for (ReportQuery.Dimension dimension : dimensions) {
+            switch (dimension) {
+                case CATEGORY:
+                    order = order.thenComparing(ReportResult.Row::getCategory);
+                    break;
+                case USER:
+                    order = order.thenComparing(ReportResult.Row::getUserId);
+                    break;
+                default:
+                    order = order.thenComparing(ReportResult.Row::getPeriod);
+                    break;
+            }
+        }
+        return order;
+    }
+
+    private Map<String, Long> sumByCategory(List<Expense> expenses) {
+        Map<String, Long> totals = new HashMap<>();
+
+        for (Expense e : expenses) {
+            totals.merge(e.getCategory(), e.getAmountCents(), Long::sum);
+        }
+        return totals;
+    }
+
+    private void printReport(String title, Map<String, Long> totals) {
+        System.out.println("\n" + title);
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Long> entry : totals.entrySet()) {
+            line.setLength(0);
+            line.append(entry.getKey()).append(": $");
+            System.out.println(Money.append(line, entry.getValue()));
         }
         System.out.println("----------------------------");
     }
@@ -0,0 +1,540 @@
+package service;
+
+import model.Expense;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One sealed month of expenses: an immutable file with a compressed block of rows
+ * for each user who spent in that month, and each block's per-category totals.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header     magic:int version:int month:int directoryLength:int directoryChecksum:int
+ * directory  categoryCount:int, categoryCount x category:UTF
+ *            userCount:int, per user (sorted by ID):
+ *              userId:UTF rows:int offset:long length:int rawLength:int checksum:int
+ *              groupCount:int, groupCount x category:int count:int sum:long min:long max:long
+ * blocks     one deflated block per user; offsets are relative to the first block
+ * </pre>
+ * A block holds the user's rows sorted by (date, id), one column after another:
+ * a dictionary of the categories and descriptions used, then day-of-month deltas,
+ * zig-zag amount deltas, category codes and description codes as varints, then the
+ * IDs (16 bytes each when every ID is a UUID, otherwise length-prefixed UTF-8).
+ * <p>
+ * Opening a segment reads and verifies only the directory; a block is read,
+ * checked against its CRC32 and inflated when that user's rows are asked for.
+ */
+class SealedSegment implements Closeable {
+    private static final int MAGIC = 0x5345474d; // "SEGM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final byte UUID_IDS = 0;
+    private static final byte TEXT_IDS = 1;
+
+    /**
+     * One user's block: where it is and what it sums to.
+     */
+    static final class Block {
+        final String userId;
+        final int rows;
+        final int rawLength;
+        final int checksum;
+        final String[] groupCategories;
+        final long[] groupTotals;  // count, sum, min, max per group
+        long offset;
+        int length;
+        byte[] data;               // compressed bytes; only set while writing
+
+        Block(String userId, int rows, int rawLength, int checksum, String[] groupCategories, long[] groupTotals) {
+            this.userId = userId;
+            this.rows = rows;
+            this.rawLength = rawLength;
+            this.checksum = checksum;
+            this.groupCategories = groupCategories;
+            this.groupTotals = groupTotals;
+        }
+
+        int groupCount() {
+            return groupCategories.length;
+        }
+
+        long count(int group) {
+            return groupTotals[group * 4];
+        }
+
+        long sum(int group) {
+            return groupTotals[group * 4 + 1];
+        }
+
+        long min(int group) {
+            return groupTotals[group * 4 + 2];
+        }
+
+        long max(int group) {
+            return groupTotals[group * 4 + 3];
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final YearMonth month;
+    private final long blocksStart;
+    private final Map<String, Block> blocks;
+    private final long rows;
+
+    private SealedSegment(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a sealed segment: " + file);
+        }
+        int monthIndex = header.getInt();
+        month = YearMonth.of(Math.floorDiv(monthIndex, 12), Math.floorMod(monthIndex, 12) + 1);
+        int directoryLength = header.getInt();
+        int directoryChecksum = header.getInt();
+        ByteBuffer directory = read(HEADER_SIZE, directoryLength);
+        if (crc(directory.array(), 0, directoryLength) != directoryChecksum) {
+            throw new IOException("Sealed segment checksum mismatch: " + file);
+        }
+        blocksStart = HEADER_SIZE + (long) directoryLength;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(directory.array()));
+        String[] categories = new String[in.readInt()];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = in.readUTF();
+        }
+        int userCount = in.readInt();
+        blocks = new HashMap<>(userCount * 2);
+        long total = 0;
+        for (int u = 0; u < userCount; u++) {
+            String userId = in.readUTF();
+            int blockRows = in.readInt();
+            long offset = in.readLong();
+            int length = in.readInt();
+            int rawLength = in.readInt();
+            int checksum = in.readInt();
+            int groups = in.readInt();
+            String[] groupCategories = new String[groups];
+            long[] groupTotals = new long[groups * 4];
+            for (int g = 0; g < groups; g++) {
+                groupCategories[g] = categories[in.readInt()];
+                groupTotals[g * 4] = in.readInt();
+                groupTotals[g * 4 + 1] = in.readLong();
+                groupTotals[g * 4 + 2] = in.readLong();
+                groupTotals[g * 4 + 3] = in.readLong();
+            }
+            Block block = new Block(userId, blockRows, rawLength, checksum, groupCategories, groupTotals);
+            block.offset = offset;
+            block.length = length;
+            blocks.put(userId, block);
+            total += blockRows;
+        }
+        rows = total;
+    }
+
+    /**
+     * Opens a segment file and reads its directory.
+     *
+     * @param file The segment.
+     * @return The opened segment.
+     * @throws IOException if the file cannot be read, is not a segment or fails its checksum.
+     */
+    static SealedSegment open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new SealedSegment(file, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    YearMonth getMonth() {
+        return month;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return Number of rows across all blocks.
+     */
+    long size() {
+        return rows;
+    }
+
+    /**
+     * @return Users with a block, in no particular order.
+     */
+    Collection<Block> blocks() {
+        return blocks.values();
+    }
+
+    /**
+     * @param userId The user.
+     * @return The user's block, or null if they have no rows in this month.
+     */
+    Block block(String userId) {
+        return blocks.get(userId);
+    }
+
+    /**
+     * Reads and decodes a user's rows.
+     *
+     * @param userId The user.
+     * @return The rows sorted by (date, id); empty if the user has none here.
+     * @throws IOException if the block cannot be read or fails its checksum.
+     */
+    List<Expense> read(String userId) throws IOException {
+        Block block = blocks.get(userId);
+        if (block == null) return new ArrayList<>();
+        byte[] raw = inflate(readCompressed(block), block.rawLength);
+        try {
+            return decode(userId, raw, month);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed sealed block in " + file, e);
+        }
+    }
+
+    /**
+     * Reads a block's compressed bytes, so it can be copied into a new segment unchanged.
+     *
+     * @throws IOException if the block cannot be read or fails its checksum.
+     */
+    byte[] readCompressed(Block block) throws IOException {
+        byte[] data = read(blocksStart + block.offset, block.length).array();
+        if (crc(data, 0, data.length) != block.checksum) {
+            throw new IOException("Sealed segment checksum mismatch: " + file);
+        }
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Encodes and compresses one user's rows for a month.
+     *
+     * @param userId The user.
+     * @param rows   The rows, all in one month; sorted in place by (date, id).
+     * @return The block, ready for {@link #write}.
+     */
+    static Block encode(String userId, List<Expense> rows) {
+        rows.sort(ExpenseArchive.DATE_ORDER);
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<String, long[]> totals = new TreeMap<>();
+        boolean uuidIds = true;
+        for (Expense e : rows) {
+            strings.putIfAbsent(e.getCategory(), strings.size());
+            strings.putIfAbsent(e.getDescription(), strings.size());
+            long[] t = totals.get(e.getCategory());
+            if (t == null) {
+                t = new long[]{0, 0, Long.MAX_VALUE, Long.MIN_VALUE};
+                totals.put(e.getCategory(), t);
+            }
+            t[0]++;
+            t[1] += e.getAmountCents();
+            t[2] = Math.min(t[2], e.getAmountCents());
+            t[3] = Math.max(t[3], e.getAmountCents());
+            if (uuidIds && !isCanonicalUuid(e.getId())) {
+                uuidIds = false;
+            }
+        }
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(rows.size() * 24 + 64);
+        writeVarLong(raw, rows.size());
+        writeVarLong(raw, strings.size());
+        for (String s : strings.keySet()) {
+            writeString(raw, s);
+        }
+        int previousDay = 1;
+        for (Expense e : rows) {
+            writeVarLong(raw, e.getDate().getDayOfMonth() - previousDay);
+            previousDay = e.getDate().getDayOfMonth();
+        }
+        long previousAmount = 0;
+        for (Expense e : rows) {
+            long delta = e.getAmountCents() - previousAmount;
+            writeVarLong(raw, (delta << 1) ^ (delta >> 63));
+            previousAmount = e.getAmountCents();
+        }
+        for (Expense e : rows) {
+            writeVarLong(raw, strings.get(e.getCategory()));
+        }
+        for (Expense e : rows) {
+            writeVarLong(raw, strings.get(e.getDescription()));
+        }
+        raw.write(uuidIds ? UUID_IDS : TEXT_IDS);
+        for (Expense e : rows) {
+            if (uuidIds) {
+                UUID id = UUID.fromString(e.getId());
+                writeLong(raw, id.getMostSignificantBits());
+                writeLong(raw, id.getLeastSignificantBits());
+            } else {
+                writeString(raw, e.getId());
+            }
+        }
+
+        byte[] bytes = raw.toByteArray();
+        byte[] data = deflate(bytes);
+        String[] groupCategories = totals.keySet().toArray(new String[0]);
+        long[] groupTotals = new long[groupCategories.length * 4];
+        int g = 0;
+        for (long[] t : totals.values()) {
+            System.arraycopy(t, 0, groupTotals, g * 4, 4);
+            g++;
+        }
+        Block block = new Block(userId, rows.size(), bytes.length, crc(data, 0, data.length),
+                groupCategories, groupTotals);
+        block.data = data;
+        block.length = data.length;
+        return block;
+    }
+
+    /**
+     * Writes a segment file from blocks whose {@code data} is set and fsyncs it.
+     *
+     * @param path   Destination.
+     * @param month  The month every block belongs to.
+     * @param blocks The blocks, one per user.
+     * @return Bytes written.
+     * @throws IOException if the file cannot be written.
+     */
+    static long write(File path, YearMonth month, List<Block> blocks) throws IOException {
+        blocks.sort((a, b) -> a.userId.compareTo(b.userId));
+        Map<String, Integer> categories = new LinkedHashMap<>();
+        for (Block block : blocks) {
+            for (String category : block.groupCategories) {
+                categories.putIfAbsent(category, categories.size());
+            }
+        }
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream(64 + blocks.size() * 96);
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        directory.writeInt(categories.size());
+        for (String category : categories.keySet()) {
+            directory.writeUTF(category);
+        }
+        directory.writeInt(blocks.size());
+        long offset = 0;
+        for (Block block : blocks) {
+            block.offset = offset;
+            offset += block.length;
+            directory.writeUTF(block.userId);
+            directory.writeInt(block.rows);
+            directory.writeLong(block.offset);
+            directory.writeInt(block.length);
+            directory.writeInt(block.rawLength);
+            directory.writeInt(block.checksum);
+            directory.writeInt(block.groupCount());
+            for (int g = 0; g < block.groupCount(); g++) {
+                directory.writeInt(categories.get(block.groupCategories[g]));
+                directory.writeInt((int) block.count(g));
+                directory.writeLong(block.sum(g));
+                directory.writeLong(block.min(g));
+                directory.writeLong(block.max(g));
+            }
+        }
+        directory.flush();
+        byte[] dir = directoryBytes.toByteArray();
+
+        try (FileOutputStream fos = new FileOutputStream(path);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(month.getYear() * 12 + month.getMonthValue() - 1);
+            out.writeInt(dir.length);
+            out.writeInt(crc(dir, 0, dir.length));
+            out.write(dir);
+            for (Block block : blocks) {
+                out.write(block.data);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        return HEADER_SIZE + dir.length + offset;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Sealed segment is truncated: " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static List<Expense> decode(String userId, byte[] raw, YearMonth month) throws IOException {
+        int[] pos = {0};
+        int count = (int) readVarLong(raw, pos);
+        String[] strings = new String[(int) readVarLong(raw, pos)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(raw, pos);
+        }
+        LocalDate[] dates = new LocalDate[count];
+        int day = 1;
+        for (int i = 0; i < count; i++) {
+            day += (int) readVarLong(raw, pos);
+            dates[i] = month.atDay(day);
+        }
+        long[] amounts = new long[count];
+        long amount = 0;
+        for (int i = 0; i < count; i++) {
+            long zigzag = readVarLong(raw, pos);
+            amount += (zigzag >>> 1) ^ -(zigzag & 1);
+            amounts[i] = amount;
+        }
+        int[] categories = new int[count];
+        for (int i = 0; i < count; i++) {
+            categories[i] = (int) readVarLong(raw, pos);
+        }
+        int[] descriptions = new int[count];
+        for (int i = 0; i < count; i++) {
+            descriptions[i] = (int) readVarLong(raw, pos);
+        }
+        boolean uuidIds = raw[pos[0]++] == UUID_IDS;
+        List<Expense> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id;
+            if (uuidIds) {
+                id = new UUID(readLong(raw, pos[0]), readLong(raw, pos[0] + 8)).toString();
+                pos[0] += 16;
+            } else {
+                id = readString(raw, pos);
+            }
+            rows.add(new Expense(id, userId, dates[i], strings[categories[i]], amounts[i], strings[descriptions[i]]));
+        }
+        if (pos[0] != raw.length) {
+            throw new IOException("Malformed sealed block in " + month);
+        }
+        return rows;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Sealed block is truncated");
+                }
+                n += read;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed sealed block: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static boolean isCanonicalUuid(String id) {
+        try {
+            return UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] in, int[] pos) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[pos[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static long readLong(byte[] in, int at) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (in[at + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(byte[] in, int[] pos) {
+        int length = (int) readVarLong(in, pos);
+        String s = new String(in, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return s;
+    }
+}
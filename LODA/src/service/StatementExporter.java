@@ -0,0 +1,354 @@
+package service;
+
+import model.Expense;
+import model.User;
+import util.DirectBufferPool;
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Exports expense statements as CSV or JSON Lines, for one user or for everyone.
+ * <p>
+ * Rows are encoded by hand (UTF-8 text, dates, amounts) straight into pooled direct
+ * buffers, with no per-row strings. Full buffers are written to a {@link FileChannel}
+ * {@value #BUFFERS_PER_WRITE} at a time in one gathering write. Expenses are read in
+ * keyset pages (see {@link ExpenseManager#streamExpensesByUser}), so memory stays
+ * bounded however long the history. The shared pool holds at most
+ * {@value #POOL_BUFFERS} buffers of 64 KB. An export waits for its first buffer
+ * only; when no further one is free it writes the buffers it has instead, so
+ * concurrent exports cannot wait on each other's buffers.
+ * <p>
+ * CSV rows have the layout of {@code expenses.csv}
+ * ({@code id,userId,date,category,amount,description}), so an export can be loaded
+ * back. JSON Lines rows are objects with the fields {@code id}, {@code userId},
+ * {@code date}, {@code category}, {@code amount} (a number with two decimals) and
+ * {@code description}. Each export is written to a temporary file, fsynced and
+ * renamed into place.
+ */
+public class StatementExporter {
+    public enum Format { CSV, JSONL }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFERS_PER_WRITE = 8;
+    private static final int POOL_BUFFERS = 4 * BUFFERS_PER_WRITE;
+    private static final DirectBufferPool SHARED_POOL = new DirectBufferPool(BUFFER_SIZE, POOL_BUFFERS);
+    private static final int MAX_CHAR_BYTES = 6;  // an escaped control character in JSON
+
+    private static final LatencyHistogram EXPORT_SECONDS = Metrics.global().histogram(
+            "expense_export_seconds", "Time to export a statement");
+    private static final LongAdder ROWS_EXPORTED = Metrics.global().counter(
+            "expense_export_rows_total", "Expenses written by statement exports");
+    private static final LongAdder BYTES_EXPORTED = Metrics.global().counter(
+            "expense_export_bytes_total", "Bytes written by statement exports");
+
+    private final ExpenseManager expenseManager;
+    private final DirectBufferPool pool;
+
+    public StatementExporter(ExpenseManager expenseManager) {
+        this(expenseManager, SHARED_POOL);
+    }
+
+    /**
+     * @param expenseManager The expenses to export.
+     * @param pool           Buffers to encode into; each export holds up to
+     *                       {@value #BUFFERS_PER_WRITE} of them.
+     */
+    public StatementExporter(ExpenseManager expenseManager, DirectBufferPool pool) {
+        this.expenseManager = expenseManager;
+        this.pool = pool;
+    }
+
+    /**
+     * Exports a user's expenses, sealed ones included, in date order.
+     *
+     * @param user   The user.
+     * @param format Output format.
+     * @param path   Destination file; replaced only once the export is complete.
+     * @return Number of expenses written.
+     * @throws IOException if the file cannot be written.
+     */
+    public long exportUser(User user, Format format, String path) throws IOException {
+        return export(expenseManager.streamExpensesByUser(user), format, path);
+    }
+
+    /**
+     * Exports every user's expenses, user by user, each in date order.
+     *
+     * @param format Output format.
+     * @param path   Destination file; replaced only once the export is complete.
+     * @return Number of expenses written.
+     * @throws IOException if the file cannot be written.
+     */
+    public long exportAll(Format format, String path) throws IOException {
+        return export(expenseManager.streamAllExpenses(), format, path);
+    }
+
+    private long export(Stream<Expense> expenses, Format format, String path) throws IOException {
+        long start = System.nanoTime();
+        File tmp = new File(path + ".tmp");
+        long rows = 0;
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             RowEncoder encoder = new RowEncoder(channel)) {
+            Iterator<Expense> it = expenses.iterator();
+            while (it.hasNext()) {
+                if (format == Format.CSV) {
+                    encoder.csv(it.next());
+                } else {
+                    encoder.json(it.next());
+                }
+                rows++;
+            }
+            encoder.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } catch (UncheckedIOException e) {
+            tmp.delete();
+            throw e.getCause();
+        } finally {
+            expenses.close();
+        }
+        Files.move(tmp.toPath(), new File(path).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ROWS_EXPORTED.add(rows);
+        EXPORT_SECONDS.recordSince(start);
+        return rows;
+    }
+
+    /**
+     * Encodes rows into a batch of pooled buffers and writes the batch whenever
+     * every buffer in it is full, or no buffer is free to extend it. Used by one thread.
+     */
+    private final class RowEncoder implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer[] batch = new ByteBuffer[BUFFERS_PER_WRITE];
+        private final byte[] digits = new byte[24];
+        private int filling = -1;  // index in batch of the buffer being filled
+        private ByteBuffer out;
+
+        RowEncoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void csv(Expense e) throws IOException {
+            text(e.getId(), false);
+            put((byte) ',');
+            text(e.getUserId(), false);
+            put((byte) ',');
+            date(e.getDate());
+            put((byte) ',');
+            text(e.getCategory(), false);
+            put((byte) ',');
+            cents(e.getAmountCents());
+            put((byte) ',');
+            text(e.getDescription(), false);
+            put((byte) '\n');
+        }
+
+        void json(Expense e) throws IOException {
+            ascii("{\"id\":\"");
+            text(e.getId(), true);
+            ascii("\",\"userId\":\"");
+            text(e.getUserId(), true);
+            ascii("\",\"date\":\"");
+            date(e.getDate());
+            ascii("\",\"category\":\"");
+            text(e.getCategory(), true);
+            ascii("\",\"amount\":");
+            cents(e.getAmountCents());
+            ascii(",\"description\":\"");
+            text(e.getDescription(), true);
+            ascii("\"}\n");
+        }
+
+        /**
+         * Writes every filled buffer in one gathering write and starts the batch over.
+         */
+        void flush() throws IOException {
+            long remaining = 0;
+            for (int i = 0; i <= filling; i++) {
+                batch[i].flip();
+                remaining += batch[i].remaining();
+            }
+            BYTES_EXPORTED.add(remaining);
+            while (remaining > 0) {
+                remaining -= channel.write(batch, 0, filling + 1);
+            }
+            for (int i = 0; i <= filling; i++) {
+                batch[i].clear();
+            }
+            filling = -1;
+            out = null;
+        }
+
+        /**
+         * Returns the batch's buffers to the pool.
+         */
+        @Override
+        public void close() {
+            for (int i = 0; i < batch.length && batch[i] != null; i++) {
+                pool.release(batch[i]);
+                batch[i] = null;
+            }
+        }
+
+        /**
+         * Makes room for {@code n} bytes, moving on to the next buffer of the batch
+         * when the current one is too full. The batch is written first when it is
+         * full or no buffer is free to add to it; only the first buffer is waited for,
+         * as a wait while holding buffers could deadlock with other exports.
+         */
+        private void reserve(int n) throws IOException {
+            if (out != null && out.remaining() >= n) return;
+            if (filling + 1 < batch.length && batch[filling + 1] == null) {
+                batch[filling + 1] = filling < 0 ? acquire() : pool.tryAcquire();
+            }
+            if (filling + 1 == batch.length || batch[filling + 1] == null) {
+                flush();
+            }
+            filling++;
+            out = batch[filling];
+        }
+
+        private ByteBuffer acquire() throws InterruptedIOException {
+            try {
+                return pool.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for an export buffer");
+            }
+        }
+
+        private void put(byte b) throws IOException {
+            reserve(1);
+            out.put(b);
+        }
+
+        private void ascii(String s) throws IOException {
+            reserve(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                out.put((byte) s.charAt(i));
+            }
+        }
+
+        /**
+         * Writes a string as UTF-8, escaped for a JSON string if asked. An unpaired
+         * surrogate is written as '?', as {@link String#getBytes} does.
+         */
+        private void text(String s, boolean json) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (out == null || out.remaining() < MAX_CHAR_BYTES) {
+                    reserve(MAX_CHAR_BYTES);
+                }
+                if (c < 0x80) {
+                    if (json && (c < 0x20 || c == '"' || c == '\\')) {
+                        escape(c);
+                    } else {
+                        out.put((byte) c);
+                    }
+                } else if (c < 0x800) {
+                    out.put((byte) (0xc0 | c >> 6));
+                    out.put((byte) (0x80 | c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    out.put((byte) (0xf0 | cp >> 18));
+                    out.put((byte) (0x80 | cp >> 12 & 0x3f));
+                    out.put((byte) (0x80 | cp >> 6 & 0x3f));
+                    out.put((byte) (0x80 | cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    out.put((byte) '?');
+                } else {
+                    out.put((byte) (0xe0 | c >> 12));
+                    out.put((byte) (0x80 | c >> 6 & 0x3f));
+                    out.put((byte) (0x80 | c & 0x3f));
+                }
+            }
+        }
+
+        private void escape(char c) {
+            out.put((byte) '\\');
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.put((byte) c);
+                    break;
+                case '\n':
+                    out.put((byte) 'n');
+                    break;
+                case '\r':
+                    out.put((byte) 'r');
+                    break;
+                case '\t':
+                    out.put((byte) 't');
+                    break;
+                default:
+                    out.put((byte) 'u').put((byte) '0').put((byte) '0')
+                            .put(hex(c >> 4)).put(hex(c & 0xf));
+            }
+        }
+
+        /**
+         * Writes yyyy-MM-dd, as {@link LocalDate#toString()} does for years 0 to 9999.
+         */
+        private void date(LocalDate date) throws IOException {
+            int year = date.getYear();
+            if (year < 0 || year > 9999) {
+                ascii(date.toString());
+                return;
+            }
+            reserve(10);
+            out.put(digit(year / 1000)).put(digit(year / 100 % 10)).put(digit(year / 10 % 10)).put(digit(year % 10))
+                    .put((byte) '-').put(digit(date.getMonthValue() / 10)).put(digit(date.getMonthValue() % 10))
+                    .put((byte) '-').put(digit(date.getDayOfMonth() / 10)).put(digit(date.getDayOfMonth() % 10));
+        }
+
+        /**
+         * Writes an amount with two decimals and a '.' separator, as
+         * {@link util.Money#append(StringBuilder, long)} does.
+         */
+        private void cents(long cents) throws IOException {
+            int pos = digits.length;
+            long units = Math.abs(cents / 100);
+            int fraction = (int) Math.abs(cents % 100);
+            digits[--pos] = digit(fraction % 10);
+            digits[--pos] = digit(fraction / 10);
+            digits[--pos] = '.';
+            do {
+                digits[--pos] = digit((int) (units % 10));
+                units /= 10;
+            } while (units > 0);
+            if (cents < 0) {
+                digits[--pos] = '-';
+            }
+            reserve(digits.length - pos);
+            out.put(digits, pos, digits.length - pos);
+        }
+
+        private byte digit(int d) {
+            return (byte) ('0' + d);
+        }
+
+        private byte hex(int d) {
+            return (byte) (d < 10 ? '0' + d : 'a' + d - 10);
+        }
+    }
+}
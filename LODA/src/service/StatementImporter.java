@@ -0,0 +1,100 @@
+package service;
+
+import model.User;
+import util.InputValidator;
+import util.Money;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports bank-statement style CSV files as one batch.
+ * <p>
+ * Each line is {@code date,category,amount,description} with the date in
+ * yyyy-MM-dd format; a first line that does not start with a date is treated as
+ * a header. Unparseable lines are reported as rejections alongside the rows
+ * {@link ExpenseManager#addExpenses(User, java.util.Collection)} refuses.
+ */
+public class StatementImporter {
+    private final ExpenseManager expenseManager;
+
+    public StatementImporter(ExpenseManager expenseManager) {
+        this.expenseManager = expenseManager;
+    }
+
+    /**
+     * Imports a statement file for a user.
+     *
+     * @param user The user the expenses belong to.
+     * @param path Path of the statement CSV.
+     * @return Accepted count and rejections by line number.
+     * @throws IOException if the file cannot be read.
+     */
+    public ImportResult importCsv(User user, String path) throws IOException {
+        try (Reader reader = new FileReader(path)) {
+            return importCsv(user, reader);
+        }
+    }
+
+    /**
+     * Imports statement lines from a reader for a user.
+     *
+     * @param user   The user the expenses belong to.
+     * @param reader Source of statement lines.
+     * @return Accepted count and rejections by line number.
+     * @throws IOException if reading fails.
+     */
+    public ImportResult importCsv(User user, Reader reader) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        List<ExpenseDraft> drafts = new ArrayList<>();
+        List<Integer> draftLines = new ArrayList<>();
+        List<ImportResult.Rejection> parseErrors = new ArrayList<>();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) continue;
+            String[] parts = line.split(",", 4);
+            LocalDate date = parts.length > 0 ? InputValidator.parseDate(parts[0].trim()) : null;
+            if (date == null && lineNumber == 1) continue; // header
+            if (parts.length != 4) {
+                parseErrors.add(new ImportResult.Rejection(lineNumber, "Expected date,category,amount,description"));
+                continue;
+            }
+            if (date == null) {
+                parseErrors.add(new ImportResult.Rejection(lineNumber, "Invalid date"));
+                continue;
+            }
+            long amountCents;
+            try {
+                amountCents = Money.parse(parts[2].trim());
+            } catch (NumberFormatException e) {
+                parseErrors.add(new ImportResult.Rejection(lineNumber, "Invalid amount"));
+                continue;
+            }
+            drafts.add(new ExpenseDraft(date, parts[1].trim(), amountCents, parts[3].trim()));
+            draftLines.add(lineNumber);
+        }
+
+        ImportResult batch = expenseManager.addExpenses(user, drafts);
+
+        // Report every rejection by its line in the file, in line order.
+        ImportResult result = new ImportResult();
+        result.addAccepted(batch.getAccepted());
+        List<ImportResult.Rejection> rejected = new ArrayList<>(parseErrors);
+        for (ImportResult.Rejection r : batch.getRejections()) {
+            rejected.add(new ImportResult.Rejection(draftLines.get(r.getRow() - 1), r.getReason()));
+        }
+        rejected.sort((a, b) -> Integer.compare(a.getRow(), b.getRow()));
+        for (ImportResult.Rejection r : rejected) {
+            result.reject(r.getRow(), r.getReason());
+        }
+        return result;
+    }
+}
@@ -1,22 +1,56 @@
 package service;
 
+import model.Session;
 import model.User;
+import util.LatencyHistogram;
+import util.Metrics;
 import java.io.*;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 /**
  * Manages user authentication and persistence.
+ * Safe for concurrent use; each login creates an independent {@link Session}.
+ * <p>
+ * Credentials live in a memory-mapped {@link CredentialStore}; passwords are only
+ * kept as salted hashes and users are read from disk on login rather than loaded
+ * at startup. A legacy plaintext {@code users.csv} is migrated on first start.
  */
-public class UserManager {
-    private static final String USER_FILE = "data/users.csv";
-    private Map<String, User> users; // In-memory cache of users
-    private User currentUser;
+public class UserManager implements Closeable {
+    private static final String DATA_DIR = "data";
+    public static final int DEFAULT_HASH_ITERATIONS = 100_000;
+
+    private static final LatencyHistogram LOGIN_SECONDS = Metrics.global().histogram(
+            "user_login_seconds", "Time per login attempt, dominated by password hashing");
+    private static final LongAdder LOGIN_FAILURES = Metrics.global().counter(
+            "user_login_failures_total", "Login attempts rejected for bad credentials or errors");
+    private static final LongAdder REGISTRATIONS = Metrics.global().counter(
+            "user_registrations_total", "Users registered");
+
+    private final CredentialStore credentials;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>(); // Active sessions by token
+    private final LongSupplier sessionGauge = () -> sessions.size();
 
     public UserManager() {
-        users = new HashMap<>();
-        loadUsers();
+        this(DATA_DIR, DEFAULT_HASH_ITERATIONS);
+    }
+
+    /**
+     * @param dataDir        Directory holding the user files.
+     * @param hashIterations PBKDF2 iterations per password hash; higher is slower to log in and to attack.
+     */
+    public UserManager(String dataDir, int hashIterations) {
+        try {
+            credentials = new CredentialStore(dataDir, hashIterations);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening user store", e);
+        }
+        migrateUsers(dataDir + "/users.csv");
+        Metrics.global().gauge("user_sessions_active", "Open sessions", sessionGauge);
     }
 
     /**
@@ -24,56 +58,95 @@ public class UserManager {
      *
      * @param username The desired username.
      * @param password The desired password.
-     * @return true if registration successful, false if username exists.
+     * @return true if registration successful, false if username exists or is longer
+     * than {@link CredentialStore#MAX_NAME_BYTES} bytes.
      */
     public boolean register(String username, String password) {
-        if (users.containsKey(username)) {
+        if (username.getBytes(StandardCharsets.UTF_8).length > CredentialStore.MAX_NAME_BYTES) {
+            return false;
+        }
+        try {
+            boolean added = credentials.add(username, UUID.randomUUID().toString(), password);
+            if (added) {
+                REGISTRATIONS.increment();
+            }
+            return added;
+        } catch (IOException e) {
+            System.err.println("Error saving user: " + e.getMessage());
             return false;
         }
-        String id = UUID.randomUUID().toString();
-        User newUser = new User(id, username, password);
-        users.put(username, newUser);
-        saveUser(newUser);
-        return true;
     }
 
     /**
-     * Authenticates a user.
+     * Authenticates a user and opens a session.
      *
      * @param username The username.
      * @param password The password.
-     * @return true if login successful, false otherwise.
+     * @return The new session, or null if the credentials are invalid.
      */
-    public boolean login(String username, String password) {
-        User user = users.get(username);
-        if (user != null && user.getPassword().equals(password)) {
-            currentUser = user;
-            return true;
+    public Session login(String username, String password) {
+        long start = System.nanoTime();
+        CredentialStore.Credential credential;
+        try {
+            credential = credentials.verify(username, password);
+        } catch (IOException e) {
+            System.err.println("Error reading users: " + e.getMessage());
+            credential = null;
+        } finally {
+            LOGIN_SECONDS.recordSince(start);
         }
-        return false;
+        if (credential == null) {
+            LOGIN_FAILURES.increment();
+            return null;
+        }
+        User user = new User(credential.getUserId(), credential.getUsername(), null); // password is not retained
+        Session session = new Session(UUID.randomUUID().toString(), user, System.currentTimeMillis());
+        sessions.put(session.getToken(), session);
+        return session;
     }
 
     /**
-     * Logs out the current user.
+     * Ends a session.
+     *
+     * @param session The session to close.
      */
-    public void logout() {
-        currentUser = null;
+    public void logout(Session session) {
+        sessions.remove(session.getToken());
     }
 
     /**
-     * Gets the currently logged-in user.
+     * Looks up an active session.
      *
-     * @return The current User object, or null if not logged in.
+     * @param token The session token.
+     * @return The session, or null if it is not active.
      */
-    public User getCurrentUser() {
-        return currentUser;
+    public Session getSession(String token) {
+        return sessions.get(token);
     }
 
     /**
-     * Loads users from the CSV file into memory.
+     * @return Number of registered users.
      */
-    private void loadUsers() {
-        File file = new File(USER_FILE);
+    public int getUserCount() {
+        return credentials.size();
+    }
+
+    @Override
+    public void close() {
+        Metrics.global().removeGauge("user_sessions_active", sessionGauge);
+        try {
+            credentials.close();
+        } catch (IOException e) {
+            System.err.println("Error closing user store: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Imports users from a legacy plaintext CSV file, then renames it so the
+     * plaintext passwords are no longer read.
+     */
+    private void migrateUsers(String path) {
+        File file = new File(path);
         if (!file.exists()) return;
 
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
@@ -81,26 +154,19 @@ public class UserManager {
             while ((line = br.readLine()) != null) {
                 String[] parts = line.split(",");
                 if (parts.length == 3) {
-                    User user = new User(parts[0], parts[1], parts[2]);
-                    users.put(user.getUsername(), user);
+                    try {
+                        credentials.add(parts[1], parts[0], parts[2]);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Error migrating user " + parts[0] + ": " + e.getMessage());
+                    }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error loading users: " + e.getMessage());
+            System.err.println("Error migrating users: " + e.getMessage());
+            return;
         }
-    }
-
-    /**
-     * Appends a new user to the CSV file.
-     *
-     * @param user The user to save.
-     */
-    private void saveUser(User user) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(USER_FILE, true))) {
-            bw.write(user.getId() + "," + user.getUsername() + "," + user.getPassword());
-            bw.newLine();
-        } catch (IOException e) {
-            System.err.println("Error saving user: " + e.getMessage());
+        if (!file.renameTo(new File(path + ".migrated"))) {
+            System.err.println("Could not rename " + path + " after migrating users");
         }
     }
 }
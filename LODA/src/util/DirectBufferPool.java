@@ -0,0 +1,81 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of direct {@link ByteBuffer}s of one size.
+ * <p>
+ * Direct buffers are expensive to allocate and are freed only when collected, so
+ * they are kept for reuse rather than allocated per operation. At most
+ * {@code maxBuffers} exist at any time; {@link #acquire()} blocks while all of them
+ * are in use, which bounds the memory of every caller together. Thread-safe.
+ */
+public class DirectBufferPool {
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final BlockingQueue<ByteBuffer> free;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * @param bufferSize Capacity of each buffer, in bytes.
+     * @param maxBuffers Most buffers ever allocated.
+     */
+    public DirectBufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.free = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * Takes a free buffer, allocating one if fewer than the maximum exist, or
+     * waiting for one to be released.
+     *
+     * @return A cleared buffer.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = tryAcquire();
+        return buffer != null ? buffer : free.take();
+    }
+
+    /**
+     * Takes a free buffer, allocating one if fewer than the maximum exist, without
+     * waiting. Callers that already hold buffers should use this rather than
+     * {@link #acquire()}, which could wait forever on buffers held by other such callers.
+     *
+     * @return A cleared buffer, or null if all of them are in use.
+     */
+    public ByteBuffer tryAcquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) return buffer;
+        if (allocated.incrementAndGet() <= maxBuffers) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        allocated.decrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer A buffer from {@link #acquire()}; must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return Number of buffers allocated so far.
+     */
+    public int getAllocated() {
+        return Math.min(allocated.get(), maxBuffers);
+    }
+}
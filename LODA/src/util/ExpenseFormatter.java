@@ -0,0 +1,65 @@
+package util;
+
+import model.Expense;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writes expense listing rows in the same layout as {@link Expense#toString()}
+ * without going through {@code String.format}: each row is appended to one
+ * reused buffer and handed to the writer in a single call, so listing a page
+ * allocates little beyond the page itself.
+ */
+public class ExpenseFormatter {
+    private static final char DECIMAL_SEPARATOR =
+            DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
+
+    private final Writer out;
+    private final StringBuilder row = new StringBuilder(128);
+
+    /**
+     * @param out Destination; wrap slow sinks in a {@link java.io.BufferedWriter}.
+     */
+    public ExpenseFormatter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes one expense followed by a line separator.
+     *
+     * @param e The expense.
+     * @throws IOException if the write fails.
+     */
+    public void write(Expense e) throws IOException {
+        row.setLength(0);
+        appendTo(row, e);
+        row.append(System.lineSeparator());
+        out.append(row);
+    }
+
+    /**
+     * @throws IOException if the flush fails.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Appends an expense in {@link Expense#toString()} layout.
+     *
+     * @param sb Destination buffer.
+     * @param e  The expense.
+     * @return The buffer.
+     */
+    public static StringBuilder appendTo(StringBuilder sb, Expense e) {
+        sb.append("ID: ").append(e.getId())
+                .append(" | Date: ").append(e.getDate())
+                .append(" | Cat: ").append(e.getCategory())
+                .append(" | Amt: $");
+        Money.append(sb, e.getAmountCents(), DECIMAL_SEPARATOR);
+        return sb.append(" | Desc: ").append(e.getDescription());
+    }
+}
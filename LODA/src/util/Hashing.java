@@ -0,0 +1,41 @@
+package util;
+
+/**
+ * 64-bit hashing for the probabilistic sketches, which need every bit well mixed;
+ * {@link String#hashCode()} has only 32 bits and weak low-order bits.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units, finished with the MurmurHash3 mixer.
+     *
+     * @param s The string.
+     * @return Its hash.
+     */
+    public static long hash64(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer: every input bit affects every output bit.
+     *
+     * @param h The value.
+     * @return The mixed value.
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,125 @@
+package util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top-K keys by total weight, from a {@link CountMinSketch} plus a bounded set of
+ * candidate keys.
+ * <p>
+ * Every key updates the sketch; the candidate set keeps the {@code capacity} keys
+ * with the largest estimates seen so far, evicting the smallest when a larger key
+ * arrives. Memory is the sketch plus {@code capacity} keys, however many distinct
+ * keys there are. With non-negative weights, any key holding more than
+ * {@code 1 / capacity} of the total weight is a candidate, and reported totals
+ * carry the sketch's error bound. A key whose weight is later undone with
+ * negative weights drops in the ranking but is not replaced until another key
+ * overtakes it.
+ * <p>
+ * Merging combines the sketches exactly and re-ranks the union of both candidate
+ * sets. Not thread-safe.
+ */
+public class HeavyHitters {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    private final CountMinSketch sketch;
+    private final Map<String, Long> candidates = new HashMap<>();
+    private String smallest;  // candidate with the smallest estimate, or null if unknown
+
+    public HeavyHitters() {
+        this(DEFAULT_CAPACITY, new CountMinSketch());
+    }
+
+    /**
+     * @param capacity Number of candidate keys kept.
+     * @param sketch   An empty sketch to count with.
+     */
+    public HeavyHitters(int capacity, CountMinSketch sketch) {
+        this.capacity = capacity;
+        this.sketch = sketch;
+    }
+
+    /**
+     * @param key    The key.
+     * @param weight Amount to add; negative to undo an earlier add.
+     */
+    public void add(String key, long weight) {
+        long hash = Hashing.hash64(key);
+        sketch.add(hash, weight);
+        offer(key, sketch.estimate(hash));
+    }
+
+    /**
+     * @param k Number of keys.
+     * @return Up to {@code k} keys with their estimated totals, largest first.
+     */
+    public Map<String, Long> top(int k) {
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+        for (String key : candidates.keySet()) {
+            ranked.add(new AbstractMap.SimpleEntry<>(key, sketch.estimate(Hashing.hash64(key))));
+        }
+        ranked.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < ranked.size() && i < k; i++) {
+            top.put(ranked.get(i).getKey(), ranked.get(i).getValue());
+        }
+        return top;
+    }
+
+    /**
+     * @return Sum of all weights added.
+     */
+    public long getTotal() {
+        return sketch.getTotal();
+    }
+
+    /**
+     * Folds another instance into this one.
+     *
+     * @param other An instance of the same capacity and sketch dimensions; unchanged.
+     */
+    public void merge(HeavyHitters other) {
+        sketch.merge(other.sketch);
+        Map<String, Long> union = new HashMap<>(candidates);
+        union.putAll(other.candidates);
+        candidates.clear();
+        smallest = null;
+        for (String key : union.keySet()) {
+            offer(key, sketch.estimate(Hashing.hash64(key)));
+        }
+    }
+
+    private void offer(String key, long estimate) {
+        if (candidates.containsKey(key)) {
+            candidates.put(key, estimate);
+            if (key.equals(smallest) || (smallest != null && estimate < candidates.get(smallest))) {
+                smallest = null;
+            }
+            return;
+        }
+        if (candidates.size() < capacity) {
+            candidates.put(key, estimate);
+            if (smallest != null && estimate < candidates.get(smallest)) {
+                smallest = key;
+            }
+            return;
+        }
+        if (smallest == null) {
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                if (smallest == null || entry.getValue() < candidates.get(smallest)) {
+                    smallest = entry.getKey();
+                }
+            }
+        }
+        if (estimate > candidates.get(smallest)) {
+            candidates.remove(smallest);
+            candidates.put(key, estimate);
+            smallest = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct-count sketch.
+ * <p>
+ * The top {@code p} bits of each 64-bit hash pick one of {@code m = 2^p} registers,
+ * which keeps the longest run of leading zeros seen in the remaining bits. The count
+ * is estimated with Ertl's improved estimator ("New cardinality estimation algorithms
+ * for HyperLogLog sketches", 2017), which needs no empirical bias tables and has a
+ * relative standard error of about {@code 1.04 / sqrt(m)} over the whole range:
+ * 1.6% for the default {@code p = 12}, so 99% of estimates fall within 5%.
+ * <p>
+ * Small sketches are kept sparse, as a sorted array of (register, value) pairs, and
+ * switch to a dense byte array of {@code m} registers once that would be smaller.
+ * Sketches of equal precision merge losslessly: the merge of two sketches is the
+ * sketch of the union of their inputs. Not thread-safe.
+ */
+public class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int p;
+    private final int m;
+    private byte[] registers;        // dense registers, or null while sparse
+    private int[] sparse = new int[4];  // register << 6 | value, sorted by register
+    private int sparseSize;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision Number of index bits {@code p}, between 4 and 18.
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be between 4 and 18: " + precision);
+        }
+        this.p = precision;
+        this.m = 1 << precision;
+    }
+
+    /**
+     * @param s Element to count, hashed with {@link Hashing#hash64}.
+     */
+    public void add(String s) {
+        addHash(Hashing.hash64(s));
+    }
+
+    /**
+     * @param hash Well-mixed 64-bit hash of the element to count.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        // The sentinel bit caps the value at 65 - p when the remaining bits are all zero.
+        int value = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+        set(index, value);
+    }
+
+    /**
+     * Folds another sketch into this one.
+     *
+     * @param other A sketch of the same precision; unchanged.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.p != p) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.p + " into " + p);
+        }
+        if (other.registers == null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                set(other.sparse[i] >>> 6, other.sparse[i] & 63);
+            }
+            return;
+        }
+        toDense();
+        for (int i = 0; i < m; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return Estimated number of distinct elements added.
+     */
+    public long estimate() {
+        int q = 64 - p;
+        int[] histogram = new int[q + 2];
+        if (registers == null) {
+            histogram[0] = m - sparseSize;
+            for (int i = 0; i < sparseSize; i++) {
+                histogram[sparse[i] & 63]++;
+            }
+        } else {
+            for (byte r : registers) {
+                histogram[r]++;
+            }
+        }
+        if (histogram[0] == m) return 0;
+        double z = m * tau(1 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    /**
+     * @return Approximate memory held by the registers, in bytes.
+     */
+    public int sizeInBytes() {
+        return registers != null ? registers.length : sparse.length * 4;
+    }
+
+    private void set(int index, int value) {
+        if (registers != null) {
+            if (value > registers[index]) {
+                registers[index] = (byte) value;
+            }
+            return;
+        }
+        int lo = 0;
+        int hi = sparseSize - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int at = sparse[mid] >>> 6;
+            if (at < index) {
+                lo = mid + 1;
+            } else if (at > index) {
+                hi = mid - 1;
+            } else {
+                if (value > (sparse[mid] & 63)) {
+                    sparse[mid] = index << 6 | value;
+                }
+                return;
+            }
+        }
+        if (sparseSize * 4 >= m) {  // a dense array would now be smaller
+            toDense();
+            set(index, value);
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, sparseSize * 2);
+        }
+        System.arraycopy(sparse, lo, sparse, lo + 1, sparseSize - lo);
+        sparse[lo] = index << 6 | value;
+        sparseSize++;
+    }
+
+    private void toDense() {
+        if (registers != null) return;
+        registers = new byte[m];
+        for (int i = 0; i < sparseSize; i++) {
+            registers[sparse[i] >>> 6] = (byte) (sparse[i] & 63);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) return Double.POSITIVE_INFINITY;
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) return 0;
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+}
@@ -21,6 +21,16 @@ public class InputValidator {
         return input != null && !input.trim().isEmpty();
     }
 
+    /**
+     * Validates if a string can be stored in a CSV field (no commas or line breaks).
+     *
+     * @param input The string to check.
+     * @return true if safe, false otherwise.
+     */
+    public static boolean isCsvSafe(String input) {
+        return input != null && input.indexOf(',') < 0 && input.indexOf('\n') < 0 && input.indexOf('\r') < 0;
+    }
+
     /**
      * Validates if a double is positive.
      *
@@ -0,0 +1,184 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * KLL quantile sketch (Karnin, Lang and Liberty, "Optimal quantile approximation
+ * in streams", 2016) over {@code long} values.
+ * <p>
+ * Values are kept in a stack of compactors; an item on level {@code h} stands for
+ * {@code 2^h} inputs. When the sketch is full, the lowest over-full level is sorted
+ * and every other item, starting at a random offset, is promoted a level up. Level
+ * capacities shrink geometrically (by 2/3) below the top, so the sketch holds about
+ * {@code 3k} values however many are added. With the default {@code k = 200} a
+ * reported quantile's rank is within about 1.7% of the count of the requested rank
+ * with 99% confidence. The minimum and maximum are exact.
+ * <p>
+ * Sketches of equal {@code k} merge by concatenating their levels and compacting,
+ * with the same error bound as a single sketch over both inputs. Not thread-safe.
+ */
+public class KllSketch {
+    public static final int DEFAULT_K = 200;
+    private static final double SHRINK = 2.0 / 3.0;
+
+    private final int k;
+    private long[][] levels = new long[1][8];
+    private int[] sizes = new int[1];
+    private int retained;
+    private int maxRetained;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k Accuracy parameter; rank error shrinks roughly as {@code 1 / k}.
+     */
+    public KllSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8: " + k);
+        }
+        this.k = k;
+        this.maxRetained = capacity(0);
+    }
+
+    /**
+     * @param value Value to add.
+     */
+    public void add(long value) {
+        append(0, value);
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Folds another sketch into this one.
+     *
+     * @param other A sketch with the same {@code k}; unchanged.
+     */
+    public void merge(KllSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Cannot merge k=" + other.k + " into k=" + k);
+        }
+        while (levels.length < other.levels.length) {
+            grow();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        while (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * @return Number of values added.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimates a quantile.
+     *
+     * @param fraction Rank as a fraction of the count, between 0 and 1.
+     * @return A value whose rank is close to {@code fraction * count}; 0 if empty.
+     */
+    public long quantile(double fraction) {
+        if (count == 0) return 0;
+        if (fraction <= 0) return min;
+        if (fraction >= 1) return max;
+        long[] values = new long[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n++] = 1L << h;
+            }
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(values[a], values[b]));
+        double target = fraction * count;
+        long rank = 0;
+        for (int i : order) {
+            rank += weights[i];
+            if (rank >= target) {
+                return values[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return Number of values held, which bounds the memory used.
+     */
+    public int getRetained() {
+        return retained;
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - level - 1;
+        return (int) Math.ceil(k * Math.pow(SHRINK, depth)) + 1;
+    }
+
+    private void grow() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new long[8];
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        maxRetained = 0;
+        for (int h = 0; h < levels.length; h++) {
+            maxRetained += capacity(h);
+        }
+    }
+
+    private void append(int level, long value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], sizes[level] * 2);
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    /**
+     * Compacts the lowest level at or over its capacity, then the next ones while
+     * the sketch is still full.
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] < capacity(h)) continue;
+            if (h + 1 == levels.length) {
+                grow();
+            }
+            long[] items = levels[h];
+            int size = sizes[h];
+            Arrays.sort(items, 0, size);
+            // An odd item out (the smallest) stays behind; of each pair above it one is promoted.
+            int first = (size & 1) + (ThreadLocalRandom.current().nextBoolean() ? 1 : 0);
+            for (int i = first; i < size; i += 2) {
+                append(h + 1, items[i]);
+            }
+            sizes[h] = size & 1;
+            retained -= size - sizes[h];
+            if (retained < maxRetained) {
+                break;
+            }
+        }
+    }
+}
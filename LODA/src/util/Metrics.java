@@ -0,0 +1,201 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, latency histograms and gauges, exportable in the Prometheus
+ * text format.
+ * <p>
+ * Services look their metrics up once, into static fields, and update them on the
+ * hot path without allocating: counters are {@link LongAdder}s and latencies go
+ * into {@link LatencyHistogram}s in nanoseconds. Gauges are sampled only when the
+ * metrics are read. Names follow Prometheus conventions: {@code _total} for counters
+ * and {@code _seconds} for latencies, which are exported in seconds.
+ */
+public class Metrics {
+    private static final Metrics GLOBAL = new Metrics();
+    private static final int MIN_EXPORTED_EXPONENT = 10;  // first bucket bound ~1 microsecond
+    private static final int MAX_EXPORTED_EXPONENT = 36;  // last finite bound ~69 seconds
+
+    static {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        GLOBAL.gauge("jvm_heap_used_bytes", "Heap in use", () -> memory.getHeapMemoryUsage().getUsed());
+        GLOBAL.gauge("jvm_heap_committed_bytes", "Heap committed by the JVM",
+                () -> memory.getHeapMemoryUsage().getCommitted());
+    }
+
+    private static class Metric {
+        final String help;
+        final Object value;  // LongAdder, LatencyHistogram or LongSupplier
+
+        Metric(String help, Object value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return The process-wide registry used by the services.
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     *
+     * @param name Metric name, ending in {@code _total}.
+     * @param help One-line description.
+     * @return The counter.
+     */
+    public LongAdder counter(String name, String help) {
+        return (LongAdder) metrics.computeIfAbsent(name, k -> new Metric(help, new LongAdder())).value;
+    }
+
+    /**
+     * Returns the latency histogram with the given name, creating it on first use.
+     *
+     * @param name Metric name, ending in {@code _seconds}.
+     * @param help One-line description.
+     * @return The histogram; record nanoseconds.
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        return (LatencyHistogram) metrics.computeIfAbsent(name, k -> new Metric(help, new LatencyHistogram())).value;
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge of the same name.
+     *
+     * @param name  Metric name.
+     * @param help  One-line description.
+     * @param value Sampled whenever the metrics are read.
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        metrics.put(name, new Metric(help, value));
+    }
+
+    /**
+     * Unregisters a gauge, if {@code value} is still the one registered under that name.
+     *
+     * @param name  Metric name.
+     * @param value The supplier passed to {@link #gauge}.
+     */
+    public void removeGauge(String name, LongSupplier value) {
+        Metric metric = metrics.get(name);
+        if (metric != null && metric.value == value) {
+            metrics.remove(name, metric);
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format. Histograms get
+     * cumulative buckets at powers of two nanoseconds, which fall on bucket
+     * boundaries and so are exact.
+     *
+     * @param out Destination.
+     * @throws IOException if writing fails.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(metric.help).append('\n');
+            if (metric.value instanceof LongAdder) {
+                out.append("# TYPE ").append(name).append(" counter\n");
+                out.append(name).append(' ').append(String.valueOf(((LongAdder) metric.value).sum())).append('\n');
+            } else if (metric.value instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) metric.value;
+                long count = histogram.getCount();
+                out.append("# TYPE ").append(name).append(" histogram\n");
+                for (int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPORTED_EXPONENT; exponent++) {
+                    long bound = 1L << exponent;
+                    out.append(name).append("_bucket{le=\"").append(seconds(bound)).append("\"} ")
+                            .append(String.valueOf(Math.min(count, histogram.countBelow(bound)))).append('\n');
+                }
+                out.append(name).append("_bucket{le=\"+Inf\"} ").append(String.valueOf(count)).append('\n');
+                out.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+                out.append(name).append("_count ").append(String.valueOf(count)).append('\n');
+            } else {
+                out.append("# TYPE ").append(name).append(" gauge\n");
+                out.append(name).append(' ').append(String.valueOf(((LongSupplier) metric.value).getAsLong())).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Exports every metric to a file in the Prometheus text format. The file is
+     * written to a temporary name and renamed into place, so a scraper never sees
+     * a partial file.
+     *
+     * @param path Destination file.
+     * @return true if the file was written.
+     */
+    public boolean export(String path) {
+        File file = new File(path);
+        File tmp = new File(path + ".tmp");
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                writePrometheus(out);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            tmp.delete();
+            System.err.println("Error exporting metrics: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return One line per metric: counter and gauge values, and count, mean,
+     *         p50, p99 and max for histograms, in milliseconds.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            Object value = entry.getValue().value;
+            sb.append(entry.getKey()).append(": ");
+            if (value instanceof LongAdder) {
+                sb.append(((LongAdder) value).sum());
+            } else if (value instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) value;
+                long count = histogram.getCount();
+                sb.append("count=").append(count);
+                if (count > 0) {
+                    sb.append(" mean=").append(millis(histogram.getSum() / count))
+                            .append("ms p50=").append(millis(histogram.getPercentile(50)))
+                            .append("ms p99=").append(millis(histogram.getPercentile(99)))
+                            .append("ms max=").append(millis(histogram.getMax())).append("ms");
+                }
+            } else {
+                sb.append(((LongSupplier) value).getAsLong());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+}
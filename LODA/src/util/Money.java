@@ -0,0 +1,123 @@
+package util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Exact parsing and formatting of amounts held as {@code long} cents.
+ * <p>
+ * Amounts are plain longs rather than objects, so sums and comparisons are
+ * ordinary integer operations. Parsing and formatting work directly on the
+ * digits, without going through {@code double}, {@code BigDecimal} or
+ * {@code String.format}, except for unusual input such as exponents.
+ */
+public final class Money {
+
+    private Money() {
+    }
+
+    /**
+     * Parses a decimal amount such as {@code 12}, {@code -3.5} or {@code 19.99}.
+     * Digits past the cents are rounded half up (away from zero).
+     *
+     * @param text The amount.
+     * @return The amount in cents.
+     * @throws NumberFormatException if the text is not a number or does not fit in a long.
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a decimal amount from part of a character sequence.
+     *
+     * @param text The text.
+     * @param from Start of the amount (inclusive).
+     * @param to   End of the amount (exclusive).
+     * @return The amount in cents.
+     * @throws NumberFormatException if the text is not a number or does not fit in a long.
+     */
+    public static long parse(CharSequence text, int from, int to) {
+        int pos = from;
+        boolean negative = false;
+        if (pos < to && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; pos < to; pos++) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') break;
+            if (++digits > 16) return parseSlow(text, from, to);
+            units = units * 10 + (c - '0');
+        }
+        long cents = units * 100;
+        if (pos < to && text.charAt(pos) == '.') {
+            pos++;
+            int fraction = 0;
+            for (; pos < to; pos++) {
+                char c = text.charAt(pos);
+                if (c < '0' || c > '9') break;
+                digits++;
+                if (fraction < 2) {
+                    cents += (c - '0') * (fraction == 0 ? 10 : 1);
+                } else if (fraction == 2 && c >= '5') {
+                    cents++;
+                }
+                fraction++;
+            }
+        }
+        if (pos < to || digits == 0) {
+            return parseSlow(text, from, to);
+        }
+        return negative ? -cents : cents;
+    }
+
+    private static long parseSlow(CharSequence text, int from, int to) {
+        try {
+            return new BigDecimal(text.subSequence(from, to).toString())
+                    .setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + text.subSequence(from, to));
+        }
+    }
+
+    /**
+     * Appends an amount with two decimals and a '.' separator.
+     *
+     * @param sb    Destination buffer.
+     * @param cents The amount in cents.
+     * @return The buffer.
+     */
+    public static StringBuilder append(StringBuilder sb, long cents) {
+        return append(sb, cents, '.');
+    }
+
+    /**
+     * Appends an amount with two decimals.
+     *
+     * @param sb        Destination buffer.
+     * @param cents     The amount in cents.
+     * @param separator Decimal separator.
+     * @return The buffer.
+     */
+    public static StringBuilder append(StringBuilder sb, long cents, char separator) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        long units = Math.abs(cents / 100);
+        int fraction = (int) Math.abs(cents % 100);
+        sb.append(units).append(separator);
+        if (fraction < 10) sb.append('0');
+        return sb.append(fraction);
+    }
+
+    /**
+     * @param cents The amount in cents.
+     * @return The amount with two decimals, e.g. {@code 12.50}.
+     */
+    public static String format(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+}
@@ -0,0 +1,57 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a dense int code to each distinct string (dictionary encoding).
+ * Codes are stable for the lifetime of the dictionary.
+ */
+public class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns the code for a string, assigning a new one if needed.
+     *
+     * @param value The string to encode.
+     * @return Its code.
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            values.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code for a string without assigning one.
+     *
+     * @param value The string to look up.
+     * @return Its code, or -1 if the string is unknown.
+     */
+    public int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param code A code returned by {@link #encode(String)}.
+     * @return The string it stands for.
+     */
+    public String decode(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * @return Number of distinct strings.
+     */
+    public int size() {
+        return values.size();
+    }
+}